@@ -0,0 +1,164 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Kernels, using the Vector API.  Needs java 16 or later to build, and
+ * --add-modules jdk.incubator.vector to build and to run, so it lives
+ * outside src/java.  Kernels.load() creates it by reflection, if it can.
+ *
+ * Each loop handles whole vectors, then hands the remaining elements to the
+ * plain java version.  Results are the same as Kernels, except that sums
+ * over rows are added in a different order, so can differ in the last bits.
+ */
+class VectorKernels extends Kernels {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    static final int LENGTH = SPECIES.length();
+    static final DoubleVector ZERO = DoubleVector.zero(SPECIES);
+    static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1);
+
+    @Override
+    String getName() {
+        return "vector, " + SPECIES.vectorBitSize() + " bits";
+    }
+
+    static DoubleVector load(double[] a, int i ) {
+        return DoubleVector.fromArray(SPECIES, a, i);
+    }
+    static DoubleVector ones(VectorMask<Double> mask ) {
+        return ZERO.blend(ONE, mask);
+    }
+
+    @Override
+    void unary(int op, double[] a, double[] out, int start, int end ) {
+        int vectorEnd = start + SPECIES.loopBound(end - start);
+        int i = start;
+        switch( op ) {
+            case NEG: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).neg().intoArray(out, i); } break;
+            case ABS: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).abs().intoArray(out, i); } break;
+            case RECPR: for( ; i < vectorEnd; i += LENGTH ) { ONE.div(load(a, i)).intoArray(out, i); } break;
+            case SQRT: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).sqrt().intoArray(out, i); } break;
+            default: break; // eg EXP, whose vector version can differ from Math.exp, so all of it runs in plain java
+        }
+        super.unary(op, a, out, i, end);
+    }
+    @Override
+    void binary(int op, double[] a, double[] b, double[] out, int start, int end ) {
+        int vectorEnd = start + SPECIES.loopBound(end - start);
+        int i = start;
+        switch( op ) {
+            case ADD: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).add(load(b, i)).intoArray(out, i); } break;
+            case SUB: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).sub(load(b, i)).intoArray(out, i); } break;
+            case MUL: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).mul(load(b, i)).intoArray(out, i); } break;
+            case DIV: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).div(load(b, i)).intoArray(out, i); } break;
+            case MAX: for( ; i < vectorEnd; i += LENGTH ) {
+                DoubleVector va = load(a, i);
+                DoubleVector vb = load(b, i);
+                va.blend(vb, va.lt(vb)).intoArray(out, i);
+            } break;
+            case MIN: for( ; i < vectorEnd; i += LENGTH ) {
+                DoubleVector va = load(a, i);
+                DoubleVector vb = load(b, i);
+                va.blend(vb, va.compare(VectorOperators.GT, vb)).intoArray(out, i);
+            } break;
+            case EQ: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.EQ, load(b, i))).intoArray(out, i); } break;
+            case NE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.NE, load(b, i))).intoArray(out, i); } break;
+            case LT: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.LT, load(b, i))).intoArray(out, i); } break;
+            case LE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.LE, load(b, i))).intoArray(out, i); } break;
+            case GT: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.GT, load(b, i))).intoArray(out, i); } break;
+            case GE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.GE, load(b, i))).intoArray(out, i); } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+        super.binary(op, a, b, out, i, end);
+    }
+    @Override
+    void scalar(int op, double[] a, double s, double[] out, int start, int end ) {
+        int vectorEnd = start + SPECIES.loopBound(end - start);
+        int i = start;
+        DoubleVector vs = DoubleVector.broadcast(SPECIES, s);
+        switch( op ) {
+            case ADD: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).add(vs).intoArray(out, i); } break;
+            case SUB: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).sub(vs).intoArray(out, i); } break;
+            case MUL: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).mul(vs).intoArray(out, i); } break;
+            case DIV: for( ; i < vectorEnd; i += LENGTH ) { load(a, i).div(vs).intoArray(out, i); } break;
+            case MAX: for( ; i < vectorEnd; i += LENGTH ) {
+                DoubleVector va = load(a, i);
+                va.blend(vs, va.lt(vs)).intoArray(out, i);
+            } break;
+            case MIN: for( ; i < vectorEnd; i += LENGTH ) {
+                DoubleVector va = load(a, i);
+                va.blend(vs, va.compare(VectorOperators.GT, vs)).intoArray(out, i);
+            } break;
+            case EQ: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.EQ, vs)).intoArray(out, i); } break;
+            case NE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.NE, vs)).intoArray(out, i); } break;
+            case LT: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.LT, vs)).intoArray(out, i); } break;
+            case LE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.LE, vs)).intoArray(out, i); } break;
+            case GT: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.GT, vs)).intoArray(out, i); } break;
+            case GE: for( ; i < vectorEnd; i += LENGTH ) { ones(load(a, i).compare(VectorOperators.GE, vs)).intoArray(out, i); } break;
+            default: break; // POW, runs in plain java
+        }
+        super.scalar(op, a, s, out, i, end);
+    }
+    @Override
+    double reduce(int op, double[] a, int start, int end ) {
+        // four accumulators, so each step doesnt wait for the one before
+        int step = LENGTH * 4;
+        int vectorEnd = start + ( ( end - start ) / step ) * step;
+        if( vectorEnd == start ) {
+            return super.reduce(op, a, start, end);
+        }
+        DoubleVector acc0 = load(a, start);
+        DoubleVector acc1 = load(a, start + LENGTH);
+        DoubleVector acc2 = load(a, start + LENGTH * 2);
+        DoubleVector acc3 = load(a, start + LENGTH * 3);
+        int i = start + step;
+        switch( op ) {
+            case ADD:
+                for( ; i < vectorEnd; i += step ) {
+                    acc0 = acc0.add(load(a, i));
+                    acc1 = acc1.add(load(a, i + LENGTH));
+                    acc2 = acc2.add(load(a, i + LENGTH * 2));
+                    acc3 = acc3.add(load(a, i + LENGTH * 3));
+                }
+                return acc0.add(acc1).add(acc2.add(acc3)).reduceLanes(VectorOperators.ADD) + super.reduce(op, a, i, end);
+            case MAX:
+                for( ; i < vectorEnd; i += step ) {
+                    acc0 = acc0.max(load(a, i));
+                    acc1 = acc1.max(load(a, i + LENGTH));
+                    acc2 = acc2.max(load(a, i + LENGTH * 2));
+                    acc3 = acc3.max(load(a, i + LENGTH * 3));
+                }
+                return Math.max(acc0.max(acc1).max(acc2.max(acc3)).reduceLanes(VectorOperators.MAX), super.reduce(op, a, i, end));
+            case MIN:
+                for( ; i < vectorEnd; i += step ) {
+                    acc0 = acc0.min(load(a, i));
+                    acc1 = acc1.min(load(a, i + LENGTH));
+                    acc2 = acc2.min(load(a, i + LENGTH * 2));
+                    acc3 = acc3.min(load(a, i + LENGTH * 3));
+                }
+                return Math.min(acc0.min(acc1).min(acc2.min(acc3)).reduceLanes(VectorOperators.MIN), super.reduce(op, a, i, end));
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    @Override
+    void accumulate(int op, double[] acc, int accStart, double[] a, int aStart, int length ) {
+        int vectorLength = SPECIES.loopBound(length);
+        int i = 0;
+        switch( op ) {
+            case ADD: for( ; i < vectorLength; i += LENGTH ) { load(acc, accStart + i).add(load(a, aStart + i)).intoArray(acc, accStart + i); } break;
+            case MAX: for( ; i < vectorLength; i += LENGTH ) { load(acc, accStart + i).max(load(a, aStart + i)).intoArray(acc, accStart + i); } break;
+            case MIN: for( ; i < vectorLength; i += LENGTH ) { load(acc, accStart + i).min(load(a, aStart + i)).intoArray(acc, accStart + i); } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+        super.accumulate(op, acc, accStart + i, a, aStart + i, length - i);
+    }
+}
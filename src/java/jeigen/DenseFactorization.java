@@ -0,0 +1,156 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A factorization of a dense matrix A, that lives in the native Eigen layer,
+ * for solving A * x = b for many b:
+ *
+ *     DenseFactorization lu = A.partialPivLu(); // factorizes once, O(n^3)
+ *     try {
+ *         for( ... ) {
+ *             lu.solveInto(b, x); // O(n^2) per column of b
+ *         }
+ *     } finally {
+ *         lu.close();
+ *     }
+ *
+ * DenseMatrix.ldltSolve and fullPivHouseholderQRSolve factorize A again on
+ * every call.
+ *
+ * Created by DenseMatrix.ldlt(), llt(), partialPivLu() and colPivQr().  The
+ * native memory is only released by close(), so please call it, eg using
+ * try-with-resources.  solve can be called from several threads at once, and
+ * close waits for any solves that are running.
+ */
+public class DenseFactorization implements AutoCloseable {
+    static final int LDLT = 0;
+    static final int LLT = 1;
+    static final int PARTIAL_PIV_LU = 2;
+    static final int COL_PIV_QR = 3;
+    static final String[] NAMES = { "ldlt", "llt", "partialPivLu", "colPivQr" };
+
+    /**
+     * Number of rows of A
+     */
+    public final int rows;
+    /**
+     * Number of columns of A
+     */
+    public final int cols;
+    final int type;
+    int handle;
+    volatile boolean closed = false;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // solves hold the read lock, close the write lock
+
+    /**
+     * factorizes a, which is copied into the native layer
+     */
+    DenseFactorization(int type, DenseMatrix a ) {
+        if( type != COL_PIV_QR && a.rows != a.cols ) {
+            throw new RuntimeException(NAMES[type] + " matrix size error: must be square matrix, but was " + a.shape());
+        }
+        this.type = type;
+        this.rows = a.rows;
+        this.cols = a.cols;
+        int result = JeigenNative.dense_factorize(type, a.rows, a.cols, a.values);
+        if( result == -2 ) {
+            throw new RuntimeException(NAMES[type] + " failed: " + ( type == LLT ? "matrix is not positive definite" : "numerical issue" ));
+        }
+        this.handle = Jeigen.checkHandle(result);
+    }
+    final int getHandle() {
+        if( closed ) {
+            throw new RuntimeException("DenseFactorization has already been closed");
+        }
+        return handle;
+    }
+    /**
+     * Solves A * x = b, and returns x.  For colPivQr of a non-square A, x is
+     * the least squares solution
+     */
+    public DenseMatrix solve(DenseMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("solve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        return solveInto(b, new DenseMatrix(this.cols, b.cols));
+    }
+    /**
+     * as solve, but writes result into x, which must be of size
+     * cols * b.cols.  Returns x
+     */
+    public DenseMatrix solveInto(DenseMatrix b, DenseMatrix x ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("solve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        DenseMatrix.checkOutput(x, this.cols, b.cols, b);
+        lock.readLock().lock();
+        try {
+            JeigenNative.dense_factorization_solve(getHandle(), b.cols, b.values, x.values);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return x;
+    }
+    double[] determinants() {
+        if( rows != cols ) {
+            throw new RuntimeException("determinant matrix size error: must be square matrix, but was " + shape());
+        }
+        double[] result = new double[2];
+        lock.readLock().lock();
+        try {
+            JeigenNative.dense_factorization_determinant(getHandle(), result);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+    /**
+     * determinant of A.  Can overflow, or underflow to zero, for large A, in
+     * which case see logDeterminant
+     */
+    public double determinant() {
+        return determinants()[0];
+    }
+    /**
+     * log of the absolute value of the determinant of A, calculated without
+     * forming the determinant, so it doesnt overflow.  The sign is the sign
+     * of determinant()
+     */
+    public double logDeterminant() {
+        return determinants()[1];
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    public boolean isClosed() {
+        return closed;
+    }
+    /**
+     * frees the native factorization, once any running solves finish.  Calling
+     * close more than once is harmless
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if( !closed ) {
+                closed = true;
+                if( JeigenNative.freeDenseFactorization(handle) != 0 ) {
+                    throw new RuntimeException("native handle " + handle + " was not live");
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    public String toString() {
+        return "DenseFactorization, " + NAMES[type] + ", " + rows + " * " + cols + ( closed ? ", closed" : "" );
+    }
+}
@@ -6,8 +6,10 @@
 
 package jeigen;
 
+import java.util.Arrays;
 import java.util.Random;
 
+import jeigen.statistics.Description;
 import jeigen.statistics.Statistics;
 
 /**
@@ -82,6 +84,43 @@ public class DenseMatrix {
     public DenseMatrix cols( int startcol, int endcolexclusive ) {
         return slice(0, rows, startcol, endcolexclusive );
     }
+    /**
+     * returns a view of the whole matrix, sharing its values.  See DenseMatrixView
+     */
+    public DenseMatrixView view() {
+        return new DenseMatrixView(values, 0, rows, rows, cols);
+    }
+    /**
+     * like slice, but returns a view which shares this matrix's values,
+     * rather than a copy
+     */
+    public DenseMatrixView sliceView( int startrow, int endrowexclusive, int startcol, int endcolexclusive ) {
+        return view().slice(startrow, endrowexclusive, startcol, endcolexclusive);
+    }
+    /**
+     * like col, but returns a view which shares this matrix's values
+     */
+    public DenseMatrixView colView( int col ) {
+        return view().col(col);
+    }
+    /**
+     * like row, but returns a view which shares this matrix's values
+     */
+    public DenseMatrixView rowView( int row ) {
+        return view().row(row);
+    }
+    /**
+     * like rows, but returns a view which shares this matrix's values
+     */
+    public DenseMatrixView rowsView( int startrow, int endrowexclusive ) {
+        return view().rows(startrow, endrowexclusive);
+    }
+    /**
+     * like cols, but returns a view which shares this matrix's values
+     */
+    public DenseMatrixView colsView( int startcol, int endcolexclusive ) {
+        return view().cols(startcol, endcolexclusive);
+    }
     /**
      * Creates matrix from valuesstring in format "12 3; 4 5"
      * Result:
@@ -443,6 +482,15 @@ public class DenseMatrix {
     public DenseMatrix meanOverCols(){
         return Statistics.meanOverCols(this);
     }
+    /**
+     * mean, variance, std, min and max of each column, in one pass.  See Statistics
+     */
+    public Description describeOverRows(){
+        return Statistics.describeOverRows(this);
+    }
+    public Description describeOverCols(){
+        return Statistics.describeOverCols(this);
+    }
     /**
      * sum aggregate over rows
      * result has a single row,
@@ -451,25 +499,12 @@ public class DenseMatrix {
      */
     public DenseMatrix sumOverRows() {
         DenseMatrix result = new DenseMatrix(1, cols );
-        for( int c = 0; c < cols; c++ ) {
-            int offset = c * rows;
-            double sum = 0;
-            for( int r = 0; r < rows; r++ ) {
-                sum += values[offset + r];
-            }
-            result.set(0,c,sum);
-        }
+        Parallel.reduceOverRows(Kernels.ADD, values, rows, cols, result.values);
         return result;
     }
     public DenseMatrix sumOverCols() {
         DenseMatrix result = new DenseMatrix(rows, 1 );
-        for( int r = 0; r < rows; r++ ) {
-            double sum = 0;
-            for( int c = 0; c < cols; c++ ) {
-                sum += get(r,c);
-            }
-            result.set(r,0,sum);
-        }
+        Parallel.reduceOverCols(Kernels.ADD, values, rows, cols, result.values);
         return result;
     }
     public DenseMatrix maxOverRows() {
@@ -477,14 +512,7 @@ public class DenseMatrix {
             throw new RuntimeException("maxoverrows can't be called on empty matrix");
         }
         DenseMatrix result = new DenseMatrix(1, cols );
-        for( int c = 0; c < cols; c++ ) {
-            int offset = c * rows;
-            double max = get(0,c);
-            for( int r = 0; r < rows; r++ ) {
-                max = Math.max(max, values[offset + r] );
-            }
-            result.set(0,c,max);
-        }
+        Parallel.reduceOverRows(Kernels.MAX, values, rows, cols, result.values);
         return result;
     }
     public DenseMatrix maxOverCols() {
@@ -492,13 +520,7 @@ public class DenseMatrix {
             throw new RuntimeException("maxOverCols can't be called on empty matrix");
         }
         DenseMatrix result = new DenseMatrix(rows, 1 );
-        for( int r = 0; r < rows; r++ ) {
-            double max = get(r,0);
-            for( int c = 0; c < cols; c++ ) {
-                max = Math.max(max, get(r,c) );
-            }
-            result.set(r,0,max);
-        }
+        Parallel.reduceOverCols(Kernels.MAX, values, rows, cols, result.values);
         return result;
     }
     public DenseMatrix minOverRows() {
@@ -506,14 +528,7 @@ public class DenseMatrix {
             throw new RuntimeException("minoverrows can't be called on empty matrix");
         }
         DenseMatrix result = new DenseMatrix(1, cols );
-        for( int c = 0; c < cols; c++ ) {
-            int offset = c * rows;
-            double min = get(0,c);
-            for( int r = 0; r < rows; r++ ) {
-                min = Math.min(min, values[offset + r] );
-            }
-            result.set(0,c,min);
-        }
+        Parallel.reduceOverRows(Kernels.MIN, values, rows, cols, result.values);
         return result;
     }
     public DenseMatrix minOverCols() {
@@ -521,26 +536,47 @@ public class DenseMatrix {
             throw new RuntimeException("minOverCols can't be called on empty matrix");
         }
         DenseMatrix result = new DenseMatrix(rows, 1 );
-        for( int r = 0; r < rows; r++ ) {
-            double min = get(r,0);
-            for( int c = 0; c < cols; c++ ) {
-                min = Math.min(min, get(r,c) );
-            }
-            result.set(r,0,min);
-        }
+        Parallel.reduceOverCols(Kernels.MIN, values, rows, cols, result.values);
         return result;
     }
     /**
-     * returns transpose
+     * returns transpose, as a new matrix.  To multiply or solve by the
+     * transpose, tView avoids the copy
      */
-    public DenseMatrix t() { // this could be optimized a lot, by not actually transposing...
+    public DenseMatrix t() {
         DenseMatrix result = new DenseMatrix(cols,rows );
-        for( int r = 0; r < rows; r++ ) {
-            for( int c = 0; c < cols; c++ ) {
-                result.set(c, r, get(r,c));
+        transpose(values, 0, rows, rows, cols, result.values, 0, cols);
+        return result;
+    }
+    /**
+     * returns a transposed view of this matrix, sharing its values, so that
+     * eg A.tView().mmul(B) passes A to Eigen as it is, and Eigen reads it
+     * transposed, rather than first copying A.t()
+     */
+    public DenseMatrixView tView() {
+        return view().t();
+    }
+    static final int TRANSPOSE_BLOCK = 32; // 32 * 32 doubles from each of source and dest fit in the l1 cache
+    /**
+     * writes the transpose of the rows * cols block of source, whose element
+     * (r,c) is source[sourceOffset + c * sourceStride + r], into dest, so
+     * that element (c,r) is dest[destOffset + r * destStride + c].  Works one
+     * square block at a time, so that both reads and writes stay in cache
+     */
+    static void transpose(double[] source, int sourceOffset, int sourceStride, int rows, int cols,
+            double[] dest, int destOffset, int destStride ) {
+        for( int c0 = 0; c0 < cols; c0 += TRANSPOSE_BLOCK ) {
+            int cEnd = Math.min(cols, c0 + TRANSPOSE_BLOCK);
+            for( int r0 = 0; r0 < rows; r0 += TRANSPOSE_BLOCK ) {
+                int rEnd = Math.min(rows, r0 + TRANSPOSE_BLOCK);
+                for( int r = r0; r < rEnd; r++ ) {
+                    int destStart = destOffset + r * destStride;
+                    for( int c = c0; c < cEnd; c++ ) {
+                        dest[destStart + c] = source[sourceOffset + c * sourceStride + r];
+                    }
+                }
             }
         }
-        return result;
     }
     /**
      * constructs new dense matrix from values
@@ -587,10 +623,7 @@ public class DenseMatrix {
      */
     public DenseMatrix neg(){
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = - values[i];
-        }
+        Parallel.unary(Kernels.NEG, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -598,10 +631,7 @@ public class DenseMatrix {
      */
     public DenseMatrix recpr(){// note: per element reciprocal, ie 1/element
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = 1 / values[i];
-        }
+        Parallel.unary(Kernels.RECPR, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -609,10 +639,7 @@ public class DenseMatrix {
      */
     public DenseMatrix abs(){
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = Math.abs(values[i]);
-        }
+        Parallel.unary(Kernels.ABS, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -620,10 +647,7 @@ public class DenseMatrix {
      */
     public DenseMatrix mul( double scalar ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] * scalar;
-        }
+        Parallel.scalar(Kernels.MUL, values, scalar, result.values, rows * cols);
         return result;
     }
     /**
@@ -631,10 +655,7 @@ public class DenseMatrix {
      */
     public DenseMatrix pow( double power ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = Math.pow( values[i], power );
-        }
+        Parallel.scalar(Kernels.POW, values, power, result.values, rows * cols);
         return result;
     }
     /**
@@ -642,10 +663,7 @@ public class DenseMatrix {
      */
     public DenseMatrix sqrt() {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = Math.sqrt( values[i] );
-        }
+        Parallel.unary(Kernels.SQRT, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -653,10 +671,7 @@ public class DenseMatrix {
      */
     public DenseMatrix exp() {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = Math.exp( values[i] );
-        }
+        Parallel.unary(Kernels.EXP, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -664,10 +679,7 @@ public class DenseMatrix {
      */
     public DenseMatrix log() {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = Math.log( values[i] );
-        }
+        Parallel.unary(Kernels.LOG, values, result.values, rows * cols);
         return result;
     }
     /**
@@ -675,10 +687,7 @@ public class DenseMatrix {
      */
     public DenseMatrix div( double scalar ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] / scalar;
-        }
+        Parallel.scalar(Kernels.DIV, values, scalar, result.values, rows * cols);
         return result;
     }
     /**
@@ -686,10 +695,7 @@ public class DenseMatrix {
      */
     public DenseMatrix add( double scalar ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] + scalar;
-        }
+        Parallel.scalar(Kernels.ADD, values, scalar, result.values, rows * cols);
         return result;
     }
     /**
@@ -697,10 +703,7 @@ public class DenseMatrix {
      */
     public DenseMatrix sub( double scalar ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] - scalar;
-        }
+        Parallel.scalar(Kernels.SUB, values, scalar, result.values, rows * cols);
         return result;
     }
     /**
@@ -711,10 +714,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] * second.values[i];
-        }
+        Parallel.binary(Kernels.MUL, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -725,10 +725,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] / second.values[i];
-        }
+        Parallel.binary(Kernels.DIV, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -739,10 +736,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] + second.values[i];
-        }
+        Parallel.binary(Kernels.ADD, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -753,10 +747,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int capacity = rows * cols;
-        for( int i = 0; i < capacity; i++ ) {
-            result.values[i] = values[i] - second.values[i];
-        }
+        Parallel.binary(Kernels.SUB, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -789,12 +780,7 @@ public class DenseMatrix {
      */
     public DenseMatrix eq( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] == s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.EQ, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -802,12 +788,7 @@ public class DenseMatrix {
      */
     public DenseMatrix ne( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] != s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.NE, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -815,12 +796,7 @@ public class DenseMatrix {
      */
     public DenseMatrix le( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] <= s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.LE, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -828,12 +804,7 @@ public class DenseMatrix {
      */
     public DenseMatrix ge( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] >= s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.GE, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -841,12 +812,7 @@ public class DenseMatrix {
      */
     public DenseMatrix lt( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] < s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.LT, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -854,12 +820,7 @@ public class DenseMatrix {
      */
     public DenseMatrix gt( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] > s ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.scalar(Kernels.GT, values, s, result.values, rows * cols);
         return result;
     }
     /**
@@ -870,12 +831,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] == second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.EQ, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -886,12 +842,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] != second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.NE, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -902,12 +853,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] <= second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.LE, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -918,12 +864,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] >= second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.GE, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -934,12 +875,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] > second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.GT, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -950,12 +886,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] < second.values[i] ) {
-                result.values[i] = 1;
-            }
-        }
+        Parallel.binary(Kernels.LT, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -966,14 +897,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] < second.values[i] ) {
-                result.values[i] = second.values[i];
-            }
-            else
-                result.values[i] = values[i];
-        }
+        Parallel.binary(Kernels.MAX, values, second.values, result.values, rows * cols);
         return result;
     }
     /**
@@ -984,14 +908,7 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape() );
         }
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] > second.values[i] ) {
-                result.values[i] = second.values[i];
-            }
-            else
-                result.values[i] = values[i];
-        }
+        Parallel.binary(Kernels.MIN, values, second.values, result.values, rows * cols);
         return result;
     }
 
@@ -1000,14 +917,7 @@ public class DenseMatrix {
      */
     public DenseMatrix max( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] < s ) {
-                result.values[i] = s;
-            }
-            else
-                result.values[i] = values[i];
-        }
+        Parallel.scalar(Kernels.MAX, values, s, result.values, rows * cols);
         return result;
     }
 
@@ -1016,17 +926,218 @@ public class DenseMatrix {
      */
     public DenseMatrix min( double s ) {
         DenseMatrix result = new DenseMatrix(rows,cols);
-        int numElements = rows * cols;
-        for( int i = 0; i < numElements; i++ ) {
-            if( values[i] > s ) {
-                result.values[i] = s;
-            }
-            else
-                result.values[i] = values[i];
-        }
+        Parallel.scalar(Kernels.MIN, values, s, result.values, rows * cols);
         return result;
     }
 
+    void checkSameSize( DenseMatrix second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+    }
+    /**
+     * copies the values of source into this, which must be the same size.
+     * Returns this
+     */
+    public DenseMatrix assign( DenseMatrix source ) {
+        checkSameSize(source);
+        System.arraycopy(source.values, 0, values, 0, rows * cols);
+        return this;
+    }
+    /**
+     * sets every element to value.  Returns this
+     */
+    public DenseMatrix fill( double value ) {
+        Arrays.fill(values, 0, rows * cols, value);
+        return this;
+    }
+    /**
+     * in place, for each element: element = - element.  Returns this
+     */
+    public DenseMatrix negi() {
+        Parallel.unary(Kernels.NEG, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = 1 / element.  Returns this
+     */
+    public DenseMatrix recpri() {
+        Parallel.unary(Kernels.RECPR, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = abs( element ).  Returns this
+     */
+    public DenseMatrix absi() {
+        Parallel.unary(Kernels.ABS, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = Math.sqrt(element).  Returns this
+     */
+    public DenseMatrix sqrti() {
+        Parallel.unary(Kernels.SQRT, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = Math.exp(element).  Returns this
+     */
+    public DenseMatrix expi() {
+        Parallel.unary(Kernels.EXP, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = Math.log(element).  Returns this
+     */
+    public DenseMatrix logi() {
+        Parallel.unary(Kernels.LOG, values, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = Math.pow(element,power).  Returns this
+     */
+    public DenseMatrix powi( double power ) {
+        Parallel.scalar(Kernels.POW, values, power, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = element + scalar.  Returns this
+     */
+    public DenseMatrix addi( double scalar ) {
+        Parallel.scalar(Kernels.ADD, values, scalar, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = element - scalar.  Returns this
+     */
+    public DenseMatrix subi( double scalar ) {
+        Parallel.scalar(Kernels.SUB, values, scalar, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = element * scalar.  Returns this
+     */
+    public DenseMatrix muli( double scalar ) {
+        Parallel.scalar(Kernels.MUL, values, scalar, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = element / scalar.  Returns this
+     */
+    public DenseMatrix divi( double scalar ) {
+        Parallel.scalar(Kernels.DIV, values, scalar, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = max(element, s).  Returns this
+     */
+    public DenseMatrix maxi( double s ) {
+        Parallel.scalar(Kernels.MAX, values, s, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element = min(element, s).  Returns this
+     */
+    public DenseMatrix mini( double s ) {
+        Parallel.scalar(Kernels.MIN, values, s, values, rows * cols);
+        return this;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] + element[second].  Returns this
+     */
+    public DenseMatrix addi( DenseMatrix second ) {
+        return addInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] + element[second], written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix addInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.ADD, values, second.values, out.values, rows * cols);
+        return out;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] - element[second].  Returns this
+     */
+    public DenseMatrix subi( DenseMatrix second ) {
+        return subInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] - element[second], written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix subInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.SUB, values, second.values, out.values, rows * cols);
+        return out;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] * element[second].  Returns this
+     */
+    public DenseMatrix muli( DenseMatrix second ) {
+        return mulInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] * element[second], written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix mulInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.MUL, values, second.values, out.values, rows * cols);
+        return out;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] / element[second].  Returns this
+     */
+    public DenseMatrix divi( DenseMatrix second ) {
+        return divInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] / element[second], written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix divInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.DIV, values, second.values, out.values, rows * cols);
+        return out;
+    }
+    /**
+     * in place, for each element: element[this] = max(element[this], element[second]).  Returns this
+     */
+    public DenseMatrix maxi( DenseMatrix second ) {
+        return maxInto(second, this);
+    }
+    /**
+     * for each element: element[out] = max(element[this], element[second]), written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix maxInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.MAX, values, second.values, out.values, rows * cols);
+        return out;
+    }
+    /**
+     * in place, for each element: element[this] = min(element[this], element[second]).  Returns this
+     */
+    public DenseMatrix mini( DenseMatrix second ) {
+        return minInto(second, this);
+    }
+    /**
+     * for each element: element[out] = min(element[this], element[second]), written into out, which must be the same size.  out may be
+     * this or second.  Returns out
+     */
+    public DenseMatrix minInto( DenseMatrix second, DenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        Parallel.binary(Kernels.MIN, values, second.values, out.values, rows * cols);
+        return out;
+    }
     /**
      * Tests latency of multiplication: does everything except call the Eigen multiplication routine
      */
@@ -1035,19 +1146,71 @@ public class DenseMatrix {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
         DenseMatrix result = new DenseMatrix(this.rows, second.cols);
-        JeigenJna.Jeigen.dense_dummy_op2(this.rows, this.cols, second.cols, this.values, second.values, result.values );
+        JeigenNative.dense_dummy_op2(this.rows, this.cols, second.cols, this.values, second.values, result.values );
         return result;
     }
     /**
      * matrix multiplication of this by second
+     * small products run in java, larger ones in Eigen, see Jeigen.setMmulThreshold
      */
     public DenseMatrix mmul( DenseMatrix second ) {
         if( this.cols != second.rows ) {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
-        DenseMatrix result = new DenseMatrix(this.rows, second.cols);
-        JeigenJna.Jeigen.dense_multiply(this.rows, this.cols, second.cols, this.values, second.values, result.values );
-        return result;
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by a view, without copying the view
+     */
+    public DenseMatrix mmul( DenseMatrixView second ) {
+        return view().mmul(second);
+    }
+    /**
+     * checks that out has size rows * cols, and doesnt share storage with
+     * any of inputs, which would be overwritten mid-calculation
+     */
+    static void checkOutput( DenseMatrix out, int rows, int cols, DenseMatrix... inputs ) {
+        if( out.rows != rows || out.cols != cols ) {
+            throw new RuntimeException("output matrix size mismatch: " + out.shape() + " should be " + rows + " * " + cols );
+        }
+        for( DenseMatrix input : inputs ) {
+            if( input.values == out.values ) {
+                throw new RuntimeException("output matrix must not be one of the input matrices");
+            }
+        }
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Allocates nothing.  Returns out
+     */
+    public DenseMatrix mmulInto( DenseMatrix second, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this, second);
+        if( MmulDispatcher.useJava(this.rows, this.cols, second.cols) ) {
+            MmulDispatcher.mmulJava(this.rows, this.cols, second.cols, this.values, second.values, out.values );
+        } else {
+            JeigenNative.dense_multiply(this.rows, this.cols, second.cols, this.values, second.values, out.values );
+        }
+        return out;
+    }
+    /**
+     * out += alpha * this * second, ie matrix multiply and accumulate, without
+     * allocating anything.  out must be of size this.rows * second.cols.
+     * Returns out
+     */
+    public DenseMatrix mmulAddInto( DenseMatrix second, double alpha, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this, second);
+        if( MmulDispatcher.useJava(this.rows, this.cols, second.cols) ) {
+            MmulDispatcher.mmulAddJava(this.rows, this.cols, second.cols, alpha, this.values, second.values, out.values );
+        } else {
+            JeigenNative.dense_multiply_add(this.rows, this.cols, second.cols, alpha, this.values, second.values, out.values );
+        }
+        return out;
     }
     /**
      * matrix multiplication of this by second
@@ -1056,12 +1219,53 @@ public class DenseMatrix {
         if( this.cols != second.rows ) {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     */
+    public DenseMatrix mmulInto( SparseMatrixLil second, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this);
         int twohandle = SparseMatrixLil.allocateSparseMatrix(second);
-        DenseMatrix result = new DenseMatrix(this.rows, second.cols);
-        JeigenJna.Jeigen.dense_sparse_multiply(rows, cols, second.cols,
-                values, twohandle, result.values );
-        JeigenJna.Jeigen.freeSparseMatrix(twohandle);
-        return result;
+        try {
+            JeigenNative.dense_sparse_multiply(rows, cols, second.cols,
+                    values, twohandle, out.values );
+        } finally {
+            SparseMatrixLil.freeSparseMatrix(twohandle);
+        }
+        return out;
+    }
+    /**
+     * matrix multiplication of this by second, where second is already
+     * in the native layer
+     */
+    public DenseMatrix mmul( NativeSparseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     */
+    public DenseMatrix mmulInto( NativeSparseMatrix second, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this);
+        second.lock.readLock().lock();
+        try {
+            JeigenNative.dense_sparse_multiply(rows, cols, second.cols,
+                    values, second.getHandle(), out.values );
+        } finally {
+            second.lock.readLock().unlock();
+        }
+        return out;
     }
     /**
      * returns matrix with number of rows and columns of this
@@ -1069,6 +1273,26 @@ public class DenseMatrix {
     public DenseMatrix shape() {
         return new DenseMatrix(new double[][]{{rows,cols}});
     }
+    /**
+     * starts a per-element expression, which is only calculated, in one
+     * pass, when eval() is called, eg a.lazy().sub(b).mul(c).exp().eval()
+     * See LazyMatrix
+     */
+    public LazyMatrix lazy() {
+        return LazyMatrix.of(this);
+    }
+    /**
+     * converts to single precision, see FloatMatrix
+     */
+    public FloatMatrix toFloat() {
+        return new FloatMatrix(this);
+    }
+    /**
+     * copies this matrix into native memory, see DirectDenseMatrix
+     */
+    public DirectDenseMatrix toDirect() {
+        return new DirectDenseMatrix(this);
+    }
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("DenseMatrix, " + rows + " * " + cols + ":\n");
@@ -1112,10 +1336,20 @@ public class DenseMatrix {
         if( this.rows != b.rows ) {
             throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
         }
-        DenseMatrix result = new DenseMatrix(this.cols, b.cols);
-        JeigenJna.Jeigen.ldlt_solve(rows, cols, b.cols,
-                values, b.values, result.values );
-        return result;
+        return ldltSolveInto(b, new DenseMatrix(this.cols, b.cols));
+    }
+    /**
+     * as ldltSolve, but writes result into x, which must be of size
+     * this.cols * b.cols.  Returns x
+     */
+    public DenseMatrix ldltSolveInto(DenseMatrix b, DenseMatrix x ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        checkOutput(x, this.cols, b.cols, this, b);
+        JeigenNative.ldlt_solve(rows, cols, b.cols,
+                values, b.values, x.values );
+        return x;
     }
     /**
      * Solves this * result = b, and returns result
@@ -1125,10 +1359,48 @@ public class DenseMatrix {
         if( this.rows != b.rows ) {
             throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
         }
-        DenseMatrix result = new DenseMatrix(this.cols, b.cols);
-        JeigenJna.Jeigen.fullpivhouseholderqr_solve(rows, cols, b.cols,
-                values, b.values, result.values );
-        return result;
+        return fullPivHouseholderQRSolveInto(b, new DenseMatrix(this.cols, b.cols));
+    }
+    /**
+     * as fullPivHouseholderQRSolve, but writes result into x, which must be
+     * of size this.cols * b.cols.  Returns x
+     */
+    public DenseMatrix fullPivHouseholderQRSolveInto(DenseMatrix b, DenseMatrix x ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("fullpivhouseholderqrsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        checkOutput(x, this.cols, b.cols, this, b);
+        JeigenNative.fullpivhouseholderqr_solve(rows, cols, b.cols,
+                values, b.values, x.values );
+        return x;
+    }
+    /**
+     * factorizes this, once, for solving against many b.  this should be
+     * positive or negative semidefinite.  The result must be closed
+     */
+    public DenseFactorization ldlt() {
+        return new DenseFactorization(DenseFactorization.LDLT, this);
+    }
+    /**
+     * cholesky factorization of this, which must be positive definite.  The
+     * result must be closed
+     */
+    public DenseFactorization llt() {
+        return new DenseFactorization(DenseFactorization.LLT, this);
+    }
+    /**
+     * lu factorization of this, which must be invertible.  The result must
+     * be closed
+     */
+    public DenseFactorization partialPivLu() {
+        return new DenseFactorization(DenseFactorization.PARTIAL_PIV_LU, this);
+    }
+    /**
+     * qr factorization of this, with column pivoting; no conditions on this,
+     * which can be non-square.  The result must be closed
+     */
+    public DenseFactorization colPivQr() {
+        return new DenseFactorization(DenseFactorization.COL_PIV_QR, this);
     }
     public static class EigenResult {
         public DenseMatrixComplex values; // will be n * 1 matrix, where n * n 
@@ -1147,7 +1419,7 @@ public class DenseMatrix {
         DenseMatrix eigenValuesImag = new DenseMatrix(this.rows, 1 );
         DenseMatrix eigenVectorsReal = new DenseMatrix(this.cols,this.cols);
         DenseMatrix eigenVectorsImag = new DenseMatrix(this.cols,this.cols);
-        JeigenJna.Jeigen.jeigen_eig( rows, values, eigenValuesReal.values, eigenValuesImag.values,
+        JeigenNative.jeigen_eig( rows, values, eigenValuesReal.values, eigenValuesImag.values,
              eigenVectorsReal.values, eigenVectorsImag.values );
         return new EigenResult( new DenseMatrixComplex( eigenValuesReal, eigenValuesImag ),
            new DenseMatrixComplex( eigenVectorsReal, eigenVectorsImag ) );
@@ -1166,24 +1438,38 @@ public class DenseMatrix {
         }
         DenseMatrix eigenValues = new DenseMatrix(this.rows, this.cols );
         DenseMatrix eigenVectors = new DenseMatrix(this.cols,this.cols);
-        JeigenJna.Jeigen.jeigen_peig( rows, values, eigenValues.values, eigenVectors.values );
+        JeigenNative.jeigen_peig( rows, values, eigenValues.values, eigenVectors.values );
         return new PseudoEigenResult( eigenValues, eigenVectors );
     }
     public DenseMatrix mexp() {
+        return mexpInto(new DenseMatrix(this.cols,this.cols));
+    }
+    /**
+     * matrix exponential, written into out, which must be the same size as this.
+     * Returns out
+     */
+    public DenseMatrix mexpInto(DenseMatrix out) {
         if( this.cols != this.rows ) {
             throw new RuntimeException("exp matrix size error: must be square matrix");
         }
-        DenseMatrix result = new DenseMatrix(this.cols,this.cols);
-        JeigenJna.Jeigen.jeigen_exp(rows,values,result.values);
-        return result;
+        checkOutput(out, rows, cols, this);
+        JeigenNative.jeigen_exp(rows,values,out.values);
+        return out;
     }
     public DenseMatrix mlog() {
+        return mlogInto(new DenseMatrix(this.cols,this.cols));
+    }
+    /**
+     * matrix logarithm, written into out, which must be the same size as this.
+     * Returns out
+     */
+    public DenseMatrix mlogInto(DenseMatrix out) {
         if( this.cols != this.rows ) {
             throw new RuntimeException("log matrix size error: must be square matrix");
         }
-        DenseMatrix result = new DenseMatrix(this.cols,this.cols);
-        JeigenJna.Jeigen.jeigen_log(rows,values,result.values);
-        return result;
+        checkOutput(out, rows, cols, this);
+        JeigenNative.jeigen_log(rows,values,out.values);
+        return out;
     }
     /**
      * Stores result of singular value decomposition
@@ -1232,8 +1518,19 @@ public class DenseMatrix {
         DenseMatrix U = zeros(n,m);
         DenseMatrix S = zeros(m,1);
         DenseMatrix V = zeros(p,m);
-        JeigenJna.Jeigen.svd_dense(rows, cols, values, U.values, S.values, V.values);
-        return new SvdResult(U, S, V);
+        return svdInto(new SvdResult(U, S, V));
+    }
+    /**
+     * as svd, but writes U, S and V into result, which can be reused from
+     * an earlier svd of a matrix of the same size.  Returns result
+     */
+    public SvdResult svdInto(SvdResult result ) {
+        int m = Math.min(rows,cols);
+        checkOutput(result.U, rows, m, this);
+        checkOutput(result.S, m, 1, this);
+        checkOutput(result.V, cols, m, this);
+        JeigenNative.svd_dense(rows, cols, values, result.U.values, result.S.values, result.V.values);
+        return result;
     }
     /**
      * converts this matrix to sparse lil format
@@ -1256,6 +1553,7 @@ public class DenseMatrix {
                 }
             }
         }
+        result.compact = true; // column-major, no zeros
         return result;
     }
 }
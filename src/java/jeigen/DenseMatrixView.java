@@ -0,0 +1,534 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+
+/**
+ * A rectangular block of a DenseMatrix, which shares the matrix's values,
+ * rather than copying them like slice, col, row, rows and cols do.  Writes to
+ * the view change the matrix, and vice versa.  Create one with, eg:
+ *
+ *     DenseMatrixView block = A.sliceView(10, 20, 0, 5);
+ *     DenseMatrixView column = A.colView(3);
+ *
+ * Element (row, col) of the view is values[offset + col * stride + row], where
+ * stride is the number of rows of the matrix.  mmul passes the matrix's
+ * array to Eigen, as a Map with that outer stride, so nothing is copied on
+ * the java side.
+ *
+ * t() returns a transposed view, whose element (row, col) is
+ * values[offset + row * stride + col].  mmul and the solves pass it to Eigen
+ * with a flag, and Eigen reads it transposed, eg A.tView().mmul(B) doesnt
+ * copy A.
+ */
+public class DenseMatrixView {
+    /**
+     * Number of rows
+     */
+    public final int rows;
+    /**
+     * Number of columns
+     */
+    public final int cols;
+    final double[] values;
+    final int offset;
+    final int stride;
+    final boolean transposed;
+
+    DenseMatrixView(double[] values, int offset, int stride, int rows, int cols ) {
+        this(values, offset, stride, rows, cols, false);
+    }
+    DenseMatrixView(double[] values, int offset, int stride, int rows, int cols, boolean transposed ) {
+        this.values = values;
+        this.offset = offset;
+        this.stride = stride;
+        this.rows = rows;
+        this.cols = cols;
+        this.transposed = transposed;
+    }
+    /**
+     * returns the transpose of this view, sharing the same values
+     */
+    public DenseMatrixView t() {
+        return new DenseMatrixView(values, offset, stride, cols, rows, !transposed);
+    }
+    /**
+     * true if this is a transposed view, see t()
+     */
+    public boolean isTransposed() {
+        return transposed;
+    }
+    /**
+     * the rows and columns as laid out in values, ie swapped if transposed
+     */
+    final int storedRows() {
+        return transposed ? cols : rows;
+    }
+    final int storedCols() {
+        return transposed ? rows : cols;
+    }
+    final int index(int row, int col ) {
+        return transposed ? offset + row * stride + col : offset + col * stride + row;
+    }
+    /**
+     * returns a view of rows startrow to endrowexclusive - 1 and columns
+     * startcol to endcolexclusive - 1 of this view
+     */
+    public DenseMatrixView slice(int startrow, int endrowexclusive, int startcol, int endcolexclusive ) {
+        if( endrowexclusive > rows ) {
+            throw new RuntimeException("endrow must not exceed rows " + endrowexclusive + " vs " + rows );
+        }
+        if( endcolexclusive > cols ) {
+            throw new RuntimeException("endcol must not exceed cols " + endcolexclusive + " vs " + cols );
+        }
+        if( startrow < 0 || startrow > endrowexclusive ) {
+            throw new RuntimeException("startrow must be between 0 and endrow, but was  " + startrow );
+        }
+        if( startcol < 0 || startcol > endcolexclusive ) {
+            throw new RuntimeException("startcol must be between 0 and endcol, but was  " + startcol );
+        }
+        return new DenseMatrixView(values, index(startrow, startcol), stride,
+            endrowexclusive - startrow, endcolexclusive - startcol, transposed);
+    }
+    public DenseMatrixView col(int col ) {
+        return slice(0, rows, col, col + 1);
+    }
+    public DenseMatrixView row(int row ) {
+        return slice(row, row + 1, 0, cols);
+    }
+    public DenseMatrixView rows(int startrow, int endrowexclusive ) {
+        return slice(startrow, endrowexclusive, 0, cols);
+    }
+    public DenseMatrixView cols(int startcol, int endcolexclusive ) {
+        return slice(0, rows, startcol, endcolexclusive);
+    }
+    public final double get(int row, int col ) {
+        return values[index(row, col)];
+    }
+    public final void set(int row, int col, double value ) {
+        values[index(row, col)] = value;
+    }
+    /**
+     * true if the values of the view are consecutive in the array, eg a
+     * whole matrix, a range of columns, or a single column
+     */
+    public boolean isContiguous() {
+        return stride == storedRows() || storedCols() <= 1;
+    }
+    /**
+     * returns a copy of the values, as a new DenseMatrix
+     */
+    public DenseMatrix toDense() {
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        if( transposed ) {
+            DenseMatrix.transpose(values, offset, stride, cols, rows, result.values, 0, rows);
+            return result;
+        }
+        for( int c = 0; c < cols; c++ ) {
+            System.arraycopy(values, offset + c * stride, result.values, c * rows, rows);
+        }
+        return result;
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    void checkSameSize(DenseMatrixView second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+    }
+
+    /**
+     * copies the values of source into this view, which must be the same
+     * size.  Returns this
+     */
+    public DenseMatrixView assign(DenseMatrixView source ) {
+        checkSameSize(source);
+        if( transposed || source.transposed ) {
+            applyTransposed(-1, source, null, 0, this);
+            return this;
+        }
+        for( int c = 0; c < cols; c++ ) {
+            System.arraycopy(source.values, source.offset + c * source.stride, values, offset + c * stride, rows);
+        }
+        return this;
+    }
+    public DenseMatrixView assign(DenseMatrix source ) {
+        return assign(source.view());
+    }
+    /**
+     * sets every element of the view to value.  Returns this
+     */
+    public DenseMatrixView fill(double value ) {
+        for( int c = 0; c < storedCols(); c++ ) {
+            int start = offset + c * stride;
+            Arrays.fill(values, start, start + storedRows(), value);
+        }
+        return this;
+    }
+
+    /**
+     * out = this op second, one column at a time.  out may be this or second
+     */
+    static void apply(int op, DenseMatrixView first, DenseMatrixView second, DenseMatrixView out ) {
+        first.checkSameSize(second);
+        first.checkSameSize(out);
+        if( first.transposed || second.transposed || out.transposed ) {
+            applyTransposed(op, first, second, 0, out);
+            return;
+        }
+        int length = first.rows;
+        for( int c = 0; c < first.cols; c++ ) {
+            double[] a = first.values;
+            double[] b = second.values;
+            double[] result = out.values;
+            int ia = first.offset + c * first.stride;
+            int ib = second.offset + c * second.stride;
+            int ir = out.offset + c * out.stride;
+            switch( op ) {
+                case Kernels.ADD: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] + b[ib + i]; } break;
+                case Kernels.SUB: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] - b[ib + i]; } break;
+                case Kernels.MUL: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] * b[ib + i]; } break;
+                case Kernels.DIV: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] / b[ib + i]; } break;
+                case Kernels.MAX: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] < b[ib + i] ? b[ib + i] : a[ia + i]; } break;
+                case Kernels.MIN: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] > b[ib + i] ? b[ib + i] : a[ia + i]; } break;
+                default: throw new RuntimeException("unknown op " + op);
+            }
+        }
+    }
+    /**
+     * out = this op s, one column at a time.  out may be this
+     */
+    static void apply(int op, DenseMatrixView first, double s, DenseMatrixView out ) {
+        first.checkSameSize(out);
+        if( first.transposed || out.transposed ) {
+            applyTransposed(op, first, null, s, out);
+            return;
+        }
+        int length = first.rows;
+        for( int c = 0; c < first.cols; c++ ) {
+            double[] a = first.values;
+            double[] result = out.values;
+            int ia = first.offset + c * first.stride;
+            int ir = out.offset + c * out.stride;
+            switch( op ) {
+                case Kernels.ADD: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] + s; } break;
+                case Kernels.SUB: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] - s; } break;
+                case Kernels.MUL: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] * s; } break;
+                case Kernels.DIV: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] / s; } break;
+                case Kernels.MAX: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] < s ? s : a[ia + i]; } break;
+                case Kernels.MIN: for( int i = 0; i < length; i++ ) { result[ir + i] = a[ia + i] > s ? s : a[ia + i]; } break;
+                default: throw new RuntimeException("unknown op " + op);
+            }
+        }
+    }
+    /**
+     * as apply, one element at a time, for when any of the views is
+     * transposed.  Uses s if second is null.  op -1 copies first
+     */
+    static void applyTransposed(int op, DenseMatrixView first, DenseMatrixView second, double s, DenseMatrixView out ) {
+        for( int c = 0; c < first.cols; c++ ) {
+            for( int r = 0; r < first.rows; r++ ) {
+                double a = first.get(r, c);
+                double b = second == null ? s : second.get(r, c);
+                double result;
+                switch( op ) {
+                    case -1: result = a; break;
+                    case Kernels.ADD: result = a + b; break;
+                    case Kernels.SUB: result = a - b; break;
+                    case Kernels.MUL: result = a * b; break;
+                    case Kernels.DIV: result = a / b; break;
+                    case Kernels.MAX: result = a < b ? b : a; break;
+                    case Kernels.MIN: result = a > b ? b : a; break;
+                    default: throw new RuntimeException("unknown op " + op);
+                }
+                out.set(r, c, result);
+            }
+        }
+    }
+    DenseMatrix apply(int op, DenseMatrixView second ) {
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        apply(op, this, second, result.view());
+        return result;
+    }
+    DenseMatrix apply(int op, double s ) {
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        apply(op, this, s, result.view());
+        return result;
+    }
+
+    public DenseMatrix neg() {
+        return apply(Kernels.MUL, -1);
+    }
+    public DenseMatrix add(double scalar ) {
+        return apply(Kernels.ADD, scalar);
+    }
+    public DenseMatrix sub(double scalar ) {
+        return apply(Kernels.SUB, scalar);
+    }
+    public DenseMatrix mul(double scalar ) {
+        return apply(Kernels.MUL, scalar);
+    }
+    public DenseMatrix div(double scalar ) {
+        return apply(Kernels.DIV, scalar);
+    }
+    public DenseMatrix max(double scalar ) {
+        return apply(Kernels.MAX, scalar);
+    }
+    public DenseMatrix min(double scalar ) {
+        return apply(Kernels.MIN, scalar);
+    }
+    public DenseMatrix add(DenseMatrixView second ) {
+        return apply(Kernels.ADD, second);
+    }
+    public DenseMatrix sub(DenseMatrixView second ) {
+        return apply(Kernels.SUB, second);
+    }
+    /**
+     * per-element multiplication
+     */
+    public DenseMatrix mul(DenseMatrixView second ) {
+        return apply(Kernels.MUL, second);
+    }
+    /**
+     * per-element division
+     */
+    public DenseMatrix div(DenseMatrixView second ) {
+        return apply(Kernels.DIV, second);
+    }
+    public DenseMatrix max(DenseMatrixView second ) {
+        return apply(Kernels.MAX, second);
+    }
+    public DenseMatrix min(DenseMatrixView second ) {
+        return apply(Kernels.MIN, second);
+    }
+    public DenseMatrix add(DenseMatrix second ) {
+        return add(second.view());
+    }
+    public DenseMatrix sub(DenseMatrix second ) {
+        return sub(second.view());
+    }
+    public DenseMatrix mul(DenseMatrix second ) {
+        return mul(second.view());
+    }
+    public DenseMatrix div(DenseMatrix second ) {
+        return div(second.view());
+    }
+    public DenseMatrix max(DenseMatrix second ) {
+        return max(second.view());
+    }
+    public DenseMatrix min(DenseMatrix second ) {
+        return min(second.view());
+    }
+
+    /**
+     * in place, for each element: element = element + scalar.  Returns this
+     */
+    public DenseMatrixView addi(double scalar ) {
+        apply(Kernels.ADD, this, scalar, this);
+        return this;
+    }
+    public DenseMatrixView subi(double scalar ) {
+        apply(Kernels.SUB, this, scalar, this);
+        return this;
+    }
+    public DenseMatrixView muli(double scalar ) {
+        apply(Kernels.MUL, this, scalar, this);
+        return this;
+    }
+    public DenseMatrixView divi(double scalar ) {
+        apply(Kernels.DIV, this, scalar, this);
+        return this;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] + element[second].
+     * second must not overlap this, unless it is exactly the same block.  Returns this
+     */
+    public DenseMatrixView addi(DenseMatrixView second ) {
+        apply(Kernels.ADD, this, second, this);
+        return this;
+    }
+    public DenseMatrixView subi(DenseMatrixView second ) {
+        apply(Kernels.SUB, this, second, this);
+        return this;
+    }
+    public DenseMatrixView muli(DenseMatrixView second ) {
+        apply(Kernels.MUL, this, second, this);
+        return this;
+    }
+    public DenseMatrixView divi(DenseMatrixView second ) {
+        apply(Kernels.DIV, this, second, this);
+        return this;
+    }
+    public DenseMatrixView addi(DenseMatrix second ) {
+        return addi(second.view());
+    }
+    public DenseMatrixView subi(DenseMatrix second ) {
+        return subi(second.view());
+    }
+    public DenseMatrixView muli(DenseMatrix second ) {
+        return muli(second.view());
+    }
+    public DenseMatrixView divi(DenseMatrix second ) {
+        return divi(second.view());
+    }
+
+    /**
+     * sum over rows, ie a 1 * cols matrix
+     */
+    public DenseMatrix sumOverRows() {
+        DenseMatrix result = new DenseMatrix(1, cols);
+        if( transposed ) {
+            // sums along the rows as stored, which are 1 * n and n * 1 alike
+            System.arraycopy(t().sumOverCols().values, 0, result.values, 0, cols);
+            return result;
+        }
+        for( int c = 0; c < cols; c++ ) {
+            int start = offset + c * stride;
+            result.values[c] = Kernels.instance.reduce(Kernels.ADD, values, start, start + rows);
+        }
+        return result;
+    }
+    /**
+     * sum over columns, ie a rows * 1 matrix
+     */
+    public DenseMatrix sumOverCols() {
+        DenseMatrix result = new DenseMatrix(rows, 1);
+        if( transposed ) {
+            System.arraycopy(t().sumOverRows().values, 0, result.values, 0, rows);
+            return result;
+        }
+        for( int c = 0; c < cols; c++ ) {
+            Kernels.instance.accumulate(Kernels.ADD, result.values, 0, values, offset + c * stride, rows);
+        }
+        return result;
+    }
+    /**
+     * returns the sum over rows, or if only one row, returns
+     * sum over columns
+     */
+    public DenseMatrix sum() {
+        if( rows > 1 ) {
+            return sumOverRows();
+        }
+        return sumOverCols();
+    }
+
+    /**
+     * matrix multiplication of this by second
+     */
+    public DenseMatrix mmul(DenseMatrixView second ) {
+        DenseMatrix result = new DenseMatrix(rows, second.cols);
+        mmulInto(second, result.view());
+        return result;
+    }
+    public DenseMatrix mmul(DenseMatrix second ) {
+        return mmul(second.view());
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols, and must not share values with
+     * this or second.  Returns out
+     */
+    public DenseMatrixView mmulInto(DenseMatrixView second, DenseMatrixView out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        if( out.rows != rows || out.cols != second.cols ) {
+            throw new RuntimeException("output matrix size mismatch: " + out.shape() + " should be " + rows + " * " + second.cols );
+        }
+        if( out.values == values || out.values == second.values ) {
+            throw new RuntimeException("output matrix must not share values with the input matrices");
+        }
+        if( out.transposed ) {
+            // out' = second' * this'
+            second.t().mmulInto(this.t(), out.t());
+            return out;
+        }
+        if( MmulDispatcher.useJava(rows, cols, second.cols) ) {
+            DenseMatrixView first = transposed ? toDense().view() : this;
+            if( second.transposed ) {
+                second = second.toDense().view();
+            }
+            for( int c = 0; c < out.cols; c++ ) {
+                int start = out.offset + c * out.stride;
+                Arrays.fill(out.values, start, start + out.rows, 0);
+            }
+            MmulDispatcher.mmulAddJava(rows, cols, second.cols, 1, first.values, first.offset, first.stride,
+                second.values, second.offset, second.stride, out.values, out.offset, out.stride);
+        } else if( JeigenNative.passesInPlace((long)rows * cols * second.cols) ) {
+            // a small product on ffm: the arrays go to Eigen in place
+            JeigenNative.dense_multiply_strided(rows, cols, second.cols, values, offset, stride, transposed ? 1 : 0,
+                second.values, second.offset, second.stride, second.transposed ? 1 : 0, out.values, out.offset, out.stride);
+        } else {
+            // jna, and ffm for larger products, copy whole arrays to and from
+            // native memory, so pass just the part of each array that the
+            // view spans
+            DenseMatrixView first = this.span();
+            second = second.span();
+            DenseMatrixView result = out.span();
+            JeigenNative.dense_multiply_strided(rows, cols, second.cols, first.values, first.offset, first.stride, first.transposed ? 1 : 0,
+                second.values, second.offset, second.stride, second.transposed ? 1 : 0, result.values, result.offset, result.stride);
+            if( result.values != out.values ) {
+                System.arraycopy(result.values, 0, out.values, out.offset, result.values.length);
+            }
+        }
+        return out;
+    }
+    public DenseMatrixView mmulInto(DenseMatrix second, DenseMatrixView out ) {
+        return mmulInto(second.view(), out);
+    }
+    /**
+     * returns this, or if this covers only part of its array, the same
+     * view onto a copy of just the values from its first to its last element
+     */
+    DenseMatrixView span() {
+        int length = storedCols() == 0 ? 0 : ( storedCols() - 1 ) * stride + storedRows();
+        if( offset == 0 && length == values.length ) {
+            return this;
+        }
+        double[] spanValues = new double[length];
+        System.arraycopy(values, offset, spanValues, 0, length);
+        return new DenseMatrixView(spanValues, 0, stride, rows, cols, transposed);
+    }
+
+    /**
+     * Solves this * result = b, and returns result, as DenseMatrix.ldltSolve.
+     * Eigen reads this with its stride, transposed or not, so eg
+     * A.tView().ldltSolve(b) doesnt transpose A on the java side.  Only the
+     * part of the array that the view spans is copied to native memory
+     */
+    public DenseMatrix ldltSolve(DenseMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        DenseMatrixView a = span(); // solves are never in place, see JeigenFfm
+        DenseMatrix x = new DenseMatrix(this.cols, b.cols);
+        JeigenNative.ldlt_solve_strided(rows, cols, b.cols, a.values, a.offset, a.stride, a.transposed ? 1 : 0,
+                b.values, x.values );
+        return x;
+    }
+    /**
+     * Solves this * result = b, and returns result, as
+     * DenseMatrix.fullPivHouseholderQRSolve, copying only the part of the
+     * array that the view spans
+     */
+    public DenseMatrix fullPivHouseholderQRSolve(DenseMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("fullpivhouseholderqrsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        DenseMatrixView a = span(); // solves are never in place, see JeigenFfm
+        DenseMatrix x = new DenseMatrix(this.cols, b.cols);
+        JeigenNative.fullpivhouseholderqr_solve_strided(rows, cols, b.cols, a.values, a.offset, a.stride, a.transposed ? 1 : 0,
+                b.values, x.values );
+        return x;
+    }
+    public String toString() {
+        return "DenseMatrixView, " + rows + " * " + cols + ( transposed ? ", transposed," : "" ) + " of a matrix with " + stride + " rows";
+    }
+}
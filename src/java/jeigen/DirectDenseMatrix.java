@@ -0,0 +1,392 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Random;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * A dense matrix, whose values live in native memory, outside the java heap.
+ *
+ * DenseMatrix keeps its values in a java double[], which jna has to pin or
+ * copy on each native call, and which cannot hold more than 2^31 values.  The
+ * values of a DirectDenseMatrix are passed to Eigen by pointer, with no copying,
+ * and the number of values is only limited by memory, though rows and cols
+ * are each still an int.
+ *
+ * Storage is column-major, like DenseMatrix, and starts on a 64-byte boundary.
+ *
+ * The native memory is only released by close(), so please call it, eg using
+ * try-with-resources.  Each operation that returns a new DirectDenseMatrix,
+ * such as add or mmul, allocates native memory which must also be closed, so
+ * rather than chaining them, eg a.mul(b).sub(c), which would leak the result
+ * of a.mul(b), use the Into and in place variants:
+ *
+ *     DirectDenseMatrix result = a.mulInto(b, out).subi(c); // allocates nothing
+ */
+public class DirectDenseMatrix implements AutoCloseable {
+    static final int ALIGNMENT = 64;
+    static final int CHUNK_BITS = 27; // 2^27 doubles, ie 1GB, per DoubleBuffer
+    static final long CHUNK_MASK = ( 1L << CHUNK_BITS ) - 1;
+
+    /**
+     * Number of rows
+     */
+    public final int rows;
+    /**
+     * Number of columns
+     */
+    public final int cols;
+    final long size;
+    long rawAddress; // as returned by malloc, for free
+    Pointer pointer; // aligned
+    DoubleBuffer[] chunks; // views onto the native memory, so get/set dont need a jna call
+    boolean closed = false;
+
+    /**
+     * allocates a new rows * cols matrix of zeros
+     */
+    public DirectDenseMatrix(int rows, int cols ) {
+        if( rows < 0 || cols < 0 ) {
+            throw new RuntimeException("matrix size must not be negative: " + rows + " * " + cols );
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.size = (long)rows * cols;
+        long numBytes = size * 8;
+        rawAddress = Native.malloc(numBytes + ALIGNMENT);
+        if( rawAddress == 0 ) {
+            throw new OutOfMemoryError("could not allocate " + numBytes + " bytes of native memory");
+        }
+        long alignedAddress = ( rawAddress + ALIGNMENT - 1 ) & ~( (long)ALIGNMENT - 1 );
+        pointer = new Pointer(alignedAddress);
+        int numChunks = (int)( ( size + CHUNK_MASK ) >>> CHUNK_BITS );
+        chunks = new DoubleBuffer[numChunks];
+        for( int i = 0; i < numChunks; i++ ) {
+            long chunkStart = (long)i << CHUNK_BITS;
+            long chunkSize = Math.min(size - chunkStart, 1L << CHUNK_BITS);
+            chunks[i] = pointer.getByteBuffer(chunkStart * 8, chunkSize * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+        }
+        pointer.setMemory(0, numBytes, (byte)0);
+    }
+    /**
+     * copies source into native memory
+     */
+    public DirectDenseMatrix(DenseMatrix source ) {
+        this(source.rows, source.cols);
+        for( int col = 0; col < cols; col++ ) {
+            pointer.write((long)col * rows * 8, source.values, col * rows, rows);
+        }
+    }
+    public static DirectDenseMatrix zeros(int rows, int cols ) {
+        return new DirectDenseMatrix(rows, cols);
+    }
+    public static DirectDenseMatrix ones(int rows, int cols ) {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        result.fill(1);
+        return result;
+    }
+    public static DirectDenseMatrix rand(int rows, int cols ) {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        Random random = new Random();
+        for( long i = 0; i < result.size; i++ ) {
+            result.set(i, random.nextDouble());
+        }
+        return result;
+    }
+    final Pointer getPointer() {
+        if( closed ) {
+            throw new RuntimeException("DirectDenseMatrix has already been closed");
+        }
+        return pointer;
+    }
+    /**
+     * number of values, ie rows * cols
+     */
+    public long size() {
+        return size;
+    }
+    public final double get(int row, int col ) {
+        return get((long)col * rows + row);
+    }
+    /**
+     * value at column-major offset
+     */
+    public final double get(long offset ) {
+        return chunks[(int)( offset >>> CHUNK_BITS )].get((int)( offset & CHUNK_MASK ));
+    }
+    public final void set(int row, int col, double value ) {
+        set((long)col * rows + row, value);
+    }
+    public final void set(long offset, double value ) {
+        chunks[(int)( offset >>> CHUNK_BITS )].put((int)( offset & CHUNK_MASK ), value);
+    }
+    public final double s() {
+        return get(0);
+    }
+    public void fill(double value ) {
+        for( long i = 0; i < size; i++ ) {
+            set(i, value);
+        }
+    }
+    public DenseMatrix toDense() {
+        if( size > Integer.MAX_VALUE ) {
+            throw new RuntimeException("matrix too large for DenseMatrix: " + rows + " * " + cols );
+        }
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        for( int col = 0; col < cols; col++ ) {
+            getPointer().read((long)col * rows * 8, result.values, col * rows, rows);
+        }
+        return result;
+    }
+    public DirectDenseMatrix copy() {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        for( long i = 0; i < size; i++ ) {
+            result.set(i, get(i));
+        }
+        return result;
+    }
+    void checkSameSize(DirectDenseMatrix second ) {
+        if( this.rows != second.rows || this.cols != second.cols ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+    }
+    public DirectDenseMatrix neg() {
+        return mul(-1);
+    }
+    public DirectDenseMatrix abs() {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        for( long i = 0; i < size; i++ ) {
+            result.set(i, Math.abs(get(i)));
+        }
+        return result;
+    }
+    public DirectDenseMatrix add(double scalar ) {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        for( long i = 0; i < size; i++ ) {
+            result.set(i, get(i) + scalar);
+        }
+        return result;
+    }
+    public DirectDenseMatrix sub(double scalar ) {
+        return add(-scalar);
+    }
+    public DirectDenseMatrix mul(double scalar ) {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        for( long i = 0; i < size; i++ ) {
+            result.set(i, get(i) * scalar);
+        }
+        return result;
+    }
+    public DirectDenseMatrix div(double scalar ) {
+        DirectDenseMatrix result = new DirectDenseMatrix(rows, cols);
+        for( long i = 0; i < size; i++ ) {
+            result.set(i, get(i) / scalar);
+        }
+        return result;
+    }
+    /**
+     * in place, for each element: element[this] = element[this] + scalar.  Returns this
+     */
+    public DirectDenseMatrix addi(double scalar ) {
+        for( long i = 0; i < size; i++ ) {
+            set(i, get(i) + scalar);
+        }
+        return this;
+    }
+    public DirectDenseMatrix subi(double scalar ) {
+        return addi(-scalar);
+    }
+    public DirectDenseMatrix muli(double scalar ) {
+        for( long i = 0; i < size; i++ ) {
+            set(i, get(i) * scalar);
+        }
+        return this;
+    }
+    public DirectDenseMatrix divi(double scalar ) {
+        for( long i = 0; i < size; i++ ) {
+            set(i, get(i) / scalar);
+        }
+        return this;
+    }
+    public DirectDenseMatrix add(DirectDenseMatrix second ) {
+        checkSameSize(second);
+        return addInto(second, new DirectDenseMatrix(rows, cols));
+    }
+    /**
+     * in place, for each element: element[this] = element[this] + element[second].  Returns this
+     */
+    public DirectDenseMatrix addi(DirectDenseMatrix second ) {
+        return addInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] + element[second], written into out, which must be the same size.  out may be
+     * this or second.  Allocates nothing.  Returns out
+     */
+    public DirectDenseMatrix addInto(DirectDenseMatrix second, DirectDenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        for( long i = 0; i < size; i++ ) {
+            out.set(i, get(i) + second.get(i));
+        }
+        return out;
+    }
+    public DirectDenseMatrix sub(DirectDenseMatrix second ) {
+        checkSameSize(second);
+        return subInto(second, new DirectDenseMatrix(rows, cols));
+    }
+    public DirectDenseMatrix subi(DirectDenseMatrix second ) {
+        return subInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] - element[second], written into out, which must be the same size.  out may be
+     * this or second.  Allocates nothing.  Returns out
+     */
+    public DirectDenseMatrix subInto(DirectDenseMatrix second, DirectDenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        for( long i = 0; i < size; i++ ) {
+            out.set(i, get(i) - second.get(i));
+        }
+        return out;
+    }
+    /**
+     * per-element multiplication
+     */
+    public DirectDenseMatrix mul(DirectDenseMatrix second ) {
+        checkSameSize(second);
+        return mulInto(second, new DirectDenseMatrix(rows, cols));
+    }
+    public DirectDenseMatrix muli(DirectDenseMatrix second ) {
+        return mulInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] * element[second], written into out, which must be the same size.  out may be
+     * this or second.  Allocates nothing.  Returns out
+     */
+    public DirectDenseMatrix mulInto(DirectDenseMatrix second, DirectDenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        for( long i = 0; i < size; i++ ) {
+            out.set(i, get(i) * second.get(i));
+        }
+        return out;
+    }
+    /**
+     * per-element division
+     */
+    public DirectDenseMatrix div(DirectDenseMatrix second ) {
+        checkSameSize(second);
+        return divInto(second, new DirectDenseMatrix(rows, cols));
+    }
+    public DirectDenseMatrix divi(DirectDenseMatrix second ) {
+        return divInto(second, this);
+    }
+    /**
+     * for each element: element[out] = element[this] / element[second], written into out, which must be the same size.  out may be
+     * this or second.  Allocates nothing.  Returns out
+     */
+    public DirectDenseMatrix divInto(DirectDenseMatrix second, DirectDenseMatrix out ) {
+        checkSameSize(second);
+        checkSameSize(out);
+        for( long i = 0; i < size; i++ ) {
+            out.set(i, get(i) / second.get(i));
+        }
+        return out;
+    }
+    /**
+     * sum of all values
+     */
+    public double sum() {
+        double sum = 0;
+        for( long i = 0; i < size; i++ ) {
+            sum += get(i);
+        }
+        return sum;
+    }
+    /**
+     * matrix multiplication, in Eigen, by pointer
+     */
+    public DirectDenseMatrix mmul(DirectDenseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        return mmulInto(second, new DirectDenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     */
+    public DirectDenseMatrix mmulInto(DirectDenseMatrix second, DirectDenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this, second);
+        JeigenNative.dense_multiply(rows, cols, second.cols, getPointer(), second.getPointer(), out.getPointer());
+        return out;
+    }
+    /**
+     * out += alpha * this * second.  Returns out
+     */
+    public DirectDenseMatrix mmulAddInto(DirectDenseMatrix second, double alpha, DirectDenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this, second);
+        JeigenNative.dense_multiply_add(rows, cols, second.cols, alpha, getPointer(), second.getPointer(), out.getPointer());
+        return out;
+    }
+    /**
+     * solves this * x = b, for symmetric positive (semi-)definite this
+     */
+    public DirectDenseMatrix ldltSolve(DirectDenseMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        DirectDenseMatrix x = new DirectDenseMatrix(this.cols, b.cols);
+        JeigenNative.ldlt_solve(rows, cols, b.cols, getPointer(), b.getPointer(), x.getPointer());
+        return x;
+    }
+    static void checkOutput(DirectDenseMatrix out, int rows, int cols, DirectDenseMatrix... inputs ) {
+        if( out.rows != rows || out.cols != cols ) {
+            throw new RuntimeException("output matrix size mismatch: " + out.shape() + " should be " + rows + " * " + cols );
+        }
+        for( DirectDenseMatrix input : inputs ) {
+            if( input == out ) {
+                throw new RuntimeException("output matrix must not be one of the input matrices");
+            }
+        }
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    public boolean isClosed() {
+        return closed;
+    }
+    /**
+     * frees the native memory.  Calling close more than once is harmless
+     */
+    @Override
+    public void close() {
+        if( !closed ) {
+            closed = true;
+            chunks = null;
+            pointer = null;
+            Native.free(rawAddress);
+        }
+    }
+    public String toString() {
+        if( closed ) {
+            return "DirectDenseMatrix, " + rows + " * " + cols + ", closed";
+        }
+        return "DirectDenseMatrix, " + rows + " * " + cols;
+    }
+}
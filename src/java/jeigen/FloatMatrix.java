@@ -0,0 +1,545 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Random;
+
+/**
+ * A dense matrix of floats.  Half the memory and bandwidth of DenseMatrix,
+ * for when single precision is enough, eg feature matrices.  Multiplication,
+ * solves and svd run in Eigen, in single precision.
+ *
+ * Storage is column-major, like DenseMatrix.  Convert with toDense() and
+ * DenseMatrix.toFloat().
+ */
+public class FloatMatrix {
+    /**
+     * Number of rows
+     */
+    public final int rows;
+    /**
+     * Number of columns
+     */
+    public final int cols;
+    /**
+     * underlying array of values, in column-major, dense format
+     */
+    float[] values;
+    public FloatMatrix(int rows, int cols ) {
+        this.rows = rows;
+        this.cols = cols;
+        this.values = new float[rows * cols];
+    }
+    /**
+     * creates matrix from values, which are used directly, not copied.
+     * values should be column-major, and have rows * cols entries
+     */
+    public FloatMatrix(int rows, int cols, float[] values ) {
+        if( values.length != rows * cols ) {
+            throw new RuntimeException("values should have " + rows * cols + " entries, but had " + values.length );
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.values = values;
+    }
+    /**
+     * Creates matrix from valuesstring in format "12 3; 4 5"
+     */
+    public FloatMatrix(String valuesstring ) {
+        this(new DenseMatrix(valuesstring));
+    }
+    /**
+     * constructs new matrix from values
+     */
+    public FloatMatrix(float[][] values ) {
+        this.rows = values.length;
+        this.cols = values[0].length;
+        this.values = new float[rows * cols];
+        int i = 0;
+        for( int c = 0; c < cols; c++ ) {
+            for( int r = 0; r < rows ; r++ ) {
+                this.values[i] = values[r][c];
+                i++;
+            }
+        }
+    }
+    /**
+     * converts src to single precision
+     */
+    public FloatMatrix(DenseMatrix src ) {
+        this.rows = src.rows;
+        this.cols = src.cols;
+        int numElements = rows * cols;
+        this.values = new float[numElements];
+        for( int i = 0; i < numElements; i++ ) {
+            this.values[i] = (float)src.values[i];
+        }
+    }
+    /**
+     * converts to double precision
+     */
+    public DenseMatrix toDense() {
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i];
+        }
+        return result;
+    }
+    /**
+     * return rows*cols matrix of uniform random values from 0 to 1
+     */
+    public static FloatMatrix rand(int rows, int cols ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        Random random = new Random();
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = random.nextFloat();
+        }
+        return result;
+    }
+    public static FloatMatrix zeros(int rows, int cols ) {
+        return new FloatMatrix(rows,cols);
+    }
+    public static FloatMatrix ones(int rows, int cols ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = 1;
+        }
+        return result;
+    }
+    public static FloatMatrix eye(int size ) {
+        FloatMatrix result = new FloatMatrix(size,size);
+        for( int i = 0; i < size; i++ ) {
+            result.values[size * i + i] = 1;
+        }
+        return result;
+    }
+    /**
+     * Return value at position (0,0)
+     */
+    public float s() {
+        return values[0];
+    }
+    public final void set(int row, int col, float value ) {
+        values[rows * col + row] = value;
+    }
+    public final void set(int offset, float value ) {
+        values[offset] = value;
+    }
+    public final float get(int row, int col ) {
+        return values[rows * col + row];
+    }
+    /**
+     * gets all values of matrix
+     */
+    public final float[] getValues() {
+        return values;
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    /**
+     * return copy of matrix from startrow to (endrowexclusive-1)
+     * and startcol to (endcolexclusive-1)
+     */
+    public FloatMatrix slice(int startrow, int endrowexclusive, int startcol, int endcolexclusive) {
+        if( endrowexclusive > rows ) {
+            throw new RuntimeException("endrow must not exceed rows " + endrowexclusive + " vs " + rows );
+        }
+        if( endcolexclusive > cols ) {
+            throw new RuntimeException("endcol must not exceed cols " + endcolexclusive + " vs " + cols );
+        }
+        if( startrow < 0 ) {
+            throw new RuntimeException("startrow must be at least 0, but was  " + startrow );
+        }
+        if( startcol < 0 ) {
+            throw new RuntimeException("startcol must be at least 0, but was  " + startcol );
+        }
+        int resultrows = endrowexclusive - startrow;
+        int resultcols = endcolexclusive - startcol;
+        FloatMatrix result = new FloatMatrix(resultrows,resultcols);
+        for( int c = 0; c < resultcols; c++ ) {
+            System.arraycopy(values, (startcol + c) * rows + startrow, result.values, c * resultrows, resultrows);
+        }
+        return result;
+    }
+    public FloatMatrix col( int col ) {
+        return slice(0, rows, col, col + 1 );
+    }
+    public FloatMatrix row( int row ) {
+        return slice(row, row + 1, 0, cols );
+    }
+    /**
+     * returns transpose
+     */
+    public FloatMatrix t() {
+        FloatMatrix result = new FloatMatrix(cols,rows );
+        for( int c = 0; c < cols; c++ ) {
+            int offset = c * rows;
+            for( int r = 0; r < rows; r++ ) {
+                result.values[r * cols + c] = values[offset + r];
+            }
+        }
+        return result;
+    }
+    /**
+     * returns the sum over rows, or if only one row, returns
+     * sum over columns
+     */
+    public FloatMatrix sum() {
+        if( rows > 1 ) {
+            return sumOverRows();
+        }
+        return sumOverCols();
+    }
+    /**
+     * sum aggregate over rows; result has a single row.  Accumulates in double
+     */
+    public FloatMatrix sumOverRows() {
+        FloatMatrix result = new FloatMatrix(1, cols );
+        for( int c = 0; c < cols; c++ ) {
+            int offset = c * rows;
+            double sum = 0;
+            for( int r = 0; r < rows; r++ ) {
+                sum += values[offset + r];
+            }
+            result.values[c] = (float)sum;
+        }
+        return result;
+    }
+    /**
+     * sum aggregate over columns; result has a single column.  Accumulates in double
+     */
+    public FloatMatrix sumOverCols() {
+        double[] sums = new double[rows];
+        for( int c = 0; c < cols; c++ ) {
+            int offset = c * rows;
+            for( int r = 0; r < rows; r++ ) {
+                sums[r] += values[offset + r];
+            }
+        }
+        FloatMatrix result = new FloatMatrix(rows, 1 );
+        for( int r = 0; r < rows; r++ ) {
+            result.values[r] = (float)sums[r];
+        }
+        return result;
+    }
+    void checkSameSize(FloatMatrix second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+    }
+    /**
+     * for each element: element = - element
+     */
+    public FloatMatrix neg() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = - values[i];
+        }
+        return result;
+    }
+    /**
+     * for each element: element = 1 / element
+     */
+    public FloatMatrix recpr() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = 1 / values[i];
+        }
+        return result;
+    }
+    /**
+     * for each element: element = abs( element )
+     */
+    public FloatMatrix abs() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = Math.abs(values[i]);
+        }
+        return result;
+    }
+    /**
+     * for each element: element = Math.pow(element,power)
+     */
+    public FloatMatrix pow( double power ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = (float)Math.pow( values[i], power );
+        }
+        return result;
+    }
+    /**
+     * for each element: element = Math.sqrt(element)
+     */
+    public FloatMatrix sqrt() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = (float)Math.sqrt( values[i] );
+        }
+        return result;
+    }
+    /**
+     * for each element: element = Math.exp(element)
+     */
+    public FloatMatrix exp() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = (float)Math.exp( values[i] );
+        }
+        return result;
+    }
+    /**
+     * for each element: element = Math.log(element)
+     */
+    public FloatMatrix log() {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = (float)Math.log( values[i] );
+        }
+        return result;
+    }
+    /**
+     * for each element: element = element + scalar
+     */
+    public FloatMatrix add( float scalar ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] + scalar;
+        }
+        return result;
+    }
+    /**
+     * for each element: element = element - scalar
+     */
+    public FloatMatrix sub( float scalar ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] - scalar;
+        }
+        return result;
+    }
+    /**
+     * for each element: element = element * scalar
+     */
+    public FloatMatrix mul( float scalar ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] * scalar;
+        }
+        return result;
+    }
+    /**
+     * for each element: element = element / scalar
+     */
+    public FloatMatrix div( float scalar ) {
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] / scalar;
+        }
+        return result;
+    }
+    /**
+     * for each element: element[result] = element[this] + element[second]
+     */
+    public FloatMatrix add(FloatMatrix second ) {
+        checkSameSize(second);
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] + second.values[i];
+        }
+        return result;
+    }
+    /**
+     * for each element: element[result] = element[this] - element[second]
+     */
+    public FloatMatrix sub(FloatMatrix second ) {
+        checkSameSize(second);
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] - second.values[i];
+        }
+        return result;
+    }
+    /**
+     * for each element: element[result] = element[this] * element[second]
+     */
+    public FloatMatrix mul(FloatMatrix second ) {
+        checkSameSize(second);
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] * second.values[i];
+        }
+        return result;
+    }
+    /**
+     * for each element: element[result] = element[this] / element[second]
+     */
+    public FloatMatrix div(FloatMatrix second ) {
+        checkSameSize(second);
+        FloatMatrix result = new FloatMatrix(rows,cols);
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            result.values[i] = values[i] / second.values[i];
+        }
+        return result;
+    }
+    /**
+     * checks whether the sizes of this and osecond are the same, and their
+     * values are within 0.0001 of each other
+     */
+    @Override
+    public boolean equals( Object osecond ) {
+        if( !( osecond instanceof FloatMatrix ) ) {
+            return false;
+        }
+        FloatMatrix second = (FloatMatrix)osecond;
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            return false;
+        }
+        int numElements = rows * cols;
+        for( int i = 0; i < numElements; i++ ) {
+            if( Math.abs( values[i] - second.values[i] ) > 0.0001 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * equals allows a tolerance on the values, so only the shape is hashed
+     */
+    @Override
+    public int hashCode() {
+        return 31 * rows + cols;
+    }
+    static void checkOutput( FloatMatrix out, int rows, int cols, FloatMatrix... inputs ) {
+        if( out.rows != rows || out.cols != cols ) {
+            throw new RuntimeException("output matrix size mismatch: " + out.shape() + " should be " + rows + " * " + cols );
+        }
+        for( FloatMatrix input : inputs ) {
+            if( input.values == out.values ) {
+                throw new RuntimeException("output matrix must not be one of the input matrices");
+            }
+        }
+    }
+    /**
+     * matrix multiplication of this by second
+     */
+    public FloatMatrix mmul( FloatMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        return mmulInto(second, new FloatMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     *
+     * Products smaller than Jeigen.getMmulThreshold() are done in java.  That
+     * threshold is calibrated on doubles, and shared with DenseMatrix; the
+     * float crossover can differ, typically lower, since Eigen's simd does
+     * twice as many floats as doubles per instruction.  Set the system property
+     * jeigen.mmul.threshold if it matters
+     */
+    public FloatMatrix mmulInto( FloatMatrix second, FloatMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        checkOutput(out, this.rows, second.cols, this, second);
+        if( MmulDispatcher.useJava(this.rows, this.cols, second.cols) ) {
+            MmulDispatcher.mmulJava(this.rows, this.cols, second.cols, this.values, second.values, out.values );
+        } else {
+            JeigenNative.dense_multiply_float(this.rows, this.cols, second.cols, this.values, second.values, out.values );
+        }
+        return out;
+    }
+    /**
+     * matrix multiplication of this by sparse second
+     */
+    public FloatMatrix mmul( FloatSparseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        FloatMatrix result = new FloatMatrix(this.rows, second.cols);
+        JeigenNative.dense_sparse_multiply_float(rows, cols, second.cols, values,
+            second.nonZeros(), second.outerStarts, second.innerIndices, second.values, result.values);
+        return result;
+    }
+    /**
+     * Solves this * result = b, and returns result
+     * ldlt is fast, needs this to be positive or negative definite
+     */
+    public FloatMatrix ldltSolve(FloatMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("ldltsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        FloatMatrix result = new FloatMatrix(this.cols, b.cols);
+        JeigenNative.ldlt_solve_float(rows, cols, b.cols, values, b.values, result.values );
+        return result;
+    }
+    /**
+     * Solves this * result = b, and returns result
+     * slower than ldlt, but works for any matrix
+     */
+    public FloatMatrix fullPivHouseholderQRSolve(FloatMatrix b ) {
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("fullpivhouseholderqrsolve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        FloatMatrix result = new FloatMatrix(this.cols, b.cols);
+        JeigenNative.fullpivhouseholderqr_solve_float(rows, cols, b.cols, values, b.values, result.values );
+        return result;
+    }
+    public static class SvdResult {
+        /**
+         * U matrix
+         */
+        public final FloatMatrix U;
+        /**
+         * S matrix (singular values)
+         */
+        public final FloatMatrix S;
+        /**
+         * V matrix
+         */
+        public final FloatMatrix V;
+        public SvdResult(FloatMatrix u, FloatMatrix s, FloatMatrix v) {
+            U = u;
+            S = s;
+            V = v;
+        }
+    }
+    /**
+     * thin svd, in single precision
+     */
+    public SvdResult svd() {
+        int m = Math.min(rows,cols);
+        FloatMatrix U = new FloatMatrix(rows,m);
+        FloatMatrix S = new FloatMatrix(m,1);
+        FloatMatrix V = new FloatMatrix(cols,m);
+        JeigenNative.svd_dense_float(rows, cols, values, U.values, S.values, V.values);
+        return new SvdResult(U, S, V);
+    }
+    public String toString() {
+        return "FloatMatrix, " + toDense().toString().substring("DenseMatrix, ".length());
+    }
+}
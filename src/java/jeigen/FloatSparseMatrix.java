@@ -0,0 +1,141 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+
+/**
+ * A sparse matrix of floats, in compressed column format, the same layout as
+ * SparseMatrixCCS.  Create it from a SparseMatrixLil or SparseMatrixCCS.
+ *
+ * Unlike NativeSparseMatrix, this stays in java: Eigen reads the arrays in
+ * place, as a MappedSparseMatrix, for each multiplication, so there is
+ * nothing to upload or close.
+ */
+public class FloatSparseMatrix {
+    public final int rows;
+    public final int cols;
+    final int[] outerStarts;
+    final int[] innerIndices;
+    final float[] values;
+    /**
+     * creates matrix from compressed column arrays, which are used directly,
+     * not copied.  outerStarts should have cols + 1 entries, starting at 0,
+     * and within each column, entries should be sorted by row, with no duplicates
+     */
+    public FloatSparseMatrix(int rows, int cols, int[] outerStarts, int[] innerIndices, float[] values ) {
+        if( outerStarts.length != cols + 1 || outerStarts[0] != 0 ) {
+            throw new RuntimeException("outerStarts should have " + ( cols + 1 ) + " entries, starting at 0");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.outerStarts = outerStarts;
+        this.innerIndices = innerIndices;
+        this.values = values;
+    }
+    /**
+     * converts source to single precision
+     */
+    public FloatSparseMatrix(SparseMatrixCCS source ) {
+        this.rows = source.rows;
+        this.cols = source.cols;
+        int start = source.outerStarts[source.colOffset];
+        int numEntries = source.nonZeros();
+        outerStarts = new int[cols + 1];
+        for( int c = 0; c <= cols; c++ ) {
+            outerStarts[c] = source.outerStarts[source.colOffset + c] - start;
+        }
+        innerIndices = new int[numEntries];
+        values = new float[numEntries];
+        System.arraycopy(source.innerIndices, start, innerIndices, 0, numEntries);
+        for( int i = 0; i < numEntries; i++ ) {
+            values[i] = (float)source.values[start + i];
+        }
+    }
+    /**
+     * converts source to single precision
+     */
+    public FloatSparseMatrix(SparseMatrixLil source ) {
+        this(source.toCCS());
+    }
+    public int nonZeros() {
+        return outerStarts[cols];
+    }
+    public float get(int row, int col ) {
+        int l = outerStarts[col];
+        int h = outerStarts[col + 1] - 1;
+        while( l <= h ) {
+            int m = ( l + h ) >>> 1;
+            int ixm = innerIndices[m];
+            if(ixm < row ) {
+                l = m + 1;
+            } else if( ixm > row ) {
+                h = m - 1;
+            } else {
+                return values[m];
+            }
+        }
+        return 0;
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    /**
+     * matrix multiplication of this by dense second
+     */
+    public FloatMatrix mmul( FloatMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        FloatMatrix result = new FloatMatrix(this.rows, second.cols);
+        JeigenNative.sparse_dense_multiply_float(rows, cols, second.cols,
+            nonZeros(), outerStarts, innerIndices, values, second.values, result.values);
+        return result;
+    }
+    /**
+     * for each element: element = element * scalar
+     */
+    public FloatSparseMatrix mul( float scalar ) {
+        int numEntries = nonZeros();
+        float[] newValues = new float[numEntries];
+        for( int i = 0; i < numEntries; i++ ) {
+            newValues[i] = values[i] * scalar;
+        }
+        return new FloatSparseMatrix(rows, cols, outerStarts.clone(), Arrays.copyOf(innerIndices, numEntries), newValues);
+    }
+    public FloatMatrix toDense() {
+        FloatMatrix result = new FloatMatrix(rows, cols);
+        for( int col = 0; col < cols; col++ ) {
+            int end = outerStarts[col + 1];
+            int offset = rows * col;
+            for( int i = outerStarts[col]; i < end; i++ ) {
+                result.values[offset + innerIndices[i]] = values[i];
+            }
+        }
+        return result;
+    }
+    /**
+     * converts to double precision
+     */
+    public SparseMatrixCCS toCCS() {
+        int numEntries = nonZeros();
+        double[] newValues = new double[numEntries];
+        for( int i = 0; i < numEntries; i++ ) {
+            newValues[i] = values[i];
+        }
+        return new SparseMatrixCCS(rows, cols, outerStarts.clone(), Arrays.copyOf(innerIndices, numEntries), newValues);
+    }
+    /**
+     * converts to double precision
+     */
+    public SparseMatrixLil toLil() {
+        return toCCS().toLil();
+    }
+    public String toString() {
+        return "FloatSparseMatrix, " + rows + " * " + cols + ", nonzeros = " + nonZeros();
+    }
+}
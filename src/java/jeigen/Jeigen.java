@@ -0,0 +1,162 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+/**
+ * Settings and diagnostics for the native Eigen layer
+ */
+public final class Jeigen {
+    /**
+     * loads the native library now, rather than at the first call that needs
+     * it, and calibrates DenseMatrix.mmul (see setMmulThreshold), so that
+     * neither happens in the middle of, eg, a server request.  Pure java
+     * operations never load the native library.
+     * Throws UnsatisfiedLinkError if the library cant be loaded.
+     * Calling it again does nothing
+     */
+    public static void preload() {
+        JeigenJna.installLibrary();
+        JeigenNative.init();
+        MmulDispatcher.getThreshold();
+    }
+    /**
+     * sets the maximum number of threads Eigen uses for large operations,
+     * such as DenseMatrix.mmul.  Applies to all calls, from all java threads.
+     * Use 1 if you already parallelize at a higher level, to avoid
+     * oversubscribing the cores.  Use 0 to go back to the default, which
+     * is normally one thread per core.
+     * Has no effect if the native library was built without OpenMP
+     */
+    public static void setNumThreads(int numThreads ) {
+        if( numThreads < 0 ) {
+            throw new RuntimeException("numThreads must be at least 0, but was " + numThreads );
+        }
+        JeigenNative.jeigen_set_num_threads(numThreads);
+    }
+    /**
+     * returns the maximum number of threads Eigen will use.  Always 1 if the
+     * native library was built without OpenMP
+     */
+    public static int getNumThreads() {
+        return JeigenNative.jeigen_get_num_threads();
+    }
+    /**
+     * returns true if the native library was built with OpenMP
+     */
+    public static boolean hasOpenMP() {
+        return JeigenNative.jeigen_has_openmp() != 0;
+    }
+    /**
+     * sets the size, in multiply-adds (ie rows * middle * cols), below which
+     * DenseMatrix.mmul runs in java rather than in Eigen, since for small
+     * matrices the cost of calling Eigen dominates.  0 means always use Eigen.
+     * By default, this is calibrated automatically, see README
+     */
+    public static void setMmulThreshold(long threshold ) {
+        if( threshold < 0 ) {
+            throw new RuntimeException("threshold must be at least 0, but was " + threshold );
+        }
+        MmulDispatcher.setThreshold(threshold);
+    }
+    /**
+     * returns the size, in multiply-adds, below which DenseMatrix.mmul runs in java.
+     * Calibrates it first, if necessary
+     */
+    public static long getMmulThreshold() {
+        return MmulDispatcher.getThreshold();
+    }
+    /**
+     * sets the number of java threads used for large per-element operations
+     * and aggregations on DenseMatrix, eg exp, lt, sumOverCols, and for
+     * LazyMatrix.eval.  1 runs everything on the calling thread.  0 goes
+     * back to the default, which is the system property
+     * jeigen.parallel.threads, or else one thread per core.
+     * Results are the same whatever the number of threads
+     */
+    public static void setParallelThreads(int numThreads ) {
+        if( numThreads < 0 ) {
+            throw new RuntimeException("numThreads must be at least 0, but was " + numThreads );
+        }
+        Parallel.setNumThreads(numThreads);
+    }
+    /**
+     * returns the number of java threads used for large per-element operations
+     */
+    public static int getParallelThreads() {
+        return Parallel.getNumThreads();
+    }
+    /**
+     * sets the number of elements below which per-element operations and
+     * aggregations run on the calling thread.  Default is 262144, or the
+     * system property jeigen.parallel.threshold
+     */
+    public static void setParallelThreshold(long numElements ) {
+        if( numElements < 0 ) {
+            throw new RuntimeException("threshold must be at least 0, but was " + numElements );
+        }
+        Parallel.threshold = numElements;
+    }
+    /**
+     * returns the number of elements below which per-element operations run
+     * on the calling thread
+     */
+    public static long getParallelThreshold() {
+        return Parallel.threshold;
+    }
+    /**
+     * chooses how SparseMatrixLil.mmul(SparseMatrixLil) runs: "eigen", the
+     * default, uses Eigen's sparse product, on one thread; "java" uses a
+     * parallel implementation in java, see setParallelThreads.  The default
+     * can also be set with system property jeigen.sparse.mmul
+     */
+    public static void setSparseMmul(String backend ) {
+        if( !"eigen".equals(backend) && !"java".equals(backend) ) {
+            throw new RuntimeException("sparse mmul should be eigen or java, but was " + backend );
+        }
+        SparseMultiply.useJava = "java".equals(backend);
+    }
+    /**
+     * returns "eigen" or "java", see setSparseMmul
+     */
+    public static String getSparseMmul() {
+        return SparseMultiply.useJava ? "java" : "eigen";
+    }
+    /**
+     * returns "ffm" if calls to Eigen go through the java.lang.foreign api,
+     * which has less overhead, or "jna".  Set the system property
+     * jeigen.backend to jna to force jna; by default ffm is used if the jvm
+     * supports it, ie from java 22
+     */
+    public static String getNativeBackend() {
+        return JeigenNative.getBackend();
+    }
+    /**
+     * returns how DenseMatrix runs its per-element operations and reductions,
+     * eg "vector, 256 bits" if it uses the Vector API, which needs the jvm to
+     * be started with --add-modules jdk.incubator.vector, or "scalar"
+     */
+    public static String getKernels() {
+        return Kernels.instance.getName();
+    }
+    /**
+     * returns the number of native objects, eg NativeSparseMatrix, that are
+     * currently allocated in the native layer, and not yet freed.  Useful to
+     * check for leaks
+     */
+    public static int getNumLiveHandles() {
+        return JeigenNative.getNumLiveHandles();
+    }
+    /**
+     * throws if handle signals that the native layer has run out of handles
+     */
+    static int checkHandle(int handle ) {
+        if( handle < 0 ) {
+            throw new RuntimeException("native layer has run out of handles, " + getNumLiveHandles() + " are live; maybe something isnt being closed?");
+        }
+        return handle;
+    }
+}
@@ -0,0 +1,699 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.io.File;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.Optional;
+
+import com.sun.jna.Pointer;
+
+/**
+ * the link from java to the native Eigen library using the Foreign Function
+ * and Memory api, java.lang.foreign, from java 22 onwards.
+ *
+ * This has much less overhead per call than jna.  Short calls, eg handle and
+ * stats getters, the dummy ops, and products of at most CRITICAL_LIMIT
+ * multiply-adds, are made as 'critical', so java arrays are passed to Eigen
+ * directly, without pinning or copying.  The gc cant run during a critical
+ * call, so long calls, eg svd, factorizations and large products, are made
+ * as normal downcalls instead: their array arguments are copied into off-heap
+ * segments, and the outputs copied back, see invokeOffHeap.
+ *
+ * Jeigen still builds and runs on older jvms, so java.lang.foreign is only
+ * reached by reflection, once, to create the method handles.  After that,
+ * calls go through MethodHandle.invokeExact, which the jit compiles to a
+ * direct call.  If anything is missing, eg on an older jvm, available is
+ * false, and JeigenNative uses jna instead.
+ *
+ * Each method has the same signature as in JeigenJna.Jeigen.
+ */
+final class JeigenFfm {
+    static Throwable failure; // why we couldnt bind, if we couldnt
+    static Object linker;
+    static Object symbolLookup;
+    static Method findSymbol;
+    static Method downcallHandle;
+    static Method descriptorOf;
+    static Method descriptorOfVoid;
+    static Class<?> memoryLayoutClass;
+    static Object intLayout;
+    static Object doubleLayout;
+    static Object addressLayout;
+    static Object criticalOptions; // Linker.Option[]{ Linker.Option.critical(true) }
+    static Object noOptions; // Linker.Option[]{}
+    static MethodHandle ofDoubleArray;
+    static MethodHandle ofFloatArray;
+    static MethodHandle ofIntArray;
+    static MethodHandle ofPointer;
+    static MethodHandle arenaOfConfined; // ()Object
+    static MethodHandle arenaAllocate; // (Object arena, long bytes, long alignment)Object
+    static MethodHandle arenaClose; // (Object arena)void
+    static MethodHandle segmentCopy; // (Object src, long srcOffset, Object dst, long dstOffset, long bytes)void
+    static MethodHandle offHeapInvoker;
+
+    /**
+     * calls doing at most this many multiply-adds, or copying at most this
+     * many values, are critical
+     */
+    static final long CRITICAL_LIMIT = 64 * 64 * 64;
+
+    static {
+        try {
+            Class<?> linkerClass = Class.forName("java.lang.foreign.Linker");
+            Class<?> optionClass = Class.forName("java.lang.foreign.Linker$Option");
+            Class<?> arenaClass = Class.forName("java.lang.foreign.Arena");
+            Class<?> symbolLookupClass = Class.forName("java.lang.foreign.SymbolLookup");
+            Class<?> memorySegmentClass = Class.forName("java.lang.foreign.MemorySegment");
+            Class<?> valueLayoutClass = Class.forName("java.lang.foreign.ValueLayout");
+            Class<?> descriptorClass = Class.forName("java.lang.foreign.FunctionDescriptor");
+            memoryLayoutClass = Class.forName("java.lang.foreign.MemoryLayout");
+            Class<?> layoutArrayClass = Array.newInstance(memoryLayoutClass, 0).getClass();
+            Class<?> optionArrayClass = Array.newInstance(optionClass, 0).getClass();
+
+            File library = JeigenJna.installLibrary();
+            linker = linkerClass.getMethod("nativeLinker").invoke(null);
+            Object arena = arenaClass.getMethod("global").invoke(null);
+            symbolLookup = symbolLookupClass.getMethod("libraryLookup", java.nio.file.Path.class, arenaClass)
+                .invoke(null, library.toPath(), arena);
+            findSymbol = symbolLookupClass.getMethod("find", String.class);
+            downcallHandle = linkerClass.getMethod("downcallHandle", memorySegmentClass, descriptorClass, optionArrayClass);
+            descriptorOf = descriptorClass.getMethod("of", memoryLayoutClass, layoutArrayClass);
+            descriptorOfVoid = descriptorClass.getMethod("ofVoid", layoutArrayClass);
+            intLayout = valueLayoutClass.getField("JAVA_INT").get(null);
+            doubleLayout = valueLayoutClass.getField("JAVA_DOUBLE").get(null);
+            addressLayout = valueLayoutClass.getField("ADDRESS").get(null);
+            criticalOptions = Array.newInstance(optionClass, 1);
+            Array.set(criticalOptions, 0, optionClass.getMethod("critical", boolean.class).invoke(null, true));
+            noOptions = Array.newInstance(optionClass, 0);
+
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            ofDoubleArray = lookup.findStatic(memorySegmentClass, "ofArray", MethodType.methodType(memorySegmentClass, double[].class));
+            ofFloatArray = lookup.findStatic(memorySegmentClass, "ofArray", MethodType.methodType(memorySegmentClass, float[].class));
+            ofIntArray = lookup.findStatic(memorySegmentClass, "ofArray", MethodType.methodType(memorySegmentClass, int[].class));
+            ofPointer = MethodHandles.filterReturnValue(
+                lookup.findStatic(Pointer.class, "nativeValue", MethodType.methodType(long.class, Pointer.class)),
+                lookup.findStatic(memorySegmentClass, "ofAddress", MethodType.methodType(memorySegmentClass, long.class)));
+            arenaOfConfined = lookup.unreflect(arenaClass.getMethod("ofConfined"))
+                .asType(MethodType.methodType(Object.class));
+            arenaAllocate = lookup.unreflect(arenaClass.getMethod("allocate", long.class, long.class))
+                .asType(MethodType.methodType(Object.class, Object.class, long.class, long.class));
+            arenaClose = lookup.unreflect(arenaClass.getMethod("close"))
+                .asType(MethodType.methodType(void.class, Object.class));
+            segmentCopy = lookup.unreflect(memorySegmentClass.getMethod("copy", memorySegmentClass, long.class, memorySegmentClass, long.class, long.class))
+                .asType(MethodType.methodType(void.class, Object.class, long.class, Object.class, long.class, long.class));
+            offHeapInvoker = MethodHandles.lookup().findStatic(JeigenFfm.class, "invokeOffHeap",
+                MethodType.methodType(Object.class, MethodHandle.class, String.class, boolean[].class, Object[].class));
+        } catch( Throwable t ) {
+            failure = t;
+        }
+    }
+
+    /**
+     * creates a critical handle for native function name.  signature is the
+     * return type, 'v' or 'i', then ':', then one character per parameter:
+     *   i int, d double, I int[], D double[], F float[], P jna Pointer
+     * The handle takes and returns exactly those java types.
+     * Returns null, and sets failure, if it cant
+     */
+    static MethodHandle bind(String name, String signature ) {
+        MethodHandle handle = downcall(name, signature, true);
+        if( handle == null ) {
+            return null;
+        }
+        String params = signature.substring(2);
+        for( int i = 0; i < params.length(); i++ ) {
+            char type = params.charAt(i);
+            if( type == 'D' ) {
+                handle = MethodHandles.filterArguments(handle, i, ofDoubleArray);
+            } else if( type == 'F' ) {
+                handle = MethodHandles.filterArguments(handle, i, ofFloatArray);
+            } else if( type == 'I' ) {
+                handle = MethodHandles.filterArguments(handle, i, ofIntArray);
+            }
+        }
+        return handle;
+    }
+    /**
+     * as bind, but the handle is not critical, so the gc can run while it
+     * is in native code.  Arrays are copied off-heap for the call, and the
+     * arrays at parameter indexes outputs are copied back afterwards
+     */
+    static MethodHandle bindOffHeap(String name, String signature, int... outputs ) {
+        MethodHandle handle = downcall(name, signature, false);
+        String params = signature.substring(2);
+        if( handle == null || !hasArrays(params) ) {
+            return handle;
+        }
+        try {
+            boolean[] isOutput = new boolean[params.length()];
+            for( int output : outputs ) {
+                isOutput[output] = true;
+            }
+            MethodHandle target = handle.asSpreader(Object[].class, params.length())
+                .asType(MethodType.methodType(Object.class, Object[].class));
+            return MethodHandles.insertArguments(offHeapInvoker, 0, target, params, isOutput)
+                .asCollector(Object[].class, params.length())
+                .asType(javaType(signature));
+        } catch( Throwable t ) {
+            failure = t;
+            return null;
+        }
+    }
+    /**
+     * the downcall handle for name, taking MemorySegments for arrays, and
+     * jna Pointers for 'P'
+     */
+    static MethodHandle downcall(String name, String signature, boolean critical ) {
+        if( failure != null ) {
+            return null;
+        }
+        try {
+            Optional<?> symbol = (Optional<?>)findSymbol.invoke(symbolLookup, name);
+            if( !symbol.isPresent() ) {
+                throw new RuntimeException("native function " + name + " not found");
+            }
+            String params = signature.substring(2);
+            Object layouts = Array.newInstance(memoryLayoutClass, params.length());
+            for( int i = 0; i < params.length(); i++ ) {
+                char type = params.charAt(i);
+                Array.set(layouts, i, type == 'i' ? intLayout : type == 'd' ? doubleLayout : addressLayout);
+            }
+            Object descriptor = signature.charAt(0) == 'v' ? descriptorOfVoid.invoke(null, layouts)
+                : descriptorOf.invoke(null, intLayout, layouts);
+            MethodHandle handle = (MethodHandle)downcallHandle.invoke(linker, symbol.get(), descriptor,
+                critical ? criticalOptions : noOptions);
+            for( int i = 0; i < params.length(); i++ ) {
+                if( params.charAt(i) == 'P' ) {
+                    handle = MethodHandles.filterArguments(handle, i, ofPointer);
+                }
+            }
+            return handle;
+        } catch( Throwable t ) {
+            failure = t;
+            return null;
+        }
+    }
+    static boolean hasArrays(String params ) {
+        return params.indexOf('D') >= 0 || params.indexOf('F') >= 0 || params.indexOf('I') >= 0;
+    }
+    static MethodType javaType(String signature ) {
+        String params = signature.substring(2);
+        Class<?>[] types = new Class<?>[params.length()];
+        for( int i = 0; i < params.length(); i++ ) {
+            char type = params.charAt(i);
+            types[i] = type == 'i' ? int.class : type == 'd' ? double.class : type == 'I' ? int[].class
+                : type == 'D' ? double[].class : type == 'F' ? float[].class : Pointer.class;
+        }
+        return MethodType.methodType(signature.charAt(0) == 'v' ? void.class : int.class, types);
+    }
+    /**
+     * calls target, a non-critical downcall, with each java array in args
+     * replaced by an off-heap copy, from a confined arena, which is freed
+     * afterwards.  Copies the arrays marked in isOutput back
+     */
+    static Object invokeOffHeap(MethodHandle target, String params, boolean[] isOutput, Object[] args ) throws Throwable {
+        Object arena = (Object)arenaOfConfined.invokeExact();
+        try {
+            Object[] nativeArgs = args.clone();
+            for( int i = 0; i < params.length(); i++ ) {
+                Object heap = heapSegment(params.charAt(i), args[i]);
+                if( heap != null ) {
+                    long bytes = byteSize(params.charAt(i), args[i]);
+                    nativeArgs[i] = (Object)arenaAllocate.invokeExact(arena, bytes, 8L);
+                    segmentCopy.invokeExact(heap, 0L, nativeArgs[i], 0L, bytes);
+                }
+            }
+            Object result = (Object)target.invokeExact(nativeArgs);
+            for( int i = 0; i < params.length(); i++ ) {
+                if( isOutput[i] ) {
+                    segmentCopy.invokeExact(nativeArgs[i], 0L, heapSegment(params.charAt(i), args[i]), 0L, byteSize(params.charAt(i), args[i]));
+                }
+            }
+            return result;
+        } finally {
+            arenaClose.invokeExact(arena);
+        }
+    }
+    static Object heapSegment(char type, Object array ) throws Throwable {
+        if( type == 'D' ) {
+            return ofDoubleArray.invoke((double[])array);
+        } else if( type == 'F' ) {
+            return ofFloatArray.invoke((float[])array);
+        } else if( type == 'I' ) {
+            return ofIntArray.invoke((int[])array);
+        }
+        return null;
+    }
+    static long byteSize(char type, Object array ) {
+        return (long)Array.getLength(array) * ( type == 'D' ? 8 : 4 );
+    }
+    static boolean isCritical(long work ) {
+        return work <= CRITICAL_LIMIT;
+    }
+
+    // short, bounded calls: critical
+    static final MethodHandle INIT = bind("init", "v:");
+    static final MethodHandle JEIGEN_SET_NUM_THREADS = bind("jeigen_set_num_threads", "v:i");
+    static final MethodHandle JEIGEN_GET_NUM_THREADS = bind("jeigen_get_num_threads", "i:");
+    static final MethodHandle JEIGEN_HAS_OPENMP = bind("jeigen_has_openmp", "i:");
+    static final MethodHandle DENSE_FACTORIZATION_DETERMINANT = bind("dense_factorization_determinant", "v:iD");
+    static final MethodHandle FREE_DENSE_FACTORIZATION = bind("freeDenseFactorization", "i:i");
+    static final MethodHandle SPARSE_SOLVER_CREATE = bind("sparse_solver_create", "i:i");
+    static final MethodHandle FREE_SPARSE_SOLVER = bind("freeSparseSolver", "i:i");
+    static final MethodHandle GET_SPARSE_MATRIX_STATS = bind("getSparseMatrixStats", "v:iI");
+    static final MethodHandle FREE_SPARSE_MATRIX = bind("freeSparseMatrix", "i:i");
+    static final MethodHandle GET_NUM_LIVE_HANDLES = bind("getNumLiveHandles", "i:");
+    static final MethodHandle DENSE_DUMMY_OP1 = bind("dense_dummy_op1", "v:iiDD");
+    static final MethodHandle DENSE_DUMMY_OP2 = bind("dense_dummy_op2", "v:iiiDDD");
+
+    // critical when small, see isCritical, off-heap otherwise
+    static final MethodHandle DENSE_MULTIPLY = bind("dense_multiply", "v:iiiDDD");
+    static final MethodHandle DENSE_MULTIPLY_OFF_HEAP = bindOffHeap("dense_multiply", "v:iiiDDD", 5);
+    static final MethodHandle DENSE_MULTIPLY_ADD = bind("dense_multiply_add", "v:iiidDDD");
+    static final MethodHandle DENSE_MULTIPLY_ADD_OFF_HEAP = bindOffHeap("dense_multiply_add", "v:iiidDDD", 6);
+    static final MethodHandle DENSE_MULTIPLY_STRIDED = bind("dense_multiply_strided", "v:iiiDiiiDiiiDii");
+    static final MethodHandle DENSE_MULTIPLY_STRIDED_OFF_HEAP = bindOffHeap("dense_multiply_strided", "v:iiiDiiiDiiiDii", 11);
+    static final MethodHandle DENSE_MULTIPLY_FLOAT = bind("dense_multiply_float", "v:iiiFFF");
+    static final MethodHandle DENSE_MULTIPLY_FLOAT_OFF_HEAP = bindOffHeap("dense_multiply_float", "v:iiiFFF", 5);
+    static final MethodHandle GET_SPARSE_MATRIX = bind("getSparseMatrix", "v:iIID");
+    static final MethodHandle GET_SPARSE_MATRIX_OFF_HEAP = bindOffHeap("getSparseMatrix", "v:iIID", 1, 2, 3);
+    static final MethodHandle ALLOCATE_SPARSE_MATRIX_CCS = bind("allocateSparseMatrixCCS", "i:iiiIID");
+    static final MethodHandle ALLOCATE_SPARSE_MATRIX_CCS_OFF_HEAP = bindOffHeap("allocateSparseMatrixCCS", "i:iiiIID");
+    static final MethodHandle GET_SPARSE_MATRIX_CCS = bind("getSparseMatrixCCS", "v:iIID");
+    static final MethodHandle GET_SPARSE_MATRIX_CCS_OFF_HEAP = bindOffHeap("getSparseMatrixCCS", "v:iIID", 1, 2, 3);
+
+    // long calls: not critical.  Direct ones take native memory already, so need no copy
+    static final MethodHandle DENSE_MULTIPLY_DIRECT = bindOffHeap("dense_multiply", "v:iiiPPP");
+    static final MethodHandle DENSE_MULTIPLY_ADD_DIRECT = bindOffHeap("dense_multiply_add", "v:iiidPPP");
+    static final MethodHandle SPARSE_MULTIPLY = bindOffHeap("sparse_multiply", "i:iiiii");
+    static final MethodHandle SPARSE_CWISE_OP = bindOffHeap("sparse_cwise_op", "i:iiiii");
+    static final MethodHandle SPARSE_DENSE_MULTIPLY = bindOffHeap("sparse_dense_multiply", "v:iiiiDD", 5);
+    static final MethodHandle DENSE_SPARSE_MULTIPLY = bindOffHeap("dense_sparse_multiply", "v:iiiDiD", 5);
+    static final MethodHandle SVD_DENSE = bindOffHeap("svd_dense", "v:iiDDDD", 3, 4, 5);
+    static final MethodHandle JEIGEN_EXP = bindOffHeap("jeigen_exp", "v:iDD", 2);
+    static final MethodHandle JEIGEN_LOG = bindOffHeap("jeigen_log", "v:iDD", 2);
+    static final MethodHandle JEIGEN_EIG = bindOffHeap("jeigen_eig", "v:iDDDDD", 2, 3, 4, 5);
+    static final MethodHandle JEIGEN_PEIG = bindOffHeap("jeigen_peig", "v:iDDD", 2, 3);
+    static final MethodHandle LDLT_SOLVE = bindOffHeap("ldlt_solve", "v:iiiDDD", 5);
+    static final MethodHandle LDLT_SOLVE_DIRECT = bindOffHeap("ldlt_solve", "v:iiiPPP");
+    static final MethodHandle FULLPIVHOUSEHOLDERQR_SOLVE = bindOffHeap("fullpivhouseholderqr_solve", "v:iiiDDD", 5);
+    static final MethodHandle LDLT_SOLVE_STRIDED = bindOffHeap("ldlt_solve_strided", "v:iiiDiiiDD", 8);
+    static final MethodHandle FULLPIVHOUSEHOLDERQR_SOLVE_STRIDED = bindOffHeap("fullpivhouseholderqr_solve_strided", "v:iiiDiiiDD", 8);
+    static final MethodHandle DENSE_FACTORIZE = bindOffHeap("dense_factorize", "i:iiiD");
+    static final MethodHandle DENSE_FACTORIZATION_SOLVE = bindOffHeap("dense_factorization_solve", "v:iiDD", 3);
+    static final MethodHandle SPARSE_SOLVER_ANALYZE_PATTERN = bindOffHeap("sparse_solver_analyze_pattern", "v:ii");
+    static final MethodHandle SPARSE_SOLVER_FACTORIZE = bindOffHeap("sparse_solver_factorize", "i:ii");
+    static final MethodHandle SPARSE_SOLVER_SOLVE = bindOffHeap("sparse_solver_solve", "v:iiiiDD", 5);
+    static final MethodHandle ALLOCATE_SPARSE_MATRIX = bindOffHeap("allocateSparseMatrix", "i:iiiIID");
+    static final MethodHandle SPARSE_DENSE_MULTIPLY_FLOAT = bindOffHeap("sparse_dense_multiply_float", "v:iiiiIIFFF", 8);
+    static final MethodHandle DENSE_SPARSE_MULTIPLY_FLOAT = bindOffHeap("dense_sparse_multiply_float", "v:iiiFiIIFF", 8);
+    static final MethodHandle LDLT_SOLVE_FLOAT = bindOffHeap("ldlt_solve_float", "v:iiiFFF", 5);
+    static final MethodHandle FULLPIVHOUSEHOLDERQR_SOLVE_FLOAT = bindOffHeap("fullpivhouseholderqr_solve_float", "v:iiiFFF", 5);
+    static final MethodHandle SVD_DENSE_FLOAT = bindOffHeap("svd_dense_float", "v:iiFFFF", 3, 4, 5);
+    static final MethodHandle SPARSE_DUMMY_OP2 = bindOffHeap("sparse_dummy_op2", "i:iiiiii");
+
+    static final boolean available = failure == null && selfTest();
+
+    /**
+     * true if all functions could be bound, and a small product gives the
+     * right answer, both critical and off-heap
+     */
+    static boolean isAvailable() {
+        return available;
+    }
+    static boolean selfTest() {
+        try {
+            return selfTest(DENSE_MULTIPLY) && selfTest(DENSE_MULTIPLY_OFF_HEAP) && getNumLiveHandles() >= 0;
+        } catch( Throwable t ) {
+            failure = t;
+            return false;
+        }
+    }
+    static boolean selfTest(MethodHandle denseMultiply ) throws Throwable {
+        double[] result = new double[4];
+        denseMultiply.invokeExact(2, 2, 2, new double[]{ 1, 3, 2, 4 }, new double[]{ 5, 7, 6, 8 }, result);
+        return result[0] == 19 && result[1] == 43 && result[2] == 22 && result[3] == 50;
+    }
+    static RuntimeException rethrow(Throwable t ) {
+        if( t instanceof RuntimeException ) {
+            throw (RuntimeException)t;
+        }
+        if( t instanceof Error ) {
+            throw (Error)t;
+        }
+        return new RuntimeException(t);
+    }
+
+    static void init() {
+        try {
+            INIT.invokeExact();
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void jeigen_set_num_threads( int numThreads ) {
+        try {
+            JEIGEN_SET_NUM_THREADS.invokeExact(numThreads);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int jeigen_get_num_threads() {
+        try {
+            return (int)JEIGEN_GET_NUM_THREADS.invokeExact();
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int jeigen_has_openmp() {
+        try {
+            return (int)JEIGEN_HAS_OPENMP.invokeExact();
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply( int rows, int middle, int cols, double []first, double []second, double []result ) {
+        try {
+            ( isCritical((long)rows * middle * cols) ? DENSE_MULTIPLY : DENSE_MULTIPLY_OFF_HEAP ).invokeExact(rows, middle, cols, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply_add( int rows, int middle, int cols, double alpha, double []first, double []second, double []result ) {
+        try {
+            ( isCritical((long)rows * middle * cols) ? DENSE_MULTIPLY_ADD : DENSE_MULTIPLY_ADD_OFF_HEAP ).invokeExact(rows, middle, cols, alpha, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply( int rows, int middle, int cols, Pointer first, Pointer second, Pointer result ) {
+        try {
+            DENSE_MULTIPLY_DIRECT.invokeExact(rows, middle, cols, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply_add( int rows, int middle, int cols, double alpha, Pointer first, Pointer second, Pointer result ) {
+        try {
+            DENSE_MULTIPLY_ADD_DIRECT.invokeExact(rows, middle, cols, alpha, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply_strided( int rows, int middle, int cols,
+            double[] first, int firstOffset, int firstStride, int firstTransposed,
+            double[] second, int secondOffset, int secondStride, int secondTransposed,
+            double[] result, int resultOffset, int resultStride ) {
+        try {
+            ( isCritical((long)rows * middle * cols) ? DENSE_MULTIPLY_STRIDED : DENSE_MULTIPLY_STRIDED_OFF_HEAP ).invokeExact(rows, middle, cols, first, firstOffset, firstStride, firstTransposed,
+                second, secondOffset, secondStride, secondTransposed, result, resultOffset, resultStride);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int sparse_multiply( int rows, int middle, int cols, int oneHandle, int twoHandle ) {
+        try {
+            return (int)SPARSE_MULTIPLY.invokeExact(rows, middle, cols, oneHandle, twoHandle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int sparse_cwise_op( int op, int rows, int cols, int oneHandle, int twoHandle ) {
+        try {
+            return (int)SPARSE_CWISE_OP.invokeExact(op, rows, cols, oneHandle, twoHandle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void sparse_dense_multiply( int rows, int middle, int cols, int onehandle, double []asecond, double []aresult ) {
+        try {
+            SPARSE_DENSE_MULTIPLY.invokeExact(rows, middle, cols, onehandle, asecond, aresult);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_sparse_multiply( int rows, int middle, int cols, double []afirst, int twohandle, double []aresult ) {
+        try {
+            DENSE_SPARSE_MULTIPLY.invokeExact(rows, middle, cols, afirst, twohandle, aresult);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void svd_dense( int numrows, int numcols, double []in, double []u, double []s, double []v ) {
+        try {
+            SVD_DENSE.invokeExact(numrows, numcols, in, u, s, v);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void jeigen_exp( int n, double[] in, double[] result ) {
+        try {
+            JEIGEN_EXP.invokeExact(n, in, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void jeigen_log( int n, double[] in, double[] result ) {
+        try {
+            JEIGEN_LOG.invokeExact(n, in, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void jeigen_eig( int rows, double[] in, double[] values_real, double[] values_imag,
+            double[] vectors_real, double[] vectors_imag ) {
+        try {
+            JEIGEN_EIG.invokeExact(rows, in, values_real, values_imag, vectors_real, vectors_imag);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void jeigen_peig( int rows, double[] in, double[] eigenValues, double[] eigenVectors ) {
+        try {
+            JEIGEN_PEIG.invokeExact(rows, in, eigenValues, eigenVectors);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void ldlt_solve( int arow, int acols, int bcols, double []avalues, double []bvalues, double []xvalues ) {
+        try {
+            LDLT_SOLVE.invokeExact(arow, acols, bcols, avalues, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void ldlt_solve( int arow, int acols, int bcols, Pointer avalues, Pointer bvalues, Pointer xvalues ) {
+        try {
+            LDLT_SOLVE_DIRECT.invokeExact(arow, acols, bcols, avalues, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void fullpivhouseholderqr_solve( int arow, int acols, int bcols, double []avalues, double []bvalues, double []xvalues ) {
+        try {
+            FULLPIVHOUSEHOLDERQR_SOLVE.invokeExact(arow, acols, bcols, avalues, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void ldlt_solve_strided( int arows, int acols, int bcols, double[] avalues, int aOffset, int aStride, int aTransposed, double[] bvalues, double[] xvalues ) {
+        try {
+            LDLT_SOLVE_STRIDED.invokeExact(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void fullpivhouseholderqr_solve_strided( int arows, int acols, int bcols, double[] avalues, int aOffset, int aStride, int aTransposed, double[] bvalues, double[] xvalues ) {
+        try {
+            FULLPIVHOUSEHOLDERQR_SOLVE_STRIDED.invokeExact(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int dense_factorize( int type, int rows, int cols, double[] avalues ) {
+        try {
+            return (int)DENSE_FACTORIZE.invokeExact(type, rows, cols, avalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_factorization_solve( int handle, int bcols, double[] bvalues, double[] xvalues ) {
+        try {
+            DENSE_FACTORIZATION_SOLVE.invokeExact(handle, bcols, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_factorization_determinant( int handle, double[] result ) {
+        try {
+            DENSE_FACTORIZATION_DETERMINANT.invokeExact(handle, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int freeDenseFactorization( int handle ) {
+        try {
+            return (int)FREE_DENSE_FACTORIZATION.invokeExact(handle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int sparse_solver_create( int type ) {
+        try {
+            return (int)SPARSE_SOLVER_CREATE.invokeExact(type);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void sparse_solver_analyze_pattern( int solverhandle, int matrixhandle ) {
+        try {
+            SPARSE_SOLVER_ANALYZE_PATTERN.invokeExact(solverhandle, matrixhandle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int sparse_solver_factorize( int solverhandle, int matrixhandle ) {
+        try {
+            return (int)SPARSE_SOLVER_FACTORIZE.invokeExact(solverhandle, matrixhandle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void sparse_solver_solve( int solverhandle, int rows, int cols, int bcols, double[] bvalues, double[] xvalues ) {
+        try {
+            SPARSE_SOLVER_SOLVE.invokeExact(solverhandle, rows, cols, bcols, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int freeSparseSolver( int handle ) {
+        try {
+            return (int)FREE_SPARSE_SOLVER.invokeExact(handle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int allocateSparseMatrix( int numEntries, int numRows, int numCols, int []rows, int []cols, double []values ) {
+        try {
+            return (int)ALLOCATE_SPARSE_MATRIX.invokeExact(numEntries, numRows, numCols, rows, cols, values);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void getSparseMatrixStats( int handle, int[] stats ) {
+        try {
+            GET_SPARSE_MATRIX_STATS.invokeExact(handle, stats);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void getSparseMatrix( int handle, int []rows, int []cols, double []values ) {
+        try {
+            ( isCritical(values.length) ? GET_SPARSE_MATRIX : GET_SPARSE_MATRIX_OFF_HEAP ).invokeExact(handle, rows, cols, values);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int freeSparseMatrix( int handle ) {
+        try {
+            return (int)FREE_SPARSE_MATRIX.invokeExact(handle);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int getNumLiveHandles() {
+        try {
+            return (int)GET_NUM_LIVE_HANDLES.invokeExact();
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int allocateSparseMatrixCCS( int numRows, int numCols, int numEntries, int []outerStarts, int []innerIndices, double []values ) {
+        try {
+            return (int)( isCritical(values.length) ? ALLOCATE_SPARSE_MATRIX_CCS : ALLOCATE_SPARSE_MATRIX_CCS_OFF_HEAP ).invokeExact(numRows, numCols, numEntries, outerStarts, innerIndices, values);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void getSparseMatrixCCS( int handle, int []outerStarts, int []innerIndices, double []values ) {
+        try {
+            ( isCritical(values.length) ? GET_SPARSE_MATRIX_CCS : GET_SPARSE_MATRIX_CCS_OFF_HEAP ).invokeExact(handle, outerStarts, innerIndices, values);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_multiply_float( int rows, int middle, int cols, float[] first, float[] second, float[] result ) {
+        try {
+            ( isCritical((long)rows * middle * cols) ? DENSE_MULTIPLY_FLOAT : DENSE_MULTIPLY_FLOAT_OFF_HEAP ).invokeExact(rows, middle, cols, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void sparse_dense_multiply_float( int rows, int middle, int cols,
+            int numEntries, int[] outerStarts, int[] innerIndices, float[] values, float[] second, float[] result ) {
+        try {
+            SPARSE_DENSE_MULTIPLY_FLOAT.invokeExact(rows, middle, cols, numEntries, outerStarts, innerIndices, values, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_sparse_multiply_float( int rows, int middle, int cols, float[] first,
+            int numEntries, int[] outerStarts, int[] innerIndices, float[] values, float[] result ) {
+        try {
+            DENSE_SPARSE_MULTIPLY_FLOAT.invokeExact(rows, middle, cols, first, numEntries, outerStarts, innerIndices, values, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void ldlt_solve_float( int arow, int acols, int bcols, float[] avalues, float[] bvalues, float[] xvalues ) {
+        try {
+            LDLT_SOLVE_FLOAT.invokeExact(arow, acols, bcols, avalues, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void fullpivhouseholderqr_solve_float( int arow, int acols, int bcols, float[] avalues, float[] bvalues, float[] xvalues ) {
+        try {
+            FULLPIVHOUSEHOLDERQR_SOLVE_FLOAT.invokeExact(arow, acols, bcols, avalues, bvalues, xvalues);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void svd_dense_float( int numrows, int numcols, float[] in, float[] u, float[] s, float[] v ) {
+        try {
+            SVD_DENSE_FLOAT.invokeExact(numrows, numcols, in, u, s, v);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_dummy_op1( int rows, int cols, double []first, double []result ) {
+        try {
+            DENSE_DUMMY_OP1.invokeExact(rows, cols, first, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static void dense_dummy_op2( int rows, int middle, int cols, double []first, double []second, double []result ) {
+        try {
+            DENSE_DUMMY_OP2.invokeExact(rows, middle, cols, first, second, result);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+    static int sparse_dummy_op2( int rows, int middle, int cols, int oneHandle, int twoHandle, int numResultColumns ) {
+        try {
+            return (int)SPARSE_DUMMY_OP2.invokeExact(rows, middle, cols, oneHandle, twoHandle, numResultColumns);
+        } catch( Throwable t ) {
+            throw rethrow(t);
+        }
+    }
+}
@@ -7,73 +7,174 @@
 package jeigen;
 
 import com.sun.jna.Native;
+import com.sun.jna.Pointer;
 import java.io.*;
 
 /**
  *  the jna link from java to the native Eigen library
  */
 class JeigenJna {
-    public static class Jeigen {
-        public static final ClassLoader getClassLoader() {
-            ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+    public static final ClassLoader getClassLoader() {
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 
-            if (classLoader == null) {
-                classLoader = Class.class.getClassLoader();
+        if (classLoader == null) {
+            classLoader = Class.class.getClassLoader();
+        }
+        return classLoader;
+    }
+    public static final void addToJnaPath(String newpath ) throws Exception {
+        String oldLibraryPath = System.getProperty( "jna.library.path");
+        if( oldLibraryPath != null ) {
+            System.setProperty( "jna.library.path", oldLibraryPath + File.pathSeparator + newpath );
+        } else {
+            System.setProperty( "jna.library.path", newpath );
+        }
+    }
+    /**
+     * reads a resource from the classpath, eg the native library from the jar
+     */
+    static byte[] readResource(String sourcePath ) throws Exception {
+        InputStream inputStream = getClassLoader().getResourceAsStream(sourcePath);
+        if( inputStream == null ) {
+            throw new FileNotFoundException(sourcePath + " not found on the classpath");
+        }
+        try {
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            FileHelper.copyBetweenStreams( inputStream, outputStream );
+            return outputStream.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+    /**
+     * writes contents to destPath, unless it is already there.  Writes to a
+     * temporary file first, then renames it, so other jvms extracting at the
+     * same time never see a half-written file
+     */
+    static void installFile(byte[] contents, File dest ) throws Exception {
+        if( dest.exists() && dest.length() == contents.length ) {
+            return;
+        }
+        File temp = File.createTempFile(dest.getName(), ".tmp", dest.getParentFile());
+        try {
+            OutputStream outputStream = new FileOutputStream(temp);
+            try {
+                outputStream.write(contents);
+            } finally {
+                outputStream.close();
             }
-            return classLoader;
+            if( !temp.renameTo(dest) && !( dest.exists() && dest.length() == contents.length ) ) {
+                throw new IOException("could not rename " + temp + " to " + dest );
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+    static String toHex(byte[] bytes, int numBytes ) {
+        StringBuilder hex = new StringBuilder();
+        for( int i = 0; i < numBytes; i++ ) {
+            hex.append(String.format("%02x", bytes[i] & 0xff));
+        }
+        return hex.toString();
+    }
+    static String getLibraryFileName() {
+        String nativefilename = "libjeigen-linux-" + OsHelper.jvmBits() + ".so";
+        if( OsHelper.isWindows() ) {
+            nativefilename = "jeigen-win-" + OsHelper.jvmBits() + ".dll";
+        } else if( OsHelper.isMac() ) {
+            nativefilename = "libjeigen-mac-" + OsHelper.jvmBits() + ".dylib";
         }
-        public static final void addToJnaPath(String newpath ) throws Exception {
-            String oldLibraryPath = System.getProperty( "jna.library.path");
-            if( oldLibraryPath != null ) {
-                System.setProperty( "jna.library.path", oldLibraryPath + File.pathSeparator + newpath );
-            } else {
-                System.setProperty( "jna.library.path", newpath );
+        return nativefilename;
+    }
+    /**
+     * name of the native library, for this os, as passed to Native.register
+     */
+    static String getLibraryName() {
+        return getLibraryFileName().replace(".dylib","").replace("lib","").replace(".dll","").replace(".so","");
+    }
+    static final String NATIVE_DIR_PROPERTY = "jeigen.native.dir";
+    static File installedLibrary;
+    static Throwable installFailure;
+    /**
+     * extracts the native library, and on windows its runtime, from the
+     * jar, and returns the path of the library.  Used by both the jna and
+     * the ffm bindings.
+     *
+     * The library goes in a directory named after the sha-256 of its
+     * contents, under ~/.jeigen/native2, or -Djeigen.native.dir, so a new
+     * version of jeigen never picks up an old library, and jvms using
+     * different versions dont overwrite each other's.
+     *
+     * Only runs once; if it fails, later calls throw the same error
+     */
+    static synchronized File installLibrary() {
+        if( installedLibrary != null ) {
+            return installedLibrary;
+        }
+        if( installFailure == null ) {
+            try {
+                installedLibrary = doInstallLibrary();
+                return installedLibrary;
+            } catch( Throwable t ) {
+                installFailure = t;
             }
         }
-    static void installFile(String sourcePath, String destPath) throws IOException, FileNotFoundException, Exception {
-        ClassLoader classLoader = getClassLoader();
-                if( !new File(destPath).exists() ) {
-                    InputStream inputStream = classLoader.getResourceAsStream(sourcePath);
-                    OutputStream outputStream = new FileOutputStream(destPath );
-                    FileHelper.copyBetweenStreams( inputStream, outputStream );
-                    inputStream.close();
-                    outputStream.close();
-                }
+        UnsatisfiedLinkError error = new UnsatisfiedLinkError("could not install the jeigen native library " + getLibraryFileName() + ": " + installFailure );
+        error.initCause(installFailure);
+        throw error;
     }
-        static {
-            try{
-                String userDirectory = System.getProperty("user.home");
-                String nativeDirectory = userDirectory + File.separator + ".jeigen" + File.separator + "native2";
+    static File doInstallLibrary() throws Exception {
+        String nativefilename = getLibraryFileName();
+        byte[] library = readResource(nativefilename);
+        String hash = toHex(java.security.MessageDigest.getInstance("SHA-256").digest(library), 8);
+        String baseDirectory = System.getProperty(NATIVE_DIR_PROPERTY);
+        if( baseDirectory == null ) {
+            baseDirectory = System.getProperty("user.home") + File.separator + ".jeigen" + File.separator + "native2";
+        }
+        String nativeDirectory = baseDirectory + File.separator + hash;
         if(OsHelper.isWindows()) {
             nativeDirectory = nativeDirectory + File.separator + "win-" + OsHelper.jvmBits();
         }
-                new File( nativeDirectory ).mkdirs();
-                ClassLoader classLoader = getClassLoader();
-                String nativefilename = "libjeigen-linux-" + OsHelper.jvmBits() + ".so";
-                if( OsHelper.isWindows() ) {
-                    nativefilename = "jeigen-win-" + OsHelper.jvmBits() + ".dll";
-                } else if( OsHelper.isMac() ) {
-                    nativefilename = "libjeigen-mac-" + OsHelper.jvmBits() + ".dylib";
-                }
-        installFile(nativefilename, nativeDirectory + File.separator + nativefilename);
+        new File( nativeDirectory ).mkdirs();
         if(OsHelper.isWindows()) {
-            installFile("msvc-redist/win-" + OsHelper.jvmBits() + "/msvcp100.dll", nativeDirectory + File.separator + "msvcp100.dll");
-            installFile("msvc-redist/win-" + OsHelper.jvmBits() + "/msvcr100.dll", nativeDirectory + File.separator + "msvcr100.dll");
+            installFile(readResource("msvc-redist/win-" + OsHelper.jvmBits() + "/msvcp100.dll"), new File(nativeDirectory, "msvcp100.dll"));
+            installFile(readResource("msvc-redist/win-" + OsHelper.jvmBits() + "/msvcr100.dll"), new File(nativeDirectory, "msvcr100.dll"));
         }
-                addToJnaPath( nativeDirectory );
-                Native.register(nativefilename.replace(".dylib","").replace("lib","").replace(".dll","").replace(".so","") );
+        File dest = new File(nativeDirectory, nativefilename);
+        installFile(library, dest);
+        return dest;
+    }
+    public static class Jeigen {
+        static {
+            // throws UnsatisfiedLinkError if it fails, rather than exiting
+            File library = installLibrary();
+            try{
+                addToJnaPath( library.getParent() );
             } catch(Exception e ) {
-                e.printStackTrace();
-                System.exit(1);
+                throw new RuntimeException(e);
             }
+            Native.register(getLibraryName());
 //            Native.register("jeigen");
         }
         
         public static native void init();
+        public static native void jeigen_set_num_threads( int numThreads );
+        public static native int jeigen_get_num_threads();
+        public static native int jeigen_has_openmp();
         public static native void dense_multiply( int rows, int middle, int cols, double []first, double []second, double []result );
+        public static native void dense_multiply_add( int rows, int middle, int cols, double alpha, double []first, double []second, double []result );
+        // overloads for DirectDenseMatrix, whose values are already in native memory
+        public static native void dense_multiply( int rows, int middle, int cols, Pointer first, Pointer second, Pointer result );
+        public static native void dense_multiply_add( int rows, int middle, int cols, double alpha, Pointer first, Pointer second, Pointer result );
+        // first, second and result are blocks of larger arrays, see DenseMatrixView
+        public static native void dense_multiply_strided( int rows, int middle, int cols,
+           double []first, int firstOffset, int firstStride, int firstTransposed,
+           double []second, int secondOffset, int secondStride, int secondTransposed,
+           double []result, int resultOffset, int resultStride );
         public static native int sparse_multiply( int rows, int middle, int cols,
            int oneHandle,
            int twoHandle );
+        public static native int sparse_cwise_op( int op, int rows, int cols, int oneHandle, int twoHandle );
         public static native void sparse_dense_multiply( int rows, int middle, int cols, int onehandle, double []asecond, double []aresult );
         public static native void dense_sparse_multiply( int rows, int middle, int cols, double []afirst, int twohandle, double []aresult );
         
@@ -87,12 +188,39 @@ class JeigenJna {
         public static native void jeigen_peig( int rows, double[] in, double[] eigenValues, double[] eigenVectors );
 
         public static native void ldlt_solve( int arow, int acols, int bcols, double []avalues, double []bvalues, double []xvalues );
+        public static native void ldlt_solve( int arow, int acols, int bcols, Pointer avalues, Pointer bvalues, Pointer xvalues );
         public static native void fullpivhouseholderqr_solve( int arow, int acols, int bcols, double []avalues, double []bvalues, double []xvalues );
+        public static native void ldlt_solve_strided( int arows, int acols, int bcols, double []avalues, int aOffset, int aStride, int aTransposed, double []bvalues, double []xvalues );
+        public static native void fullpivhouseholderqr_solve_strided( int arows, int acols, int bcols, double []avalues, int aOffset, int aStride, int aTransposed, double []bvalues, double []xvalues );
+
+        public static native int dense_factorize( int type, int rows, int cols, double []avalues );
+        public static native void dense_factorization_solve( int handle, int bcols, double []bvalues, double []xvalues );
+        public static native void dense_factorization_determinant( int handle, double []result );
+        public static native int freeDenseFactorization( int handle );
+
+        public static native int sparse_solver_create( int type );
+        public static native void sparse_solver_analyze_pattern( int solverhandle, int matrixhandle );
+        public static native int sparse_solver_factorize( int solverhandle, int matrixhandle );
+        public static native void sparse_solver_solve( int solverhandle, int rows, int cols, int bcols, double []bvalues, double []xvalues );
+        public static native int freeSparseSolver( int handle );
 
         public static native int allocateSparseMatrix( int numEntries, int numRows, int numCols, int []rows, int []cols, double []values );
         public static native void getSparseMatrixStats( int handle, int[] stats ); // rows, cols, nonzeros
         public static native void getSparseMatrix( int handle, int []rows, int []cols, double []values );
-        public static native void freeSparseMatrix( int handle );
+        public static native int freeSparseMatrix( int handle ); // returns -1 if handle wasnt live
+        public static native int getNumLiveHandles();
+        public static native int allocateSparseMatrixCCS( int numRows, int numCols, int numEntries, int []outerStarts, int []innerIndices, double []values );
+        public static native void getSparseMatrixCCS( int handle, int []outerStarts, int []innerIndices, double []values );
+
+        // single precision, for FloatMatrix and FloatSparseMatrix
+        public static native void dense_multiply_float( int rows, int middle, int cols, float []first, float []second, float []result );
+        public static native void sparse_dense_multiply_float( int rows, int middle, int cols,
+            int numEntries, int []outerStarts, int []innerIndices, float []values, float []second, float []result );
+        public static native void dense_sparse_multiply_float( int rows, int middle, int cols, float []first,
+            int numEntries, int []outerStarts, int []innerIndices, float []values, float []result );
+        public static native void ldlt_solve_float( int arow, int acols, int bcols, float []avalues, float []bvalues, float []xvalues );
+        public static native void fullpivhouseholderqr_solve_float( int arow, int acols, int bcols, float []avalues, float []bvalues, float []xvalues );
+        public static native void svd_dense_float( int numrows, int numcols, float []in, float []u, float []s, float []v );
 
         // dummy ops to measure latency
         public static native void dense_dummy_op1( int rows, int cols, double []first, double []result );
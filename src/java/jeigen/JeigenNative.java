@@ -0,0 +1,388 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import com.sun.jna.Pointer;
+
+/**
+ * All calls into the native library go through here, and on to either
+ * JeigenFfm or JeigenJna.Jeigen.
+ *
+ * The binding is chosen once, from the system property jeigen.backend:
+ * - auto, the default: ffm if the jvm supports it (java 22 onwards), otherwise jna
+ * - ffm: same as auto
+ * - jna: always jna
+ *
+ * useFfm is static final, so the jit removes the check.
+ */
+final class JeigenNative {
+    static final String BACKEND_PROPERTY = "jeigen.backend";
+
+    static final boolean useFfm = chooseFfm();
+
+    static boolean chooseFfm() {
+        String backend = System.getProperty(BACKEND_PROPERTY, "auto").trim().toLowerCase();
+        if( backend.equals("jna") ) {
+            return false;
+        }
+        if( !backend.equals("auto") && !backend.equals("ffm") ) {
+            throw new RuntimeException(BACKEND_PROPERTY + " should be auto, ffm or jna, but was " + backend );
+        }
+        return JeigenFfm.isAvailable();
+    }
+    /**
+     * "ffm" or "jna"
+     */
+    static String getBackend() {
+        return useFfm ? "ffm" : "jna";
+    }
+    /**
+     * true if a call doing work multiply-adds passes java arrays to Eigen in
+     * place, ie ffm and a critical call.  Otherwise whole arrays are copied
+     * to native memory and back, so callers should pass only what they need
+     */
+    static boolean passesInPlace(long work ) {
+        return useFfm && JeigenFfm.isCritical(work);
+    }
+
+    static void init() {
+        if( useFfm ) {
+            JeigenFfm.init();
+        } else {
+            JeigenJna.Jeigen.init();
+        }
+    }
+    static void jeigen_set_num_threads( int numThreads ) {
+        if( useFfm ) {
+            JeigenFfm.jeigen_set_num_threads(numThreads);
+        } else {
+            JeigenJna.Jeigen.jeigen_set_num_threads(numThreads);
+        }
+    }
+    static int jeigen_get_num_threads() {
+        if( useFfm ) {
+            return JeigenFfm.jeigen_get_num_threads();
+        } else {
+            return JeigenJna.Jeigen.jeigen_get_num_threads();
+        }
+    }
+    static int jeigen_has_openmp() {
+        if( useFfm ) {
+            return JeigenFfm.jeigen_has_openmp();
+        } else {
+            return JeigenJna.Jeigen.jeigen_has_openmp();
+        }
+    }
+    static void dense_multiply( int rows, int middle, int cols, double[] first, double[] second, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply(rows, middle, cols, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_multiply(rows, middle, cols, first, second, result);
+        }
+    }
+    static void dense_multiply_add( int rows, int middle, int cols, double alpha, double[] first, double[] second, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply_add(rows, middle, cols, alpha, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_multiply_add(rows, middle, cols, alpha, first, second, result);
+        }
+    }
+    static void dense_multiply( int rows, int middle, int cols, Pointer first, Pointer second, Pointer result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply(rows, middle, cols, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_multiply(rows, middle, cols, first, second, result);
+        }
+    }
+    static void dense_multiply_add( int rows, int middle, int cols, double alpha, Pointer first, Pointer second, Pointer result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply_add(rows, middle, cols, alpha, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_multiply_add(rows, middle, cols, alpha, first, second, result);
+        }
+    }
+    static void dense_multiply_strided( int rows, int middle, int cols, double[] first, int firstOffset, int firstStride, int firstTransposed, double[] second, int secondOffset, int secondStride, int secondTransposed, double[] result, int resultOffset, int resultStride ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply_strided(rows, middle, cols, first, firstOffset, firstStride, firstTransposed, second, secondOffset, secondStride, secondTransposed, result, resultOffset, resultStride);
+        } else {
+            JeigenJna.Jeigen.dense_multiply_strided(rows, middle, cols, first, firstOffset, firstStride, firstTransposed, second, secondOffset, secondStride, secondTransposed, result, resultOffset, resultStride);
+        }
+    }
+    static int sparse_multiply( int rows, int middle, int cols, int oneHandle, int twoHandle ) {
+        if( useFfm ) {
+            return JeigenFfm.sparse_multiply(rows, middle, cols, oneHandle, twoHandle);
+        } else {
+            return JeigenJna.Jeigen.sparse_multiply(rows, middle, cols, oneHandle, twoHandle);
+        }
+    }
+    static int sparse_cwise_op( int op, int rows, int cols, int oneHandle, int twoHandle ) {
+        if( useFfm ) {
+            return JeigenFfm.sparse_cwise_op(op, rows, cols, oneHandle, twoHandle);
+        } else {
+            return JeigenJna.Jeigen.sparse_cwise_op(op, rows, cols, oneHandle, twoHandle);
+        }
+    }
+    static void sparse_dense_multiply( int rows, int middle, int cols, int onehandle, double[] asecond, double[] aresult ) {
+        if( useFfm ) {
+            JeigenFfm.sparse_dense_multiply(rows, middle, cols, onehandle, asecond, aresult);
+        } else {
+            JeigenJna.Jeigen.sparse_dense_multiply(rows, middle, cols, onehandle, asecond, aresult);
+        }
+    }
+    static void dense_sparse_multiply( int rows, int middle, int cols, double[] afirst, int twohandle, double[] aresult ) {
+        if( useFfm ) {
+            JeigenFfm.dense_sparse_multiply(rows, middle, cols, afirst, twohandle, aresult);
+        } else {
+            JeigenJna.Jeigen.dense_sparse_multiply(rows, middle, cols, afirst, twohandle, aresult);
+        }
+    }
+    static void svd_dense( int numrows, int numcols, double[] in, double[] u, double[] s, double[] v ) {
+        if( useFfm ) {
+            JeigenFfm.svd_dense(numrows, numcols, in, u, s, v);
+        } else {
+            JeigenJna.Jeigen.svd_dense(numrows, numcols, in, u, s, v);
+        }
+    }
+    static void jeigen_exp( int n, double[] in, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.jeigen_exp(n, in, result);
+        } else {
+            JeigenJna.Jeigen.jeigen_exp(n, in, result);
+        }
+    }
+    static void jeigen_log( int n, double[] in, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.jeigen_log(n, in, result);
+        } else {
+            JeigenJna.Jeigen.jeigen_log(n, in, result);
+        }
+    }
+    static void jeigen_eig( int rows, double[] in, double[] values_real, double[] values_imag, double[] vectors_real, double[] vectors_imag ) {
+        if( useFfm ) {
+            JeigenFfm.jeigen_eig(rows, in, values_real, values_imag, vectors_real, vectors_imag);
+        } else {
+            JeigenJna.Jeigen.jeigen_eig(rows, in, values_real, values_imag, vectors_real, vectors_imag);
+        }
+    }
+    static void jeigen_peig( int rows, double[] in, double[] eigenValues, double[] eigenVectors ) {
+        if( useFfm ) {
+            JeigenFfm.jeigen_peig(rows, in, eigenValues, eigenVectors);
+        } else {
+            JeigenJna.Jeigen.jeigen_peig(rows, in, eigenValues, eigenVectors);
+        }
+    }
+    static void ldlt_solve( int arow, int acols, int bcols, double[] avalues, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.ldlt_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.ldlt_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        }
+    }
+    static void ldlt_solve( int arow, int acols, int bcols, Pointer avalues, Pointer bvalues, Pointer xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.ldlt_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.ldlt_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        }
+    }
+    static void fullpivhouseholderqr_solve( int arow, int acols, int bcols, double[] avalues, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.fullpivhouseholderqr_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.fullpivhouseholderqr_solve(arow, acols, bcols, avalues, bvalues, xvalues);
+        }
+    }
+    static void ldlt_solve_strided( int arows, int acols, int bcols, double[] avalues, int aOffset, int aStride, int aTransposed, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.ldlt_solve_strided(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.ldlt_solve_strided(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        }
+    }
+    static void fullpivhouseholderqr_solve_strided( int arows, int acols, int bcols, double[] avalues, int aOffset, int aStride, int aTransposed, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.fullpivhouseholderqr_solve_strided(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.fullpivhouseholderqr_solve_strided(arows, acols, bcols, avalues, aOffset, aStride, aTransposed, bvalues, xvalues);
+        }
+    }
+    static int dense_factorize( int type, int rows, int cols, double[] avalues ) {
+        if( useFfm ) {
+            return JeigenFfm.dense_factorize(type, rows, cols, avalues);
+        } else {
+            return JeigenJna.Jeigen.dense_factorize(type, rows, cols, avalues);
+        }
+    }
+    static void dense_factorization_solve( int handle, int bcols, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.dense_factorization_solve(handle, bcols, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.dense_factorization_solve(handle, bcols, bvalues, xvalues);
+        }
+    }
+    static void dense_factorization_determinant( int handle, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_factorization_determinant(handle, result);
+        } else {
+            JeigenJna.Jeigen.dense_factorization_determinant(handle, result);
+        }
+    }
+    static int freeDenseFactorization( int handle ) {
+        if( useFfm ) {
+            return JeigenFfm.freeDenseFactorization(handle);
+        } else {
+            return JeigenJna.Jeigen.freeDenseFactorization(handle);
+        }
+    }
+    static int sparse_solver_create( int type ) {
+        if( useFfm ) {
+            return JeigenFfm.sparse_solver_create(type);
+        } else {
+            return JeigenJna.Jeigen.sparse_solver_create(type);
+        }
+    }
+    static void sparse_solver_analyze_pattern( int solverhandle, int matrixhandle ) {
+        if( useFfm ) {
+            JeigenFfm.sparse_solver_analyze_pattern(solverhandle, matrixhandle);
+        } else {
+            JeigenJna.Jeigen.sparse_solver_analyze_pattern(solverhandle, matrixhandle);
+        }
+    }
+    static int sparse_solver_factorize( int solverhandle, int matrixhandle ) {
+        if( useFfm ) {
+            return JeigenFfm.sparse_solver_factorize(solverhandle, matrixhandle);
+        } else {
+            return JeigenJna.Jeigen.sparse_solver_factorize(solverhandle, matrixhandle);
+        }
+    }
+    static void sparse_solver_solve( int solverhandle, int rows, int cols, int bcols, double[] bvalues, double[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.sparse_solver_solve(solverhandle, rows, cols, bcols, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.sparse_solver_solve(solverhandle, rows, cols, bcols, bvalues, xvalues);
+        }
+    }
+    static int freeSparseSolver( int handle ) {
+        if( useFfm ) {
+            return JeigenFfm.freeSparseSolver(handle);
+        } else {
+            return JeigenJna.Jeigen.freeSparseSolver(handle);
+        }
+    }
+    static int allocateSparseMatrix( int numEntries, int numRows, int numCols, int[] rows, int[] cols, double[] values ) {
+        if( useFfm ) {
+            return JeigenFfm.allocateSparseMatrix(numEntries, numRows, numCols, rows, cols, values);
+        } else {
+            return JeigenJna.Jeigen.allocateSparseMatrix(numEntries, numRows, numCols, rows, cols, values);
+        }
+    }
+    static void getSparseMatrixStats( int handle, int[] stats ) {
+        if( useFfm ) {
+            JeigenFfm.getSparseMatrixStats(handle, stats);
+        } else {
+            JeigenJna.Jeigen.getSparseMatrixStats(handle, stats);
+        }
+    }
+    static void getSparseMatrix( int handle, int[] rows, int[] cols, double[] values ) {
+        if( useFfm ) {
+            JeigenFfm.getSparseMatrix(handle, rows, cols, values);
+        } else {
+            JeigenJna.Jeigen.getSparseMatrix(handle, rows, cols, values);
+        }
+    }
+    static int freeSparseMatrix( int handle ) {
+        if( useFfm ) {
+            return JeigenFfm.freeSparseMatrix(handle);
+        } else {
+            return JeigenJna.Jeigen.freeSparseMatrix(handle);
+        }
+    }
+    static int getNumLiveHandles() {
+        if( useFfm ) {
+            return JeigenFfm.getNumLiveHandles();
+        } else {
+            return JeigenJna.Jeigen.getNumLiveHandles();
+        }
+    }
+    static int allocateSparseMatrixCCS( int numRows, int numCols, int numEntries, int[] outerStarts, int[] innerIndices, double[] values ) {
+        if( useFfm ) {
+            return JeigenFfm.allocateSparseMatrixCCS(numRows, numCols, numEntries, outerStarts, innerIndices, values);
+        } else {
+            return JeigenJna.Jeigen.allocateSparseMatrixCCS(numRows, numCols, numEntries, outerStarts, innerIndices, values);
+        }
+    }
+    static void getSparseMatrixCCS( int handle, int[] outerStarts, int[] innerIndices, double[] values ) {
+        if( useFfm ) {
+            JeigenFfm.getSparseMatrixCCS(handle, outerStarts, innerIndices, values);
+        } else {
+            JeigenJna.Jeigen.getSparseMatrixCCS(handle, outerStarts, innerIndices, values);
+        }
+    }
+    static void dense_multiply_float( int rows, int middle, int cols, float[] first, float[] second, float[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_multiply_float(rows, middle, cols, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_multiply_float(rows, middle, cols, first, second, result);
+        }
+    }
+    static void sparse_dense_multiply_float( int rows, int middle, int cols, int numEntries, int[] outerStarts, int[] innerIndices, float[] values, float[] second, float[] result ) {
+        if( useFfm ) {
+            JeigenFfm.sparse_dense_multiply_float(rows, middle, cols, numEntries, outerStarts, innerIndices, values, second, result);
+        } else {
+            JeigenJna.Jeigen.sparse_dense_multiply_float(rows, middle, cols, numEntries, outerStarts, innerIndices, values, second, result);
+        }
+    }
+    static void dense_sparse_multiply_float( int rows, int middle, int cols, float[] first, int numEntries, int[] outerStarts, int[] innerIndices, float[] values, float[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_sparse_multiply_float(rows, middle, cols, first, numEntries, outerStarts, innerIndices, values, result);
+        } else {
+            JeigenJna.Jeigen.dense_sparse_multiply_float(rows, middle, cols, first, numEntries, outerStarts, innerIndices, values, result);
+        }
+    }
+    static void ldlt_solve_float( int arow, int acols, int bcols, float[] avalues, float[] bvalues, float[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.ldlt_solve_float(arow, acols, bcols, avalues, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.ldlt_solve_float(arow, acols, bcols, avalues, bvalues, xvalues);
+        }
+    }
+    static void fullpivhouseholderqr_solve_float( int arow, int acols, int bcols, float[] avalues, float[] bvalues, float[] xvalues ) {
+        if( useFfm ) {
+            JeigenFfm.fullpivhouseholderqr_solve_float(arow, acols, bcols, avalues, bvalues, xvalues);
+        } else {
+            JeigenJna.Jeigen.fullpivhouseholderqr_solve_float(arow, acols, bcols, avalues, bvalues, xvalues);
+        }
+    }
+    static void svd_dense_float( int numrows, int numcols, float[] in, float[] u, float[] s, float[] v ) {
+        if( useFfm ) {
+            JeigenFfm.svd_dense_float(numrows, numcols, in, u, s, v);
+        } else {
+            JeigenJna.Jeigen.svd_dense_float(numrows, numcols, in, u, s, v);
+        }
+    }
+    static void dense_dummy_op1( int rows, int cols, double[] first, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_dummy_op1(rows, cols, first, result);
+        } else {
+            JeigenJna.Jeigen.dense_dummy_op1(rows, cols, first, result);
+        }
+    }
+    static void dense_dummy_op2( int rows, int middle, int cols, double[] first, double[] second, double[] result ) {
+        if( useFfm ) {
+            JeigenFfm.dense_dummy_op2(rows, middle, cols, first, second, result);
+        } else {
+            JeigenJna.Jeigen.dense_dummy_op2(rows, middle, cols, first, second, result);
+        }
+    }
+    static int sparse_dummy_op2( int rows, int middle, int cols, int oneHandle, int twoHandle, int numResultColumns ) {
+        if( useFfm ) {
+            return JeigenFfm.sparse_dummy_op2(rows, middle, cols, oneHandle, twoHandle, numResultColumns);
+        } else {
+            return JeigenJna.Jeigen.sparse_dummy_op2(rows, middle, cols, oneHandle, twoHandle, numResultColumns);
+        }
+    }
+}
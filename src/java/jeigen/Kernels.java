@@ -0,0 +1,162 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+/**
+ * The per-element loops and reductions used by DenseMatrix, over the range
+ * start to end - 1 of the arrays.
+ *
+ * This class is the plain java version.  If the jvm was started with
+ * --add-modules jdk.incubator.vector, and the jar was built on java 16 or
+ * later, instance is a VectorKernels instead, which does the same thing
+ * using the Vector API, ie explicit simd.  The jit often fails to vectorize
+ * these loops itself, eg the comparisons, which write 0 or 1.
+ *
+ * Set system property jeigen.vector to false to use this class regardless.
+ */
+class Kernels {
+    static final int ADD = 0;
+    static final int SUB = 1;
+    static final int MUL = 2;
+    static final int DIV = 3;
+    static final int MAX = 4; // a < b ? b : a, except in reduce and accumulate, where it is Math.max
+    static final int MIN = 5; // a > b ? b : a, except in reduce and accumulate, where it is Math.min
+    static final int EQ = 6; // comparisons write 1 if true, otherwise 0
+    static final int NE = 7;
+    static final int LT = 8;
+    static final int LE = 9;
+    static final int GT = 10;
+    static final int GE = 11;
+    static final int NEG = 12;
+    static final int ABS = 13;
+    static final int RECPR = 14;
+    static final int SQRT = 15;
+    static final int EXP = 16;
+    static final int LOG = 17;
+    static final int POW = 18; // scalar only: Math.pow(a, s)
+
+    static final Kernels instance = load();
+
+    static Kernels load() {
+        if( !"false".equals(System.getProperty("jeigen.vector")) ) {
+            try {
+                return (Kernels)Class.forName("jeigen.VectorKernels").getDeclaredConstructor().newInstance();
+            } catch( Throwable e ) {
+                // not built, or jdk.incubator.vector not added to the jvm
+            }
+        }
+        return new Kernels();
+    }
+
+    /**
+     * eg "scalar", or "vector, 256 bits"
+     */
+    String getName() {
+        return "scalar";
+    }
+
+    /**
+     * out[i] = op a[i], for NEG, ABS, RECPR, SQRT, EXP and LOG
+     */
+    void unary(int op, double[] a, double[] out, int start, int end ) {
+        switch( op ) {
+            case NEG: for( int i = start; i < end; i++ ) { out[i] = - a[i]; } break;
+            case ABS: for( int i = start; i < end; i++ ) { out[i] = Math.abs(a[i]); } break;
+            case RECPR: for( int i = start; i < end; i++ ) { out[i] = 1 / a[i]; } break;
+            case SQRT: for( int i = start; i < end; i++ ) { out[i] = Math.sqrt(a[i]); } break;
+            case EXP: for( int i = start; i < end; i++ ) { out[i] = Math.exp(a[i]); } break;
+            case LOG: for( int i = start; i < end; i++ ) { out[i] = Math.log(a[i]); } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * out[i] = a[i] op b[i]
+     */
+    void binary(int op, double[] a, double[] b, double[] out, int start, int end ) {
+        switch( op ) {
+            case ADD: for( int i = start; i < end; i++ ) { out[i] = a[i] + b[i]; } break;
+            case SUB: for( int i = start; i < end; i++ ) { out[i] = a[i] - b[i]; } break;
+            case MUL: for( int i = start; i < end; i++ ) { out[i] = a[i] * b[i]; } break;
+            case DIV: for( int i = start; i < end; i++ ) { out[i] = a[i] / b[i]; } break;
+            case MAX: for( int i = start; i < end; i++ ) { out[i] = a[i] < b[i] ? b[i] : a[i]; } break;
+            case MIN: for( int i = start; i < end; i++ ) { out[i] = a[i] > b[i] ? b[i] : a[i]; } break;
+            case EQ: for( int i = start; i < end; i++ ) { out[i] = a[i] == b[i] ? 1 : 0; } break;
+            case NE: for( int i = start; i < end; i++ ) { out[i] = a[i] != b[i] ? 1 : 0; } break;
+            case LT: for( int i = start; i < end; i++ ) { out[i] = a[i] < b[i] ? 1 : 0; } break;
+            case LE: for( int i = start; i < end; i++ ) { out[i] = a[i] <= b[i] ? 1 : 0; } break;
+            case GT: for( int i = start; i < end; i++ ) { out[i] = a[i] > b[i] ? 1 : 0; } break;
+            case GE: for( int i = start; i < end; i++ ) { out[i] = a[i] >= b[i] ? 1 : 0; } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * out[i] = a[i] op s
+     */
+    void scalar(int op, double[] a, double s, double[] out, int start, int end ) {
+        switch( op ) {
+            case ADD: for( int i = start; i < end; i++ ) { out[i] = a[i] + s; } break;
+            case SUB: for( int i = start; i < end; i++ ) { out[i] = a[i] - s; } break;
+            case MUL: for( int i = start; i < end; i++ ) { out[i] = a[i] * s; } break;
+            case DIV: for( int i = start; i < end; i++ ) { out[i] = a[i] / s; } break;
+            case MAX: for( int i = start; i < end; i++ ) { out[i] = a[i] < s ? s : a[i]; } break;
+            case MIN: for( int i = start; i < end; i++ ) { out[i] = a[i] > s ? s : a[i]; } break;
+            case EQ: for( int i = start; i < end; i++ ) { out[i] = a[i] == s ? 1 : 0; } break;
+            case NE: for( int i = start; i < end; i++ ) { out[i] = a[i] != s ? 1 : 0; } break;
+            case LT: for( int i = start; i < end; i++ ) { out[i] = a[i] < s ? 1 : 0; } break;
+            case LE: for( int i = start; i < end; i++ ) { out[i] = a[i] <= s ? 1 : 0; } break;
+            case GT: for( int i = start; i < end; i++ ) { out[i] = a[i] > s ? 1 : 0; } break;
+            case GE: for( int i = start; i < end; i++ ) { out[i] = a[i] >= s ? 1 : 0; } break;
+            case POW: for( int i = start; i < end; i++ ) { out[i] = Math.pow(a[i], s); } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * sum, max or min of a[start] to a[end - 1].  An empty range gives 0,
+     * -infinity or +infinity respectively
+     */
+    double reduce(int op, double[] a, int start, int end ) {
+        switch( op ) {
+            case ADD: {
+                double sum = 0;
+                for( int i = start; i < end; i++ ) {
+                    sum += a[i];
+                }
+                return sum;
+            }
+            case MAX: {
+                double max = Double.NEGATIVE_INFINITY;
+                for( int i = start; i < end; i++ ) {
+                    max = Math.max(max, a[i]);
+                }
+                return max;
+            }
+            case MIN: {
+                double min = Double.POSITIVE_INFINITY;
+                for( int i = start; i < end; i++ ) {
+                    min = Math.min(min, a[i]);
+                }
+                return min;
+            }
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * acc[accStart + i] = acc[accStart + i] op a[aStart + i], for i from 0 to
+     * length - 1, for ADD, MAX or MIN.  Used to reduce over columns, one
+     * column at a time
+     */
+    void accumulate(int op, double[] acc, int accStart, double[] a, int aStart, int length ) {
+        int offset = aStart - accStart;
+        int end = accStart + length;
+        switch( op ) {
+            case ADD: for( int i = accStart; i < end; i++ ) { acc[i] = acc[i] + a[offset + i]; } break;
+            case MAX: for( int i = accStart; i < end; i++ ) { acc[i] = Math.max(acc[i], a[offset + i]); } break;
+            case MIN: for( int i = accStart; i < end; i++ ) { acc[i] = Math.min(acc[i], a[offset + i]); } break;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+}
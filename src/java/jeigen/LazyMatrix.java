@@ -0,0 +1,322 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+/**
+ * A per-element expression on dense matrices, that isnt calculated until
+ * eval() is called, eg:
+ *
+ *     DenseMatrix result = a.lazy().sub(b).mul(c).exp().add(1).eval();
+ *
+ * The eager version, a.sub(b).mul(c).exp().add(1), creates a new matrix at
+ * every step.  eval() instead walks the values once, a block of BLOCK_SIZE
+ * elements at a time, applying the whole expression to each block while it
+ * is in cache, and creates only the result.
+ *
+ * Operations which arent per-element, eg mmul, t, or the aggregations,
+ * evaluate the expression so far, then carry on eagerly.
+ *
+ * The matrices in the expression are read when eval() is called, not when
+ * the expression is built.  Large expressions are evaluated on several
+ * threads, see Jeigen.setParallelThreads.
+ */
+public abstract class LazyMatrix {
+    static final int BLOCK_SIZE = 512;
+
+    static final int NEG = 0;
+    static final int RECPR = 1;
+    static final int ABS = 2;
+    static final int SQRT = 3;
+    static final int EXP = 4;
+    static final int LOG = 5;
+    static final int POW = 6;
+    static final int ADD = 7;
+    static final int SUB = 8;
+    static final int RSUB = 9; // scalar - element
+    static final int MUL = 10;
+    static final int DIV = 11;
+    static final int RDIV = 12; // scalar / element
+    static final int MAX = 13;
+    static final int MIN = 14;
+
+    /**
+     * Number of rows
+     */
+    public final int rows;
+    /**
+     * Number of columns
+     */
+    public final int cols;
+    /**
+     * height of the expression tree, ie how many scratch blocks eval needs
+     */
+    final int depth;
+
+    LazyMatrix(int rows, int cols, int depth ) {
+        this.rows = rows;
+        this.cols = cols;
+        this.depth = depth;
+    }
+    /**
+     * writes elements start to start + length - 1 of this expression into
+     * out[0] to out[length - 1].  Nodes at this level use scratch[level]
+     */
+    abstract void evalBlock(int start, int length, double[] out, double[][] scratch, int level );
+
+    /**
+     * wraps matrix, as the start of an expression; see DenseMatrix.lazy()
+     */
+    public static LazyMatrix of(DenseMatrix matrix ) {
+        return new Leaf(matrix);
+    }
+    /**
+     * calculates the expression, into a new matrix
+     */
+    public DenseMatrix eval() {
+        return evalInto(new DenseMatrix(rows, cols));
+    }
+    /**
+     * calculates the expression, into out, which must be the same size.
+     * out may be one of the matrices in the expression.  Returns out
+     */
+    public DenseMatrix evalInto(DenseMatrix out ) {
+        if( out.rows != rows || out.cols != cols ) {
+            throw new RuntimeException("output matrix size mismatch: " + out.shape() + " should be " + rows + " * " + cols );
+        }
+        final int numElements = rows * cols;
+        if( !Parallel.isParallel(numElements) ) {
+            evalRange(0, numElements, out.values);
+            return out;
+        }
+        // each chunk is a whole number of blocks, with its own scratch
+        final double[] outValues = out.values;
+        Parallel.forEach(Parallel.numChunks(numElements), new Parallel.Body() {
+            public void run(int chunk ) {
+                int start = chunk * Parallel.CHUNK_SIZE;
+                evalRange(start, Math.min(numElements, start + Parallel.CHUNK_SIZE), outValues);
+            }
+        });
+        return out;
+    }
+    void evalRange(int start, int end, double[] outValues ) {
+        double[][] scratch = new double[depth + 1][Math.min(BLOCK_SIZE, end - start)];
+        double[] block = scratch[depth];
+        for( int blockStart = start; blockStart < end; blockStart += BLOCK_SIZE ) {
+            int length = Math.min(BLOCK_SIZE, end - blockStart);
+            evalBlock(blockStart, length, block, scratch, 0);
+            System.arraycopy(block, 0, outValues, blockStart, length);
+        }
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    void checkSameSize(LazyMatrix second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+    }
+
+    public LazyMatrix neg() {
+        return new Unary(this, NEG, 0);
+    }
+    public LazyMatrix recpr() {
+        return new Unary(this, RECPR, 0);
+    }
+    public LazyMatrix abs() {
+        return new Unary(this, ABS, 0);
+    }
+    public LazyMatrix sqrt() {
+        return new Unary(this, SQRT, 0);
+    }
+    public LazyMatrix exp() {
+        return new Unary(this, EXP, 0);
+    }
+    public LazyMatrix log() {
+        return new Unary(this, LOG, 0);
+    }
+    public LazyMatrix pow(double power ) {
+        return new Unary(this, POW, power);
+    }
+    public LazyMatrix add(double scalar ) {
+        return new Unary(this, ADD, scalar);
+    }
+    public LazyMatrix sub(double scalar ) {
+        return new Unary(this, SUB, scalar);
+    }
+    /**
+     * for each element: scalar - element
+     */
+    public LazyMatrix rsub(double scalar ) {
+        return new Unary(this, RSUB, scalar);
+    }
+    public LazyMatrix mul(double scalar ) {
+        return new Unary(this, MUL, scalar);
+    }
+    public LazyMatrix div(double scalar ) {
+        return new Unary(this, DIV, scalar);
+    }
+    /**
+     * for each element: scalar / element
+     */
+    public LazyMatrix rdiv(double scalar ) {
+        return new Unary(this, RDIV, scalar);
+    }
+    public LazyMatrix max(double scalar ) {
+        return new Unary(this, MAX, scalar);
+    }
+    public LazyMatrix min(double scalar ) {
+        return new Unary(this, MIN, scalar);
+    }
+    public LazyMatrix add(LazyMatrix second ) {
+        return new Binary(this, ADD, second);
+    }
+    public LazyMatrix sub(LazyMatrix second ) {
+        return new Binary(this, SUB, second);
+    }
+    /**
+     * per-element multiplication
+     */
+    public LazyMatrix mul(LazyMatrix second ) {
+        return new Binary(this, MUL, second);
+    }
+    /**
+     * per-element division
+     */
+    public LazyMatrix div(LazyMatrix second ) {
+        return new Binary(this, DIV, second);
+    }
+    public LazyMatrix max(LazyMatrix second ) {
+        return new Binary(this, MAX, second);
+    }
+    public LazyMatrix min(LazyMatrix second ) {
+        return new Binary(this, MIN, second);
+    }
+    public LazyMatrix add(DenseMatrix second ) {
+        return add(of(second));
+    }
+    public LazyMatrix sub(DenseMatrix second ) {
+        return sub(of(second));
+    }
+    public LazyMatrix mul(DenseMatrix second ) {
+        return mul(of(second));
+    }
+    public LazyMatrix div(DenseMatrix second ) {
+        return div(of(second));
+    }
+    public LazyMatrix max(DenseMatrix second ) {
+        return max(of(second));
+    }
+    public LazyMatrix min(DenseMatrix second ) {
+        return min(of(second));
+    }
+
+    // not per-element, so these evaluate the expression, then run eagerly
+    public DenseMatrix mmul(DenseMatrix second ) {
+        return eval().mmul(second);
+    }
+    public DenseMatrix t() {
+        return eval().t();
+    }
+    public DenseMatrix sum() {
+        return eval().sum();
+    }
+    public DenseMatrix sumOverRows() {
+        return eval().sumOverRows();
+    }
+    public DenseMatrix sumOverCols() {
+        return eval().sumOverCols();
+    }
+    public String toString() {
+        return "LazyMatrix, " + rows + " * " + cols + ", not evaluated";
+    }
+
+    static final class Leaf extends LazyMatrix {
+        final DenseMatrix matrix;
+        Leaf(DenseMatrix matrix ) {
+            super(matrix.rows, matrix.cols, 0);
+            this.matrix = matrix;
+        }
+        @Override
+        void evalBlock(int start, int length, double[] out, double[][] scratch, int level ) {
+            System.arraycopy(matrix.values, start, out, 0, length);
+        }
+    }
+
+    static final class Unary extends LazyMatrix {
+        final LazyMatrix input;
+        final int op;
+        final double scalar;
+        Unary(LazyMatrix input, int op, double scalar ) {
+            super(input.rows, input.cols, input.depth);
+            this.input = input;
+            this.op = op;
+            this.scalar = scalar;
+        }
+        @Override
+        void evalBlock(int start, int length, double[] out, double[][] scratch, int level ) {
+            input.evalBlock(start, length, out, scratch, level);
+            double s = scalar;
+            // one loop per op, so each loop is simple enough for the jit to vectorize
+            switch( op ) {
+                case NEG: for( int i = 0; i < length; i++ ) { out[i] = - out[i]; } break;
+                case RECPR: for( int i = 0; i < length; i++ ) { out[i] = 1 / out[i]; } break;
+                case ABS: for( int i = 0; i < length; i++ ) { out[i] = Math.abs(out[i]); } break;
+                case SQRT: for( int i = 0; i < length; i++ ) { out[i] = Math.sqrt(out[i]); } break;
+                case EXP: for( int i = 0; i < length; i++ ) { out[i] = Math.exp(out[i]); } break;
+                case LOG: for( int i = 0; i < length; i++ ) { out[i] = Math.log(out[i]); } break;
+                case POW: for( int i = 0; i < length; i++ ) { out[i] = Math.pow(out[i], s); } break;
+                case ADD: for( int i = 0; i < length; i++ ) { out[i] = out[i] + s; } break;
+                case SUB: for( int i = 0; i < length; i++ ) { out[i] = out[i] - s; } break;
+                case RSUB: for( int i = 0; i < length; i++ ) { out[i] = s - out[i]; } break;
+                case MUL: for( int i = 0; i < length; i++ ) { out[i] = out[i] * s; } break;
+                case DIV: for( int i = 0; i < length; i++ ) { out[i] = out[i] / s; } break;
+                case RDIV: for( int i = 0; i < length; i++ ) { out[i] = s / out[i]; } break;
+                case MAX: for( int i = 0; i < length; i++ ) { out[i] = out[i] < s ? s : out[i]; } break;
+                case MIN: for( int i = 0; i < length; i++ ) { out[i] = out[i] > s ? s : out[i]; } break;
+                default: throw new RuntimeException("unknown op " + op);
+            }
+        }
+    }
+
+    static final class Binary extends LazyMatrix {
+        final LazyMatrix first;
+        final int op;
+        final LazyMatrix second;
+        Binary(LazyMatrix first, int op, LazyMatrix second ) {
+            super(first.rows, first.cols, Math.max(first.depth, second.depth + 1));
+            first.checkSameSize(second);
+            this.first = first;
+            this.op = op;
+            this.second = second;
+        }
+        @Override
+        void evalBlock(int start, int length, double[] out, double[][] scratch, int level ) {
+            first.evalBlock(start, length, out, scratch, level);
+            double[] b;
+            if( second instanceof Leaf ) {
+                // read the matrix directly, no need to copy it into scratch
+                b = ((Leaf)second).matrix.values;
+                applyBinary(op, out, b, start, length);
+            } else {
+                b = scratch[level];
+                second.evalBlock(start, length, b, scratch, level + 1);
+                applyBinary(op, out, b, 0, length);
+            }
+        }
+        static void applyBinary(int op, double[] out, double[] b, int offset, int length ) {
+            switch( op ) {
+                case ADD: for( int i = 0; i < length; i++ ) { out[i] = out[i] + b[offset + i]; } break;
+                case SUB: for( int i = 0; i < length; i++ ) { out[i] = out[i] - b[offset + i]; } break;
+                case MUL: for( int i = 0; i < length; i++ ) { out[i] = out[i] * b[offset + i]; } break;
+                case DIV: for( int i = 0; i < length; i++ ) { out[i] = out[i] / b[offset + i]; } break;
+                case MAX: for( int i = 0; i < length; i++ ) { out[i] = out[i] < b[offset + i] ? b[offset + i] : out[i]; } break;
+                case MIN: for( int i = 0; i < length; i++ ) { out[i] = out[i] > b[offset + i] ? b[offset + i] : out[i]; } break;
+                default: throw new RuntimeException("unknown op " + op);
+            }
+        }
+    }
+}
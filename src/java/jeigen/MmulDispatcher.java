@@ -0,0 +1,253 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Decides whether DenseMatrix.mmul runs in java, or in Eigen.
+ *
+ * For small matrices, the cost of the jna call is more than the cost of the
+ * multiplication itself, so a plain java loop is faster.  For large matrices,
+ * Eigen is much faster.  Products with fewer than 'threshold' multiply-adds,
+ * ie rows * middle * cols, run in java, the others in Eigen.
+ *
+ * The threshold comes from, in order:
+ * - Jeigen.setMmulThreshold, if called
+ * - the system property jeigen.mmul.threshold, if set
+ * - the profile file ~/.jeigen/calibration.properties, if it was written
+ *   on this same os, cpu count and jvm
+ * - otherwise a short benchmark, run the first time mmul is called, whose
+ *   result is then written to the profile file
+ * Setting the system property jeigen.mmul.calibrate to false skips the benchmark,
+ * and uses DEFAULT_THRESHOLD.
+ */
+final class MmulDispatcher {
+    static final long DEFAULT_THRESHOLD = 16 * 16 * 16;
+    static final String THRESHOLD_PROPERTY = "jeigen.mmul.threshold";
+    static final String CALIBRATE_PROPERTY = "jeigen.mmul.calibrate";
+    static final String PROFILE_FILE_PROPERTY = "jeigen.calibration.file";
+    static final int[] CALIBRATION_SIZES = new int[]{ 4, 6, 8, 12, 16, 24, 32, 48, 64 };
+
+    static volatile long threshold = -1;
+
+    static boolean useJava(int rows, int middle, int cols ) {
+        return (long)rows * middle * cols < getThreshold();
+    }
+    static long getThreshold() {
+        long result = threshold;
+        if( result < 0 ) {
+            synchronized( MmulDispatcher.class ) {
+                if( threshold < 0 ) {
+                    threshold = loadThreshold();
+                }
+                result = threshold;
+            }
+        }
+        return result;
+    }
+    static void setThreshold(long newThreshold ) {
+        threshold = newThreshold;
+    }
+    static long loadThreshold() {
+        String fromProperty = System.getProperty(THRESHOLD_PROPERTY);
+        if( fromProperty != null ) {
+            return Long.parseLong(fromProperty.trim());
+        }
+        if( "false".equals(System.getProperty(CALIBRATE_PROPERTY)) ) {
+            return DEFAULT_THRESHOLD;
+        }
+        File profileFile = getProfileFile();
+        Properties profile = new Properties();
+        String profileKey = getProfileKey();
+        try {
+            if( profileFile.exists() ) {
+                InputStream inputStream = new FileInputStream(profileFile);
+                try {
+                    profile.load(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+                String cached = profile.getProperty(profileKey);
+                if( cached != null ) {
+                    return Long.parseLong(cached.trim());
+                }
+            }
+        } catch( Exception e ) {
+            // unreadable profile, just recalibrate
+        }
+        long calibrated = calibrate();
+        try {
+            profile.setProperty(profileKey, "" + calibrated);
+            writeProfile(profile, profileFile);
+        } catch( IOException e ) {
+            // caching is best-effort; we'll calibrate again next time
+        }
+        return calibrated;
+    }
+    /**
+     * writes profile to a temporary file, then renames it to profileFile, so
+     * that other processes never read a half-written profile
+     */
+    static void writeProfile(Properties profile, File profileFile ) throws IOException {
+        File directory = profileFile.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        File temp = File.createTempFile(profileFile.getName(), ".tmp", directory);
+        try {
+            OutputStream outputStream = new FileOutputStream(temp);
+            try {
+                profile.store(outputStream, "jeigen mmul thresholds, in multiply-adds, per os/cpu/jvm");
+            } finally {
+                outputStream.close();
+            }
+            if( !temp.renameTo(profileFile) ) {
+                // windows wont rename over an existing file
+                profileFile.delete();
+                if( !temp.renameTo(profileFile) ) {
+                    throw new IOException("could not rename " + temp + " to " + profileFile );
+                }
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+    static File getProfileFile() {
+        String path = System.getProperty(PROFILE_FILE_PROPERTY);
+        if( path != null ) {
+            return new File(path);
+        }
+        return new File(System.getProperty("user.home") + File.separator + ".jeigen"
+            + File.separator + "calibration.properties");
+    }
+    static String getProfileKey() {
+        String key = "mmul." + System.getProperty("os.name") + "." + System.getProperty("os.arch")
+            + ".cpus" + Runtime.getRuntime().availableProcessors()
+            + "." + System.getProperty("java.vm.name") + "." + System.getProperty("java.version");
+        return key.replace(' ', '_');
+    }
+    /**
+     * times java and Eigen on small square products.  Returns the size, in
+     * multiply-adds, from which Eigen is faster for that size and all larger
+     * sizes tried
+     */
+    static long calibrate() {
+        int numSizes = CALIBRATION_SIZES.length;
+        boolean[] nativeFaster = new boolean[numSizes];
+        for( int i = 0; i < numSizes; i++ ) {
+            int n = CALIBRATION_SIZES[i];
+            double[] a = new double[n * n];
+            double[] b = new double[n * n];
+            double[] result = new double[n * n];
+            Random random = new Random(n);
+            for( int j = 0; j < n * n; j++ ) {
+                a[j] = random.nextDouble();
+                b[j] = random.nextDouble();
+            }
+            // run each a few times first, so the jit has compiled the java loop
+            timeMmul(false, n, a, b, result, 200);
+            timeMmul(true, n, a, b, result, 200);
+            int reps = Math.max(1, 200000 / (n * n * n));
+            long javaNanos = Long.MAX_VALUE;
+            long nativeNanos = Long.MAX_VALUE;
+            for( int trial = 0; trial < 3; trial++ ) {
+                javaNanos = Math.min(javaNanos, timeMmul(false, n, a, b, result, reps));
+                nativeNanos = Math.min(nativeNanos, timeMmul(true, n, a, b, result, reps));
+            }
+            nativeFaster[i] = nativeNanos < javaNanos;
+        }
+        return thresholdFor(nativeFaster);
+    }
+    /**
+     * nativeFaster[i] says whether Eigen was faster for CALIBRATION_SIZES[i].
+     * Returns the threshold from which Eigen is faster for that size and all
+     * larger sizes
+     */
+    static long thresholdFor(boolean[] nativeFaster ) {
+        int numSizes = nativeFaster.length;
+        int firstNative = numSizes;
+        while( firstNative > 0 && nativeFaster[firstNative - 1] ) {
+            firstNative--;
+        }
+        if( firstNative == 0 ) {
+            return 0;
+        }
+        if( firstNative == numSizes ) {
+            // java was faster even at the largest size tried: send up to that
+            // size to java, and anything larger, which we didnt measure, to Eigen
+            int n = CALIBRATION_SIZES[numSizes - 1];
+            return (long)n * n * n + 1;
+        }
+        int n = CALIBRATION_SIZES[firstNative];
+        return (long)n * n * n;
+    }
+    static long timeMmul(boolean useNative, int n, double[] a, double[] b, double[] result, int reps ) {
+        long start = System.nanoTime();
+        for( int i = 0; i < reps; i++ ) {
+            if( useNative ) {
+                JeigenNative.dense_multiply(n, n, n, a, b, result);
+            } else {
+                mmulJava(n, n, n, a, b, result);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+    /**
+     * result = first * second, all column-major
+     */
+    static void mmulJava(int rows, int middle, int cols, double[] first, double[] second, double[] result ) {
+        int numResult = rows * cols;
+        for( int i = 0; i < numResult; i++ ) {
+            result[i] = 0;
+        }
+        mmulAddJava(rows, middle, cols, 1, first, second, result);
+    }
+    /**
+     * result += alpha * first * second, all column-major.  Walks down
+     * columns only, so the inner loop is a unit-stride axpy
+     */
+    static void mmulAddJava(int rows, int middle, int cols, double alpha, double[] first, double[] second, double[] result ) {
+        mmulAddJava(rows, middle, cols, alpha, first, 0, rows, second, 0, middle, result, 0, rows);
+    }
+    /**
+     * as mmulAddJava, but each matrix is a block of a larger column-major
+     * array, eg element (r,c) of first is first[firstStart + c * firstStride + r]
+     */
+    static void mmulAddJava(int rows, int middle, int cols, double alpha,
+            double[] first, int firstStart, int firstStride,
+            double[] second, int secondStart, int secondStride,
+            double[] result, int resultStart, int resultStride ) {
+        for( int c = 0; c < cols; c++ ) {
+            int resultoffset = resultStart + c * resultStride;
+            for( int k = 0; k < middle; k++ ) {
+                double s = alpha * second[secondStart + c * secondStride + k];
+                int firstoffset = firstStart + k * firstStride;
+                for( int r = 0; r < rows; r++ ) {
+                    result[resultoffset + r] += first[firstoffset + r] * s;
+                }
+            }
+        }
+    }
+    /**
+     * result = first * second, in single precision, all column-major
+     */
+    static void mmulJava(int rows, int middle, int cols, float[] first, float[] second, float[] result ) {
+        for( int c = 0; c < cols; c++ ) {
+            int resultoffset = c * rows;
+            for( int r = 0; r < rows; r++ ) {
+                result[resultoffset + r] = 0;
+            }
+            for( int k = 0; k < middle; k++ ) {
+                float s = second[c * middle + k];
+                int firstoffset = k * rows;
+                for( int r = 0; r < rows; r++ ) {
+                    result[resultoffset + r] += first[firstoffset + r] * s;
+                }
+            }
+        }
+    }
+}
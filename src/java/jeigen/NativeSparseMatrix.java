@@ -0,0 +1,252 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A sparse matrix that lives in the native Eigen layer, as an Eigen SparseMatrix.
+ *
+ * SparseMatrixLil.mmul uploads its operands, and frees them again, on every call.
+ * If the same sparse matrix is multiplied many times, it is faster to upload it
+ * once, as a NativeSparseMatrix, and reuse it.
+ *
+ * Results of sparse-sparse multiplications stay in the native layer, until
+ * toLil() or toDense() is called.
+ *
+ * The native memory is only released by close(), so please call it, eg using
+ * try-with-resources.  close waits for any native calls that are running on
+ * the matrix, eg from other threads.
+ */
+public class NativeSparseMatrix implements AutoCloseable {
+    // ops for sparse_cwise_op
+    static final int CWISE_ADD = 0;
+    static final int CWISE_SUB = 1;
+    static final int CWISE_MUL = 2; // cwiseProduct
+
+    /**
+     * Number of rows
+     */
+    public final int rows;
+    /**
+     * Number of columns
+     */
+    public final int cols;
+    int handle;
+    volatile boolean closed = false;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // native calls hold the read lock, close the write lock
+
+    /**
+     * uploads source into the native layer
+     */
+    public NativeSparseMatrix(SparseMatrixLil source ) {
+        this.rows = source.rows;
+        this.cols = source.cols;
+        this.handle = SparseMatrixLil.allocateSparseMatrix(source);
+    }
+    /**
+     * uploads source into the native layer
+     */
+    public NativeSparseMatrix(SparseMatrixCCS source ) {
+        this.rows = source.rows;
+        this.cols = source.cols;
+        this.handle = SparseMatrixCCS.allocateSparseMatrix(source);
+    }
+    /**
+     * wraps an existing native handle; we take ownership of the handle
+     */
+    NativeSparseMatrix(int rows, int cols, int handle ) {
+        this.rows = rows;
+        this.cols = cols;
+        this.handle = handle;
+    }
+    final int getHandle() {
+        if( closed ) {
+            throw new RuntimeException("NativeSparseMatrix has already been closed");
+        }
+        return handle;
+    }
+    /**
+     * read-locks one and two, lowest handle first, so that two threads
+     * locking the same pair, while a third closes one of them, cant deadlock.
+     * Pair with unlock(one, two)
+     */
+    static void lock(NativeSparseMatrix one, NativeSparseMatrix two ) {
+        if( one.handle > two.handle ) {
+            NativeSparseMatrix swap = one;
+            one = two;
+            two = swap;
+        }
+        one.lock.readLock().lock();
+        two.lock.readLock().lock();
+    }
+    static void unlock(NativeSparseMatrix one, NativeSparseMatrix two ) {
+        one.lock.readLock().unlock();
+        two.lock.readLock().unlock();
+    }
+    /**
+     * returns number of non-zero entries
+     */
+    public int nonZeros() {
+        int[] stats = new int[3];
+        lock.readLock().lock();
+        try {
+            JeigenNative.getSparseMatrixStats(getHandle(), stats);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return stats[2];
+    }
+    /**
+     * matrix multiplication of this by second.  The result stays in the native layer
+     */
+    public NativeSparseMatrix mmul( NativeSparseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        int resulthandle;
+        lock(this, second);
+        try {
+            resulthandle = Jeigen.checkHandle(JeigenNative.sparse_multiply(rows, cols, second.cols, getHandle(), second.getHandle()));
+        } finally {
+            unlock(this, second);
+        }
+        return new NativeSparseMatrix(rows, second.cols, resulthandle);
+    }
+    /**
+     * matrix multiplication of this by second.  second is uploaded for the
+     * duration of the call only.  The result stays in the native layer
+     */
+    public NativeSparseMatrix mmul( SparseMatrixLil second ) {
+        NativeSparseMatrix nativeSecond = new NativeSparseMatrix(second);
+        try {
+            return mmul(nativeSecond);
+        } finally {
+            nativeSecond.close();
+        }
+    }
+    /**
+     * per-element sum, computed by Eigen.  The result stays in the native
+     * layer.  Entries that sum to zero are dropped, as by SparseMatrixLil.add
+     */
+    public NativeSparseMatrix add( NativeSparseMatrix second ) {
+        return cwiseOp(CWISE_ADD, second);
+    }
+    public NativeSparseMatrix sub( NativeSparseMatrix second ) {
+        return cwiseOp(CWISE_SUB, second);
+    }
+    /**
+     * per-element multiplication, ie Eigen's cwiseProduct.  The result stays
+     * in the native layer
+     */
+    public NativeSparseMatrix mul( NativeSparseMatrix second ) {
+        return cwiseOp(CWISE_MUL, second);
+    }
+    NativeSparseMatrix cwiseOp( int op, NativeSparseMatrix second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+        int result;
+        lock(this, second);
+        try {
+            result = JeigenNative.sparse_cwise_op(op, rows, cols, getHandle(), second.getHandle());
+        } finally {
+            unlock(this, second);
+        }
+        if( result == -2 ) {
+            throw new RuntimeException("unknown sparse per-element op " + op);
+        }
+        int resulthandle = Jeigen.checkHandle(result);
+        return new NativeSparseMatrix(rows, cols, resulthandle);
+    }
+    /**
+     * matrix multiplication of this by second
+     */
+    public DenseMatrix mmul( DenseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Allocates nothing.  Returns out
+     */
+    public DenseMatrix mmulInto( DenseMatrix second, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        DenseMatrix.checkOutput(out, this.rows, second.cols, second);
+        lock.readLock().lock();
+        try {
+            JeigenNative.sparse_dense_multiply(rows, cols, second.cols,
+                    getHandle(), second.values, out.values );
+        } finally {
+            lock.readLock().unlock();
+        }
+        return out;
+    }
+    /**
+     * downloads this matrix from the native layer.  Entries are returned
+     * sorted by column, then by row
+     */
+    public SparseMatrixLil toLil() {
+        lock.readLock().lock();
+        try {
+            return SparseMatrixLil.getSparseMatrixFromHandle(getHandle());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * downloads this matrix from the native layer, in compressed column format
+     */
+    public SparseMatrixCCS toCCS() {
+        lock.readLock().lock();
+        try {
+            return SparseMatrixCCS.getSparseMatrixFromHandle(getHandle());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    /**
+     * downloads this matrix from the native layer, as a dense matrix
+     */
+    public DenseMatrix toDense() {
+        return toLil().toDense();
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    public boolean isClosed() {
+        return closed;
+    }
+    /**
+     * frees the native matrix, once any running native calls finish.  Calling
+     * close more than once is harmless
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if( !closed ) {
+                closed = true;
+                if( JeigenNative.freeSparseMatrix(handle) != 0 ) {
+                    throw new RuntimeException("native handle " + handle + " was not live");
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    public String toString() {
+        if( closed ) {
+            return "NativeSparseMatrix, " + rows + " * " + cols + ", closed";
+        }
+        return "NativeSparseMatrix, " + rows + " * " + cols + ", nonzeros = " + nonZeros();
+    }
+}
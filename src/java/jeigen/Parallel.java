@@ -0,0 +1,298 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the Kernels for large DenseMatrix operations on several java threads,
+ * using a ForkJoinPool.
+ *
+ * The values are split into chunks of CHUNK_SIZE elements, whatever the
+ * number of threads, and each chunk is one task.  Reductions combine the
+ * results of the chunks in chunk order, and do the same when running on one
+ * thread, so results dont depend on the number of threads, or on whether
+ * the operation ran in parallel at all.
+ *
+ * Operations on fewer than 'threshold' elements run on the calling thread.
+ * The threshold and number of threads come from Jeigen.setParallelThreshold
+ * and Jeigen.setParallelThreads, or else the system properties
+ * jeigen.parallel.threshold and jeigen.parallel.threads.
+ */
+final class Parallel {
+    static final int CHUNK_SIZE = 1 << 15; // 256KB of doubles, so a chunk stays in the l2 cache
+    static final int MIN_GROUP = 16; // columns
+    static final long DEFAULT_THRESHOLD = 1 << 18;
+    static final String THRESHOLD_PROPERTY = "jeigen.parallel.threshold";
+    static final String THREADS_PROPERTY = "jeigen.parallel.threads";
+
+    static volatile long threshold = Long.parseLong(System.getProperty(THRESHOLD_PROPERTY, "" + DEFAULT_THRESHOLD).trim());
+    static int numThreads = defaultNumThreads();
+    static ForkJoinPool pool; // created on first use
+
+    static int defaultNumThreads() {
+        String fromProperty = System.getProperty(THREADS_PROPERTY);
+        if( fromProperty != null && Integer.parseInt(fromProperty.trim()) > 0 ) {
+            return Integer.parseInt(fromProperty.trim());
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+    /**
+     * the next getPool() creates a pool with the new number of threads.  The
+     * old pool is not shut down, since another thread may be about to invoke
+     * it: it finishes whatever it was given, then its idle worker threads,
+     * which are daemons, time out, and it is garbage collected
+     */
+    static synchronized void setNumThreads(int newNumThreads ) {
+        newNumThreads = newNumThreads == 0 ? defaultNumThreads() : newNumThreads;
+        if( newNumThreads != numThreads ) {
+            pool = null;
+        }
+        numThreads = newNumThreads;
+    }
+    static synchronized int getNumThreads() {
+        return numThreads;
+    }
+    static synchronized ForkJoinPool getPool() {
+        if( pool == null ) {
+            pool = new ForkJoinPool(numThreads);
+        }
+        return pool;
+    }
+    /**
+     * true if an operation on numElements values should run in parallel
+     */
+    static boolean isParallel(long numElements ) {
+        return numElements >= threshold && numElements > CHUNK_SIZE && getNumThreads() > 1;
+    }
+    static int numChunks(int numElements ) {
+        return ( numElements + CHUNK_SIZE - 1 ) / CHUNK_SIZE;
+    }
+
+    /**
+     * one unit of work, eg one chunk of an array
+     */
+    interface Body {
+        void run(int index );
+    }
+    /**
+     * runs body.run(index) for index from start to end - 1, splitting the
+     * range in half until each task has one index
+     */
+    static final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Body body;
+        final int start;
+        final int end;
+        RangeTask(Body body, int start, int end ) {
+            this.body = body;
+            this.start = start;
+            this.end = end;
+        }
+        @Override
+        protected void compute() {
+            if( end - start == 1 ) {
+                body.run(start);
+                return;
+            }
+            int middle = ( start + end ) >>> 1;
+            invokeAll(new RangeTask(body, start, middle), new RangeTask(body, middle, end));
+        }
+    }
+    /**
+     * runs body for each index from 0 to count - 1, on the pool, and waits
+     */
+    static void forEach(int count, Body body ) {
+        if( count == 1 ) {
+            body.run(0);
+            return;
+        }
+        if( count > 1 ) {
+            getPool().invoke(new RangeTask(body, 0, count));
+        }
+    }
+
+    /**
+     * out[i] = op a[i], for i from 0 to n - 1
+     */
+    static void unary(final int op, final double[] a, final double[] out, final int n ) {
+        if( !isParallel(n) ) {
+            Kernels.instance.unary(op, a, out, 0, n);
+            return;
+        }
+        forEach(numChunks(n), new Body() {
+            public void run(int chunk ) {
+                int start = chunk * CHUNK_SIZE;
+                Kernels.instance.unary(op, a, out, start, Math.min(n, start + CHUNK_SIZE));
+            }
+        });
+    }
+    /**
+     * out[i] = a[i] op b[i], for i from 0 to n - 1
+     */
+    static void binary(final int op, final double[] a, final double[] b, final double[] out, final int n ) {
+        if( !isParallel(n) ) {
+            Kernels.instance.binary(op, a, b, out, 0, n);
+            return;
+        }
+        forEach(numChunks(n), new Body() {
+            public void run(int chunk ) {
+                int start = chunk * CHUNK_SIZE;
+                Kernels.instance.binary(op, a, b, out, start, Math.min(n, start + CHUNK_SIZE));
+            }
+        });
+    }
+    /**
+     * out[i] = a[i] op s, for i from 0 to n - 1
+     */
+    static void scalar(final int op, final double[] a, final double s, final double[] out, final int n ) {
+        if( !isParallel(n) ) {
+            Kernels.instance.scalar(op, a, s, out, 0, n);
+            return;
+        }
+        forEach(numChunks(n), new Body() {
+            public void run(int chunk ) {
+                int start = chunk * CHUNK_SIZE;
+                Kernels.instance.scalar(op, a, s, out, start, Math.min(n, start + CHUNK_SIZE));
+            }
+        });
+    }
+
+    static double combine(int op, double first, double second ) {
+        switch( op ) {
+            case Kernels.ADD: return first + second;
+            case Kernels.MAX: return Math.max(first, second);
+            case Kernels.MIN: return Math.min(first, second);
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * out[c] = sum, max or min of column c of the rows * cols column-major
+     * values.  Each column is reduced one chunk at a time, and the chunks
+     * combined in order, in parallel or not
+     */
+    static void reduceOverRows(final int op, final double[] values, final int rows, int cols, double[] out ) {
+        final int chunksPerCol = Math.max(1, numChunks(rows));
+        if( !isParallel((long)rows * cols) ) {
+            for( int c = 0; c < cols; c++ ) {
+                out[c] = reduceColumn(op, values, rows, c, chunksPerCol, null);
+            }
+            return;
+        }
+        // reduce each chunk into partials, in parallel, grouping the chunks of
+        // short columns so each task still has about CHUNK_SIZE values
+        final double[] partials = new double[cols * chunksPerCol];
+        final int chunksPerTask = Math.max(1, CHUNK_SIZE / Math.max(1, Math.min(rows, CHUNK_SIZE)));
+        final int numChunks = partials.length;
+        forEach(( numChunks + chunksPerTask - 1 ) / chunksPerTask, new Body() {
+            public void run(int task ) {
+                int end = Math.min(numChunks, ( task + 1 ) * chunksPerTask);
+                for( int chunk = task * chunksPerTask; chunk < end; chunk++ ) {
+                    int c = chunk / chunksPerCol;
+                    int start = c * rows + ( chunk % chunksPerCol ) * CHUNK_SIZE;
+                    partials[chunk] = Kernels.instance.reduce(op, values, start, Math.min(( c + 1 ) * rows, start + CHUNK_SIZE));
+                }
+            }
+        });
+        for( int c = 0; c < cols; c++ ) {
+            out[c] = reduceColumn(op, values, rows, c, chunksPerCol, partials);
+        }
+    }
+    /**
+     * combines the chunks of column c, in order, reducing each chunk first,
+     * unless partials already holds them
+     */
+    static double reduceColumn(int op, double[] values, int rows, int c, int chunksPerCol, double[] partials ) {
+        double result = 0;
+        for( int k = 0; k < chunksPerCol; k++ ) {
+            double partial;
+            if( partials != null ) {
+                partial = partials[c * chunksPerCol + k];
+            } else {
+                int start = c * rows + k * CHUNK_SIZE;
+                partial = Kernels.instance.reduce(op, values, start, Math.min(( c + 1 ) * rows, start + CHUNK_SIZE));
+            }
+            result = k == 0 ? partial : combine(op, result, partial);
+        }
+        return result;
+    }
+    static double identity(int op ) {
+        switch( op ) {
+            case Kernels.ADD: return 0;
+            case Kernels.MAX: return Double.NEGATIVE_INFINITY;
+            case Kernels.MIN: return Double.POSITIVE_INFINITY;
+            default: throw new RuntimeException("unknown op " + op);
+        }
+    }
+    /**
+     * out[r] = sum, max or min of row r of the rows * cols column-major
+     * values.  Long columns are split between the tasks by rows, so each value
+     * of out is calculated in column order.  Short columns are combined in
+     * groups of at least MIN_GROUP columns, and then the groups in order
+     */
+    static void reduceOverCols(final int op, final double[] values, final int rows, final int cols, double[] out ) {
+        if( rows == 1 ) {
+            // a single row is contiguous, so reduce it like a column
+            reduceOverRows(op, values, cols, 1, out);
+            return;
+        }
+        Arrays.fill(out, 0, rows, identity(op));
+        boolean parallel = isParallel((long)rows * cols);
+        if( rows >= CHUNK_SIZE ) {
+            accumulateColumns(op, values, rows, 0, cols, out, 0, parallel);
+            return;
+        }
+        final int colsPerGroup = Math.max(MIN_GROUP, CHUNK_SIZE / Math.max(1, rows));
+        final int numGroups = ( cols + colsPerGroup - 1 ) / colsPerGroup;
+        if( numGroups == 1 ) {
+            accumulateColumns(op, values, rows, 0, cols, out, 0, false);
+            return;
+        }
+        final double[] partials = new double[numGroups * rows];
+        Arrays.fill(partials, identity(op));
+        Body body = new Body() {
+            public void run(int group ) {
+                int firstCol = group * colsPerGroup;
+                accumulateColumns(op, values, rows, firstCol, Math.min(cols, firstCol + colsPerGroup), partials, group * rows, false);
+            }
+        };
+        if( parallel ) {
+            forEach(numGroups, body);
+        } else {
+            for( int group = 0; group < numGroups; group++ ) {
+                body.run(group);
+            }
+        }
+        accumulateColumns(op, partials, rows, 0, numGroups, out, 0, false);
+    }
+    /**
+     * out[outStart + r] = out[outStart + r] op values[r, c], for each column c
+     * from firstCol to endCol - 1, in order.  In parallel, rows are split
+     * between the tasks
+     */
+    static void accumulateColumns(final int op, final double[] values, final int rows, final int firstCol, final int endCol,
+            final double[] out, final int outStart, boolean parallel ) {
+        if( !parallel ) {
+            for( int c = firstCol; c < endCol; c++ ) {
+                Kernels.instance.accumulate(op, out, outStart, values, c * rows, rows);
+            }
+            return;
+        }
+        forEach(numChunks(rows), new Body() {
+            public void run(int chunk ) {
+                int start = chunk * CHUNK_SIZE;
+                int length = Math.min(rows, start + CHUNK_SIZE) - start;
+                for( int c = firstCol; c < endCol; c++ ) {
+                    Kernels.instance.accumulate(op, out, outStart + start, values, c * rows + start, length);
+                }
+            }
+        });
+    }
+}
@@ -8,74 +8,306 @@ package jeigen;
 
 import java.util.*;
 
-/** Sparse matrix in sparse column format.  This isn't used at the moment
- * since Lil format is easier for sending to Eigen, and also for creating new matrices.
+/** Sparse matrix in compressed column format, the same layout as Eigen's
+ * compressed SparseMatrix.  Lil format is easier for creating new matrices,
+ * but this format is much faster for looking up values, and for walking columns.
+ *
+ * Storage is in primitive arrays:
+ * - outerStarts: for each column c, the entries of c are at
+ *   outerStarts[colOffset + c] to outerStarts[colOffset + c + 1] - 1
+ * - innerIndices: the row of each entry
+ * - values: the value of each entry
+ * Within each column, entries are sorted by row.
+ *
+ * Slicing by columns is O(1): the slice shares the arrays of the
+ * original matrix, so please dont modify either afterwards.
  */
 public class SparseMatrixCCS {
     public final int rows;
     public final int cols;
-    public final ArrayList<Integer> outerStarts = new ArrayList<Integer>();
-    public final ArrayList<Integer> innerIndices = new ArrayList<Integer>();
-    public final ArrayList<Double> values = new ArrayList<Double>();
+    int[] outerStarts;
+    int[] innerIndices;
+    double[] values;
+    final int colOffset; // non-zero for column slices
     public SparseMatrixCCS(int rows, int cols ) {
         this.rows = rows;
         this.cols = cols;
-        outerStarts.ensureCapacity(cols + 1);
-        for( int i = 0; i < cols + 1; i++ ) {
-            outerStarts.add(0);
+        this.colOffset = 0;
+        this.outerStarts = new int[cols + 1];
+        this.innerIndices = new int[0];
+        this.values = new double[0];
+    }
+    /**
+     * creates matrix from compressed column arrays.  The arrays are
+     * used directly, not copied.  outerStarts should have cols + 1 entries
+     */
+    public SparseMatrixCCS(int rows, int cols, int[] outerStarts, int[] innerIndices, double[] values ) {
+        this(rows, cols, 0, outerStarts, innerIndices, values);
+    }
+    SparseMatrixCCS(int rows, int cols, int colOffset, int[] outerStarts, int[] innerIndices, double[] values ) {
+        if( outerStarts.length < colOffset + cols + 1 ) {
+            throw new RuntimeException("outerStarts should have at least " + ( colOffset + cols + 1 ) + " entries, but had " + outerStarts.length );
         }
+        this.rows = rows;
+        this.cols = cols;
+        this.colOffset = colOffset;
+        this.outerStarts = outerStarts;
+        this.innerIndices = innerIndices;
+        this.values = values;
     }
     public int nonZeros() {
-        return outerStarts.get(cols);
+        return outerStarts[colOffset + cols] - outerStarts[colOffset];
     }
     public int nonZeros( int col  ){
-        return outerStarts.get(col + 1) - outerStarts.get(col);        
+        return outerStarts[colOffset + col + 1] - outerStarts[colOffset + col];
+    }
+    /**
+     * index, into getInnerIndices() and getValues(), of the first entry of column col
+     */
+    public int colStart( int col ) {
+        return outerStarts[colOffset + col];
+    }
+    /**
+     * index, into getInnerIndices() and getValues(), one past the last entry of column col
+     */
+    public int colEnd( int col ) {
+        return outerStarts[colOffset + col + 1];
+    }
+    public int getInnerIndex( int i ) {
+        return innerIndices[i];
+    }
+    public double getValue( int i ) {
+        return values[i];
+    }
+    public int[] getOuterStarts() { // note: this returns a ref to the underlying outer starts, use colStart/colEnd for slices
+        return outerStarts;
+    }
+    public int[] getInnerIndices() { // note: this returns a ref to the underlying inner indices
+        return innerIndices;
+    }
+    public double[] getValues() { // note: this returns a ref to the underlying values
+        return values;
     }
     public void reserve(int capacity) {
-        outerStarts.ensureCapacity(cols);
-        innerIndices.ensureCapacity(capacity);
-        values.ensureCapacity(capacity);
+        if( capacity > innerIndices.length ) {
+            innerIndices = Arrays.copyOf(innerIndices, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
     }
     public DenseMatrix shape() {
-        return new DenseMatrix(new double[][]{{rows,cols}}); 
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    /**
+     * Iterates over the entries of one column, in row order, eg:
+     *
+     *    for( SparseMatrixCCS.InnerIterator it = mat.innerIterator(col); it.valid(); it.next() ) {
+     *        double v = it.value(); int row = it.row();
+     *    }
+     */
+    public final class InnerIterator {
+        final int col;
+        final int end;
+        int i;
+        InnerIterator(int col ) {
+            this.col = col;
+            this.i = colStart(col);
+            this.end = colEnd(col);
+        }
+        public boolean valid() {
+            return i < end;
+        }
+        public void next() {
+            i++;
+        }
+        public int row() {
+            return innerIndices[i];
+        }
+        public int col() {
+            return col;
+        }
+        public double value() {
+            return values[i];
+        }
+        /**
+         * index of the current entry, into getInnerIndices() and getValues()
+         */
+        public int index() {
+            return i;
+        }
+    }
+    public InnerIterator innerIterator( int col ) {
+        if( col < 0 || col >= cols ) {
+            throw new RuntimeException("col must be in [0, " + cols + "), but was " + col );
+        }
+        return new InnerIterator(col);
+    }
+    /**
+     * returns column col, sharing storage with this matrix.  O(1)
+     */
+    public SparseMatrixCCS col( int col ) {
+        return cols(col, col + 1);
+    }
+    /**
+     * returns columns from startcol to (endcolexclusive-1), sharing
+     * storage with this matrix.  O(1)
+     */
+    public SparseMatrixCCS cols( int startcol, int endcolexclusive ) {
+        if( startcol < 0 ) {
+            throw new RuntimeException("startcol must be at least 0, but was  " + startcol );
+        }
+        if( endcolexclusive > cols ) {
+            throw new RuntimeException("endcol must not exceed cols " + endcolexclusive + " vs " + cols );
+        }
+        if( endcolexclusive < startcol ) {
+            throw new RuntimeException("endcol must not be less than startcol " + endcolexclusive + " vs " + startcol );
+        }
+        return new SparseMatrixCCS(rows, endcolexclusive - startcol, colOffset + startcol,
+                outerStarts, innerIndices, values);
+    }
+    /**
+     * returns a copy of this matrix, with its own arrays, trimmed to size,
+     * and with outerStarts starting at 0
+     */
+    public SparseMatrixCCS copy() {
+        int start = outerStarts[colOffset];
+        int numEntries = nonZeros();
+        int[] newOuterStarts = new int[cols + 1];
+        for( int c = 0; c <= cols; c++ ) {
+            newOuterStarts[c] = outerStarts[colOffset + c] - start;
+        }
+        int[] newInnerIndices = new int[numEntries];
+        double[] newValues = new double[numEntries];
+        System.arraycopy(innerIndices, start, newInnerIndices, 0, numEntries);
+        System.arraycopy(values, start, newValues, 0, numEntries);
+        return new SparseMatrixCCS(rows, cols, newOuterStarts, newInnerIndices, newValues);
+    }
+    /**
+     * returns transpose, in compressed column format.  This is the same as
+     * this matrix in compressed row format, ie the outerStarts of the
+     * result are the row starts of this matrix.  O(nonzeros + rows)
+     */
+    public SparseMatrixCCS t() {
+        int numEntries = nonZeros();
+        int[] rowStarts = new int[rows + 1];
+        int start = outerStarts[colOffset];
+        int end = outerStarts[colOffset + cols];
+        for( int i = start; i < end; i++ ) {
+            rowStarts[innerIndices[i] + 1]++;
+        }
+        for( int r = 0; r < rows; r++ ) {
+            rowStarts[r + 1] += rowStarts[r];
+        }
+        int[] next = Arrays.copyOf(rowStarts, rows);
+        int[] colIndices = new int[numEntries];
+        double[] newValues = new double[numEntries];
+        // walking columns in order means each row comes out sorted by column
+        for( int c = 0; c < cols; c++ ) {
+            int colend = outerStarts[colOffset + c + 1];
+            for( int i = outerStarts[colOffset + c]; i < colend; i++ ) {
+                int dest = next[innerIndices[i]]++;
+                colIndices[dest] = c;
+                newValues[dest] = values[i];
+            }
+        }
+        return new SparseMatrixCCS(cols, rows, rowStarts, colIndices, newValues);
+    }
+    /**
+     * matrix multiplication of this by second, in java, on several threads
+     * for large products.  Results are the same whatever the number of threads
+     */
+    public SparseMatrixCCS mmul( SparseMatrixCCS second ) {
+        return SparseMultiply.multiply(this, second);
+    }
+    /**
+     * converts to compressed row format, see SparseMatrixCRS
+     */
+    public SparseMatrixCRS toCRS() {
+        return new SparseMatrixCRS(this);
     }
     public SparseMatrixLil toLil(){
         SparseMatrixLil result = new SparseMatrixLil(rows, cols);
-        result.reserve(outerStarts.get(cols));
+        result.reserve(nonZeros());
+        for( int col = 0; col < cols; col++ ) {
+            int end = colEnd(col);
+            for( int i = colStart(col); i < end; i++ ) {
+                result.append(innerIndices[i], col, values[i]);
+            }
+        }
+        return result;
+    }
+    public DenseMatrix toDense() {
+        DenseMatrix result = new DenseMatrix(rows, cols);
         for( int col = 0; col < cols; col++ ) {
-              int rowStartIndex = outerStarts.get(col);
-              int rowEndIndex = outerStarts.get(col + 1) - 1;
-              int rowCapacity = rowEndIndex - rowStartIndex + 1;
-              for( int ri = 0; ri < rowCapacity; ri++ ) {
-                 int row = innerIndices.get(rowStartIndex + ri);
-                 double value = values.get(rowStartIndex + ri);
-                 result.append(row, col, value);
-              }
-          }
-          return result;
+            int end = colEnd(col);
+            int offset = rows * col;
+            for( int i = colStart(col); i < end; i++ ) {
+                result.values[offset + innerIndices[i]] = values[i];
+            }
+        }
+        return result;
+    }
+    /**
+     * converts to single precision, see FloatSparseMatrix
+     */
+    public FloatSparseMatrix toFloat() {
+        return new FloatSparseMatrix(this);
+    }
+    /**
+     * uploads this matrix to the native layer, copying the compressed
+     * column arrays directly, rather than going via triplets
+     */
+    public NativeSparseMatrix toNative() {
+        return new NativeSparseMatrix(this);
+    }
+    static int allocateSparseMatrix(SparseMatrixCCS mat ) {
+        if( mat.colOffset != 0 || mat.outerStarts[0] != 0 ) {
+            mat = mat.copy();
+        }
+        return Jeigen.checkHandle(JeigenNative.allocateSparseMatrixCCS(mat.rows, mat.cols, mat.nonZeros(),
+                mat.outerStarts, mat.innerIndices, mat.values));
+    }
+    static SparseMatrixCCS getSparseMatrixFromHandle(int handle ) {
+        int[] stats = new int[3];
+        JeigenNative.getSparseMatrixStats(handle, stats);
+        int rows = stats[0];
+        int cols = stats[1];
+        int numEntries = stats[2];
+        int[] outerStarts = new int[cols + 1];
+        int[] innerIndices = new int[numEntries];
+        double[] values = new double[numEntries];
+        JeigenNative.getSparseMatrixCCS(handle, outerStarts, innerIndices, values);
+        return new SparseMatrixCCS(rows, cols, outerStarts, innerIndices, values);
     }
     public double get(int row, int col ) {
-        int numEntries = nonZeros(col);
-        if( numEntries == 0 ) {
-            return 0;
-        }
-        int l = outerStarts.get(col);
-        int h = outerStarts.get(col+1) - 1;
-        while( l < h ) {
-            int m =  ( l + h ) / 2;
-            int ixm = innerIndices.get(m);
+        int l = colStart(col);
+        int h = colEnd(col) - 1;
+        while( l <= h ) {
+            int m = ( l + h ) >>> 1;
+            int ixm = innerIndices[m];
             if(ixm < row ) {
                 l = m + 1;
             } else if( ixm > row ) {
                 h = m - 1;
             } else {
-                l = h = m;
+                return values[m];
             }
         }
-        int ixl = innerIndices.get(l);
-        if(ixl == row ) {
-            return values.get(l);
-        }
         return 0;
     }
+    public String toString() {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("SparseMatrixCCS, " + rows + " * " + cols + ", nonzeros = " + nonZeros() + " :\n");
+        int count = 0;
+        for( int col = 0; col < cols && count < 100; col++ ) {
+            int end = colEnd(col);
+            for( int i = colStart(col); i < end && count < 100; i++ ) {
+                stringBuilder.append("( " + innerIndices[i] + ", " + col + ", " + values[i] + " )\n");
+                count++;
+            }
+        }
+        if( nonZeros() > 100 ) {
+            stringBuilder.append("...\n");
+        }
+        return stringBuilder.toString();
+    }
 }
@@ -0,0 +1,186 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+
+/** Sparse matrix in compressed row format, for multiplying the same matrix
+ * by dense vectors, or by tall thin dense matrices, many times, eg in power
+ * iteration:
+ *
+ *     SparseMatrixCRS A = sparse.toCRS(); // converts once
+ *     for( ... ) {
+ *         A.mmulInto(x, y); // y = A * x
+ *         ...
+ *     }
+ *
+ * mmul runs in java.  Each row of the result is written by one thread, so
+ * large products run on all the java threads (see Jeigen.setParallelThreads),
+ * with no locking, and give the same results whatever the number of threads.
+ * The rows are split between the threads so that each has about the same
+ * number of entries, rather than of rows, and the split is kept for the next
+ * call.
+ *
+ * Storage is the same as SparseMatrixCCS, with rows and columns swapped:
+ * the entries of row r are at rowStarts[r] to rowStarts[r + 1] - 1, with
+ * their columns in colIndices, sorted, and their values in values.
+ */
+public class SparseMatrixCRS {
+    public final int rows;
+    public final int cols;
+    final int[] rowStarts;
+    final int[] colIndices;
+    final double[] values;
+    int[] taskStarts; // rows split between threads, for the last number of threads used
+
+    /**
+     * creates matrix from compressed row arrays.  The arrays are used
+     * directly, not copied.  rowStarts should have rows + 1 entries
+     */
+    public SparseMatrixCRS(int rows, int cols, int[] rowStarts, int[] colIndices, double[] values ) {
+        if( rowStarts.length < rows + 1 ) {
+            throw new RuntimeException("rowStarts should have at least " + ( rows + 1 ) + " entries, but had " + rowStarts.length );
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.rowStarts = rowStarts;
+        this.colIndices = colIndices;
+        this.values = values;
+    }
+    public SparseMatrixCRS(SparseMatrixCCS source ) {
+        // the transpose, in compressed column format, has the same arrays
+        this(source.rows, source.cols, source.t());
+    }
+    public SparseMatrixCRS(SparseMatrixLil source ) {
+        this(source.toCCS());
+    }
+    SparseMatrixCRS(int rows, int cols, SparseMatrixCCS transpose ) {
+        this(rows, cols, transpose.outerStarts, transpose.innerIndices, transpose.values);
+    }
+    public int nonZeros() {
+        return rowStarts[rows] - rowStarts[0];
+    }
+    public int[] getRowStarts() { // note: this returns a ref to the underlying row starts
+        return rowStarts;
+    }
+    public int[] getColIndices() { // note: this returns a ref to the underlying column indices
+        return colIndices;
+    }
+    public double[] getValues() { // note: this returns a ref to the underlying values
+        return values;
+    }
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    public DenseMatrix toDense() {
+        DenseMatrix result = new DenseMatrix(rows, cols);
+        for( int r = 0; r < rows; r++ ) {
+            int end = rowStarts[r + 1];
+            for( int i = rowStarts[r]; i < end; i++ ) {
+                result.values[rows * colIndices[i] + r] = values[i];
+            }
+        }
+        return result;
+    }
+    /**
+     * returns the same matrix in compressed column format
+     */
+    public SparseMatrixCCS toCCS() {
+        // the transpose of a compressed column matrix swaps the formats
+        return new SparseMatrixCCS(cols, rows, rowStarts, colIndices, values).t();
+    }
+
+    /**
+     * matrix multiplication of this by second
+     */
+    public DenseMatrix mmul(DenseMatrix second ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     */
+    public DenseMatrix mmulInto(final DenseMatrix second, final DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        DenseMatrix.checkOutput(out, this.rows, second.cols, second);
+        int numTasks = Parallel.isParallel((long)nonZeros() * second.cols) ? Math.min(Parallel.getNumThreads(), Math.max(1, rows)) : 1;
+        final int[] starts = getTaskStarts(numTasks);
+        Parallel.forEach(numTasks, new Parallel.Body() {
+            public void run(int task ) {
+                multiplyRows(starts[task], starts[task + 1], second, out);
+            }
+        });
+        return out;
+    }
+    /**
+     * returns the first row of each of numTasks tasks, and then rows, so that
+     * each task has about the same number of entries plus rows
+     */
+    synchronized int[] getTaskStarts(int numTasks ) {
+        if( taskStarts != null && taskStarts.length == numTasks + 1 ) {
+            return taskStarts;
+        }
+        int[] starts = new int[numTasks + 1];
+        long total = (long)nonZeros() + rows;
+        int r = 0;
+        for( int task = 1; task < numTasks; task++ ) {
+            long target = total * task / numTasks;
+            while( r < rows && (long)( rowStarts[r] - rowStarts[0] ) + r < target ) {
+                r++;
+            }
+            starts[task] = r;
+        }
+        starts[numTasks] = rows;
+        taskStarts = starts;
+        return starts;
+    }
+    /**
+     * out[r, c] = row r of this . column c of second, for rows start to end - 1
+     */
+    void multiplyRows(int start, int end, DenseMatrix second, DenseMatrix out ) {
+        double[] x = second.values;
+        double[] y = out.values;
+        int numCols = second.cols;
+        int middle = second.rows;
+        if( numCols == 1 ) {
+            for( int r = start; r < end; r++ ) {
+                double sum = 0;
+                int rowEnd = rowStarts[r + 1];
+                for( int i = rowStarts[r]; i < rowEnd; i++ ) {
+                    sum += values[i] * x[colIndices[i]];
+                }
+                y[r] = sum;
+            }
+            return;
+        }
+        // one row at a time, for all the columns of second, so the row's
+        // entries are read once
+        double[] sums = new double[numCols];
+        for( int r = start; r < end; r++ ) {
+            Arrays.fill(sums, 0);
+            int rowEnd = rowStarts[r + 1];
+            for( int i = rowStarts[r]; i < rowEnd; i++ ) {
+                double value = values[i];
+                int offset = colIndices[i];
+                for( int c = 0; c < numCols; c++ ) {
+                    sums[c] += value * x[c * middle + offset];
+                }
+            }
+            for( int c = 0; c < numCols; c++ ) {
+                y[c * rows + r] = sums[c];
+            }
+        }
+    }
+    public String toString() {
+        return "SparseMatrixCRS, " + rows + " * " + cols + ", nonzeros = " + nonZeros();
+    }
+}
@@ -50,6 +50,7 @@ public class SparseMatrixLil {
     int[] rowIdx = new int[capacity];
     int[] colIdx = new int[capacity];
     double[] values = new double[capacity];
+    boolean compact = false; // true if known to be sorted, with no duplicates or zeros, see compact()
 
     /**
      * Creates matrix from valuesstring in format "12 3; 4 5"
@@ -74,6 +75,7 @@ public class SparseMatrixLil {
         for( int i = 0; i < size; i++ ) {
             target.append(source.rowIdx[i], source.colIdx[i], source.values[i]);
         }
+        target.compact = source.compact;
     }
     public int getRowIdx(int i ) {
         return rowIdx[i];
@@ -84,6 +86,8 @@ public class SparseMatrixLil {
     public double getValue(int i ) {
         return values[i];
     }
+    // note: changing the arrays returned by getRowIdxs, getColIdxs or getValues
+    // can make isCompact() wrong; call compact() again afterwards
     public int[] getRowIdxs() { // note: this returns a ref to the underlying row idxs
         return rowIdx;
     }
@@ -96,8 +100,57 @@ public class SparseMatrixLil {
     public int getSize() {
         return size;
     }
+    /**
+     * sorts entries into column-major order, ie by column, then by row.
+     * Uses sortCounting
+     */
     public void sort() {
-        sortFast();
+        sortCounting();
+    }
+    public void sortCounting() { // O(size + rows + cols), parallel for large matrices
+        SparseMatrixLilCountingSorter.sort(this);
+    }
+    /**
+     * sorts the entries, then sums duplicate entries for the same element,
+     * as Eigen does, and removes entries that are zero.  Linear time, after
+     * the sort, which is itself linear.  Does nothing if isCompact().
+     * Returns this
+     */
+    public SparseMatrixLil compact() {
+        if( compact ) {
+            return this;
+        }
+        validateEntries();
+        sort();
+        int numKept = 0;
+        int count = size; for( int i = 0; i < count; i++ ) {
+            int row = rowIdx[i]; int col = colIdx[i]; double value = values[i];
+            if( numKept > 0 && row == rowIdx[numKept - 1] && col == colIdx[numKept - 1] ) {
+                values[numKept - 1] += value;
+                continue;
+            }
+            if( numKept > 0 && values[numKept - 1] == 0 ) {
+                numKept--; // previous element summed to zero
+            }
+            rowIdx[numKept] = row;
+            colIdx[numKept] = col;
+            values[numKept] = value;
+            numKept++;
+        }
+        if( numKept > 0 && values[numKept - 1] == 0 ) {
+            numKept--;
+        }
+        size = numKept;
+        compact = true;
+        return this;
+    }
+    /**
+     * true if the entries are known to be sorted in column-major order, with
+     * at most one entry per element, and no zeros, eg after compact().
+     * Conversions to CCS and to Eigen then skip checking or sorting them
+     */
+    public boolean isCompact() {
+        return compact;
     }
     public void sortFast() { // uses more memory
         SparseMatrixLilSorter2.sort(this);        
@@ -153,12 +206,11 @@ public class SparseMatrixLil {
         SparseMatrixLil result = new SparseMatrixLil(indexes.rows, cols);
         for( int i = 0; i < indexes.rows; i++ ) {
             int index = (int)indexes.get(i,0);
-            int entries = translatedCCS.nonZeros(index);
-            int coloffset = translatedCCS.outerStarts.get(index);
-            for( int j = 0; j < entries; j++ ) {
+            int end = translatedCCS.colEnd(index);
+            for( int j = translatedCCS.colStart(index); j < end; j++ ) {
                 result.append(i, 
-                        translatedCCS.innerIndices.get(coloffset + j), 
-                        translatedCCS.values.get(coloffset+j));
+                        translatedCCS.innerIndices[j], 
+                        translatedCCS.values[j]);
             }
         }
         return result;
@@ -270,6 +322,7 @@ public class SparseMatrixLil {
         colIdx[size] = col;
         values[size] = value;
         size++;
+        compact = false;
     }
     public void shrink() { // shrinks capacity down to size
         int[] newrows = new int[size];
@@ -306,15 +359,60 @@ public class SparseMatrixLil {
             }
         }
     }
+    /**
+     * returns true if entries are sorted by column, then by row, with no
+     * duplicates, ie already in Eigen's compressed column order
+     */
+    boolean isSortedStrict() {
+        int count = size; for( int i = 1; i < count; i++ ) {
+            int col = colIdx[i]; int lastcol = colIdx[i-1];
+            if( col < lastcol || ( col == lastcol && rowIdx[i] <= rowIdx[i-1] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * returns column start offsets, cols + 1 of them
+     * entries must already be sorted by column
+     */
+    int[] outerStarts() {
+        int[] outerStarts = new int[cols + 1];
+        int count = size; for( int i = 0; i < count; i++ ) {
+            outerStarts[colIdx[i] + 1]++;
+        }
+        for( int c = 0; c < cols; c++ ) {
+            outerStarts[c + 1] += outerStarts[c];
+        }
+        return outerStarts;
+    }
     static int allocateSparseMatrix(SparseMatrixLil mat ) {
         //        Collections.sort(mat.entries);
+        if( mat.compact ) {
+            return Jeigen.checkHandle(JeigenNative.allocateSparseMatrixCCS(mat.rows, mat.cols, mat.size,
+                    mat.outerStarts(), mat.rowIdx, mat.values));
+        }
         mat.validateEntries();
-        return JeigenJna.Jeigen.allocateSparseMatrix(mat.size, mat.rows, mat.cols, 
-                mat.rowIdx, mat.colIdx, mat.values);        
+        if( mat.isSortedStrict() ) {
+            // already in compressed column order, so rowIdx can be sent
+            // as-is, and Eigen doesnt need to sort the triplets
+            return Jeigen.checkHandle(JeigenNative.allocateSparseMatrixCCS(mat.rows, mat.cols, mat.size,
+                    mat.outerStarts(), mat.rowIdx, mat.values));
+        }
+        return Jeigen.checkHandle(JeigenNative.allocateSparseMatrix(mat.size, mat.rows, mat.cols, 
+                mat.rowIdx, mat.colIdx, mat.values));
+    }
+    /**
+     * frees a handle from allocateSparseMatrix, sparse_multiply etc
+     */
+    static void freeSparseMatrix(int handle ) {
+        if( JeigenNative.freeSparseMatrix(handle) != 0 ) {
+            throw new RuntimeException("native handle " + handle + " was not live");
+        }
     }
     static SparseMatrixLil getSparseMatrixFromHandle(int handle ) {
         int[] stats = new int[3];
-        JeigenJna.Jeigen.getSparseMatrixStats(handle, stats);
+        JeigenNative.getSparseMatrixStats(handle, stats);
         int rows = stats[0];
         int cols = stats[1];
         int numEntries = stats[2];
@@ -323,49 +421,93 @@ public class SparseMatrixLil {
 //        double[] valuearray = new double[numEntries];
         SparseMatrixLil result = new SparseMatrixLil(rows,cols);
         result.reserve(numEntries);
-        JeigenJna.Jeigen.getSparseMatrix(handle, result.rowIdx, result.colIdx, result.values);
+        // innerIndices are the row indices, so they go straight into rowIdx
+        int[] outerStarts = new int[cols + 1];
+        JeigenNative.getSparseMatrixCCS(handle, outerStarts, result.rowIdx, result.values);
+        for( int c = 0; c < cols; c++ ) {
+            int end = outerStarts[c + 1];
+            for( int i = outerStarts[c]; i < end; i++ ) {
+                result.colIdx[i] = c;
+            }
+        }
         result.size = numEntries;
 //        for( int i = 0; i < numEntries; i++ ) {
 //            result.append(rowarray[i], colarray[i], valuearray[i]);
 //        }
         return result;
     }
+    /**
+     * matrix multiplication, in Eigen, or in java on several threads if
+     * Jeigen.setSparseMmul("java") was called, see SparseMultiply
+     */
     public SparseMatrixLil mmul( SparseMatrixLil second ) {
         if( this.cols != second.rows ) {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
+        if( SparseMultiply.useJava ) {
+            return SparseMultiply.multiply(toCCS(), second.toCCS()).toLil();
+        }
         int onehandle = allocateSparseMatrix(this);
-        int twohandle = allocateSparseMatrix(second);
-        int resulthandle = JeigenJna.Jeigen.sparse_multiply(rows, cols, second.cols, onehandle, twohandle);
-        JeigenJna.Jeigen.freeSparseMatrix(onehandle);
-        JeigenJna.Jeigen.freeSparseMatrix(twohandle);
-        SparseMatrixLil result = getSparseMatrixFromHandle(resulthandle); 
-        JeigenJna.Jeigen.freeSparseMatrix(resulthandle);
-        return result;
+        try {
+            int twohandle = allocateSparseMatrix(second);
+            try {
+                int resulthandle = Jeigen.checkHandle(JeigenNative.sparse_multiply(rows, cols, second.cols, onehandle, twohandle));
+                try {
+                    return getSparseMatrixFromHandle(resulthandle);
+                } finally {
+                    freeSparseMatrix(resulthandle);
+                }
+            } finally {
+                freeSparseMatrix(twohandle);
+            }
+        } finally {
+            freeSparseMatrix(onehandle);
+        }
     }
     public SparseMatrixLil dummy_mmul( SparseMatrixLil second, int numFilledResultColumns ) {
         if( this.cols != second.rows ) {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
         int onehandle = allocateSparseMatrix(this);
-        int twohandle = allocateSparseMatrix(second);
-        int resulthandle = JeigenJna.Jeigen.sparse_dummy_op2(rows, cols, second.cols, onehandle, twohandle, numFilledResultColumns);
-        JeigenJna.Jeigen.freeSparseMatrix(onehandle);
-        JeigenJna.Jeigen.freeSparseMatrix(twohandle);
-        SparseMatrixLil result = getSparseMatrixFromHandle(resulthandle); 
-        JeigenJna.Jeigen.freeSparseMatrix(resulthandle);
-        return result;
+        try {
+            int twohandle = allocateSparseMatrix(second);
+            try {
+                int resulthandle = Jeigen.checkHandle(JeigenNative.sparse_dummy_op2(rows, cols, second.cols, onehandle, twohandle, numFilledResultColumns));
+                try {
+                    return getSparseMatrixFromHandle(resulthandle);
+                } finally {
+                    freeSparseMatrix(resulthandle);
+                }
+            } finally {
+                freeSparseMatrix(twohandle);
+            }
+        } finally {
+            freeSparseMatrix(onehandle);
+        }
     }
     public DenseMatrix mmul( DenseMatrix second ) {
         if( this.cols != second.rows ) {
             throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
         }
+        return mmulInto(second, new DenseMatrix(this.rows, second.cols));
+    }
+    /**
+     * matrix multiplication of this by second, written into out, which must
+     * be of size this.rows * second.cols.  Returns out
+     */
+    public DenseMatrix mmulInto( DenseMatrix second, DenseMatrix out ) {
+        if( this.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + shape() + " vs " + second.shape());
+        }
+        DenseMatrix.checkOutput(out, this.rows, second.cols, second);
         int onehandle = allocateSparseMatrix(this);
-        DenseMatrix result = new DenseMatrix(this.rows, second.cols);
-        JeigenJna.Jeigen.sparse_dense_multiply(rows, cols, second.cols,
-                onehandle, second.values, result.values );
-        JeigenJna.Jeigen.freeSparseMatrix(onehandle);
-        return result;
+        try {
+            JeigenNative.sparse_dense_multiply(rows, cols, second.cols,
+                    onehandle, second.values, out.values );
+        } finally {
+            freeSparseMatrix(onehandle);
+        }
+        return out;
     }
     public DenseMatrix eq( DenseMatrix second ) {
         return this.toDense().eq(second);
@@ -383,6 +525,126 @@ public class SparseMatrixLil {
     public DenseMatrix mul( DenseMatrix second ) {
         return toDense().mul(second);
     }
+    /**
+     * per-element multiplication by a dense matrix, returning a sparse
+     * matrix, since the result is zero wherever this is.  Only reads second
+     * where this has entries
+     */
+    public SparseMatrixLil mulSparse( DenseMatrix second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+        SparseMatrixLil result = new SparseMatrixLil(rows,cols);
+        result.reserve(size);
+        int numKept = 0;
+        int count = size; for( int i = 0; i < count; i++ ) {
+            int row = rowIdx[i]; int col = colIdx[i];
+            double value = values[i] * second.values[rows * col + row];
+            if( value != 0 ) {
+                result.rowIdx[numKept] = row;
+                result.colIdx[numKept] = col;
+                result.values[numKept] = value;
+                numKept++;
+            }
+        }
+        result.size = numKept;
+        result.compact = compact;
+        return result;
+    }
+    // sparse-sparse per-element operations: compacted copies are made of
+    // matrices that arent already compact, so this and second are left as
+    // they are, then merged in one pass, in column-major order.  Results are
+    // compact
+    public SparseMatrixLil add( SparseMatrixLil second ) {
+        return merge(Kernels.ADD, second);
+    }
+    public SparseMatrixLil sub( SparseMatrixLil second ) {
+        return merge(Kernels.SUB, second);
+    }
+    /**
+     * per-element multiplication, ie the intersection of the entries
+     */
+    public SparseMatrixLil mul( SparseMatrixLil second ) {
+        return merge(Kernels.MUL, second);
+    }
+    /**
+     * per-element max, treating missing entries as zero
+     */
+    public SparseMatrixLil max( SparseMatrixLil second ) {
+        return merge(Kernels.MAX, second);
+    }
+    public SparseMatrixLil min( SparseMatrixLil second ) {
+        return merge(Kernels.MIN, second);
+    }
+    /**
+     * this if isCompact(), otherwise a compacted copy, ie sorted, with
+     * duplicates summed and zeros dropped.  Unlike compact(), this is
+     * unchanged
+     */
+    public SparseMatrixLil compacted() {
+        if( compact ) {
+            return this;
+        }
+        SparseMatrixLil result = new SparseMatrixLil(rows,cols);
+        copy(this, result);
+        return result.compact();
+    }
+    SparseMatrixLil merge( int op, SparseMatrixLil second ) {
+        if( this.cols != second.cols || this.rows != second.rows ) {
+            throw new RuntimeException("matrix size mismatch: " + shape() + " vs " + second.shape() );
+        }
+        SparseMatrixLil one = compacted();
+        SparseMatrixLil two = second.compacted();
+        SparseMatrixLil result = new SparseMatrixLil(rows,cols);
+        result.reserve(op == Kernels.MUL ? Math.min(one.size, two.size) : one.size + two.size);
+        int[] resultRows = result.rowIdx;
+        int[] resultCols = result.colIdx;
+        double[] resultValues = result.values;
+        int numKept = 0;
+        int i = 0;
+        int j = 0;
+        while( i < one.size || j < two.size ) {
+            // compare positions in column-major order; an exhausted matrix compares last
+            int compare;
+            if( i == one.size ) {
+                compare = 1;
+            } else if( j == two.size ) {
+                compare = -1;
+            } else if( one.colIdx[i] != two.colIdx[j] ) {
+                compare = one.colIdx[i] < two.colIdx[j] ? -1 : 1;
+            } else {
+                compare = one.rowIdx[i] < two.rowIdx[j] ? -1 : one.rowIdx[i] > two.rowIdx[j] ? 1 : 0;
+            }
+            double a = compare <= 0 ? one.values[i] : 0;
+            double b = compare >= 0 ? two.values[j] : 0;
+            int row = compare <= 0 ? one.rowIdx[i] : two.rowIdx[j];
+            int col = compare <= 0 ? one.colIdx[i] : two.colIdx[j];
+            if( compare <= 0 ) {
+                i++;
+            }
+            if( compare >= 0 ) {
+                j++;
+            }
+            double value;
+            switch( op ) {
+                case Kernels.ADD: value = a + b; break;
+                case Kernels.SUB: value = a - b; break;
+                case Kernels.MUL: value = a * b; break;
+                case Kernels.MAX: value = a < b ? b : a; break;
+                case Kernels.MIN: value = a > b ? b : a; break;
+                default: throw new RuntimeException("unknown op " + op);
+            }
+            if( value != 0 ) {
+                resultRows[numKept] = row;
+                resultCols[numKept] = col;
+                resultValues[numKept] = value;
+                numKept++;
+            }
+        }
+        result.size = numKept;
+        result.compact = true;
+        return result;
+    }
     public SparseMatrixLil neg() {
         SparseMatrixLil result = new SparseMatrixLil(rows,cols);
         result.reserve(size);
@@ -485,11 +747,14 @@ public class SparseMatrixLil {
         }
         return result;        
     }
+    /**
+     * duplicate entries for the same element are summed, as in Eigen
+     */
     public DenseMatrix toDense() {
         DenseMatrix result = new DenseMatrix(rows,cols);
         int count = size; for( int i = 0; i < count; i++ ) {
             int row = rowIdx[i]; int col = colIdx[i]; double value = values[i];
-            result.set(row, col, value);
+            result.values[rows * col + row] += value;
         }
         return result;
     }
@@ -530,6 +795,26 @@ public class SparseMatrixLil {
     public SparseMatrixCCS toCCS() {
         return Conversion.toCCS(this);
     }
+    /**
+     * converts to compressed row format, for repeated, parallel, products
+     * with dense matrices, see SparseMatrixCRS
+     */
+    public SparseMatrixCRS toCRS() {
+        return new SparseMatrixCRS(this);
+    }
+    /**
+     * converts to single precision, see FloatSparseMatrix
+     */
+    public FloatSparseMatrix toFloat() {
+        return new FloatSparseMatrix(this);
+    }
+    /**
+     * uploads this matrix to the native layer, where it stays until the
+     * returned matrix is closed
+     */
+    public NativeSparseMatrix toNative() {
+        return new NativeSparseMatrix(this);
+    }
     public String toString() {
         StringBuilder stringBuilder = new StringBuilder();
         stringBuilder.append("SparseMatrixLil, " + rows + " * " + cols + ", size = " + size + " :\n");
@@ -0,0 +1,103 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+// sorts in column-major, using a counting sort by row, then a stable
+// counting sort by column, ie a two digit radix sort
+// advantages: O(size + rows + cols), no objects, no comparisons
+// disadvantages: needs a second copy of the three arrays, and a histogram
+// the size of rows and of cols, so for matrices with many more rows or
+// columns than entries, falls back to SparseMatrixLilSorter2
+// for large matrices, each thread histograms, then scatters, its own range
+// of the entries; the ranges are scattered in order, so the sort stays stable.
+// Each task needs its own histogram, so the number of tasks is capped to keep
+// all the histograms together no bigger than the entries, see numTasks
+class SparseMatrixLilCountingSorter {
+    static void sort(SparseMatrixLil mat ) {
+        int size = mat.size;
+        if( isSorted(mat) ) {
+            return;
+        }
+        mat.validateEntries(); // the indices are used as array indices
+        if( Math.max(mat.rows, mat.cols) > 2 * (long)size + 1024 ) {
+            SparseMatrixLilSorter2.sort(mat);
+            return;
+        }
+        int[] rows = new int[size];
+        int[] cols = new int[size];
+        double[] values = new double[size];
+        sortByKey(mat.rowIdx, mat.rows, mat.rowIdx, mat.colIdx, mat.values, size, rows, cols, values);
+        sortByKey(cols, mat.cols, rows, cols, values, size, mat.rowIdx, mat.colIdx, mat.values);
+    }
+    static boolean isSorted(SparseMatrixLil mat ) {
+        for( int i = 1; i < mat.size; i++ ) {
+            int col = mat.colIdx[i];
+            int previousCol = mat.colIdx[i - 1];
+            if( col < previousCol || ( col == previousCol && mat.rowIdx[i] < mat.rowIdx[i - 1] ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * copies entries 0 to size - 1 of rows, cols and values into outRows,
+     * outCols and outValues, stably sorted by keys, which is rows or cols,
+     * and whose values are from 0 to numKeys - 1
+     */
+    static void sortByKey(final int[] keys, int numKeys, final int[] rows, final int[] cols, final double[] values, final int size,
+            final int[] outRows, final int[] outCols, final double[] outValues ) {
+        final int numTasks = numTasks(size, numKeys);
+        final int[][] offsets = new int[numTasks][numKeys];
+        Parallel.forEach(numTasks, new Parallel.Body() {
+            public void run(int task ) {
+                int[] counts = offsets[task];
+                int end = taskEnd(task, numTasks, size);
+                for( int i = taskEnd(task - 1, numTasks, size); i < end; i++ ) {
+                    counts[keys[i]]++;
+                }
+            }
+        });
+        // each task starts writing each key after all earlier keys, and after
+        // the same key from earlier tasks
+        int position = 0;
+        for( int key = 0; key < numKeys; key++ ) {
+            for( int task = 0; task < numTasks; task++ ) {
+                int count = offsets[task][key];
+                offsets[task][key] = position;
+                position += count;
+            }
+        }
+        Parallel.forEach(numTasks, new Parallel.Body() {
+            public void run(int task ) {
+                int[] next = offsets[task];
+                int end = taskEnd(task, numTasks, size);
+                for( int i = taskEnd(task - 1, numTasks, size); i < end; i++ ) {
+                    int target = next[keys[i]]++;
+                    outRows[target] = rows[i];
+                    outCols[target] = cols[i];
+                    outValues[target] = values[i];
+                }
+            }
+        });
+    }
+    /**
+     * number of tasks to sort size entries with numKeys keys: one per thread,
+     * but at most one per chunk, and at most size / numKeys, so the
+     * histograms, numTasks * numKeys ints, take no more memory than one
+     * array of keys
+     */
+    static int numTasks(int size, int numKeys ) {
+        if( !Parallel.isParallel(size) ) {
+            return 1;
+        }
+        int numTasks = Math.min(Parallel.getNumThreads(), Parallel.numChunks(size));
+        return Math.max(1, Math.min(numTasks, size / Math.max(1, numKeys)));
+    }
+    static int taskEnd(int task, int numTasks, int size ) {
+        return (int)( (long)size * ( task + 1 ) / numTasks );
+    }
+}
@@ -0,0 +1,132 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+
+/**
+ * Sparse-sparse matrix multiplication in java, using Gustavson's algorithm on
+ * compressed columns: column j of the result is the sum of the columns k of
+ * first, scaled by second(k, j), gathered in a dense accumulator.
+ *
+ * It runs in two phases.  The symbolic phase counts the entries of each
+ * result column, so that the result arrays can be allocated exactly once.
+ * The numeric phase then fills them in.  Both phases split the columns of the
+ * result into one contiguous range per thread, with about the same number of
+ * multiply-adds in each, and each thread has its own accumulator.  Each
+ * column is always calculated by one thread, in the same order, so results
+ * dont depend on the number of threads.
+ *
+ * SparseMatrixLil.mmul uses this instead of Eigen if Jeigen.setSparseMmul("java")
+ * was called, or system property jeigen.sparse.mmul is java.  Eigen's product
+ * runs on one thread.
+ */
+final class SparseMultiply {
+    static final String PROPERTY = "jeigen.sparse.mmul";
+    static volatile boolean useJava = "java".equals(System.getProperty(PROPERTY, "eigen").trim());
+
+    static SparseMatrixCCS multiply(final SparseMatrixCCS first, final SparseMatrixCCS second ) {
+        if( first.cols != second.rows ) {
+            throw new RuntimeException("matrix size mismatch " + first.shape() + " vs " + second.shape());
+        }
+        final int cols = second.cols;
+        // multiply-adds for each result column, to balance the threads
+        long[] cumulativeWork = new long[cols + 1];
+        for( int j = 0; j < cols; j++ ) {
+            long work = 0;
+            int end = second.colEnd(j);
+            for( int i = second.colStart(j); i < end; i++ ) {
+                work += first.nonZeros(second.innerIndices[i]);
+            }
+            cumulativeWork[j + 1] = cumulativeWork[j] + work + 1;
+        }
+        final int numTasks = Parallel.isParallel(cumulativeWork[cols]) ? Math.min(Parallel.getNumThreads(), Math.max(1, cols)) : 1;
+        final int[] taskStarts = new int[numTasks + 1];
+        for( int task = 1; task < numTasks; task++ ) {
+            long target = cumulativeWork[cols] * task / numTasks;
+            int j = Arrays.binarySearch(cumulativeWork, target);
+            taskStarts[task] = Math.max(taskStarts[task - 1], j >= 0 ? j : -j - 2);
+        }
+        taskStarts[numTasks] = cols;
+
+        // symbolic phase: count the rows in each column of the result
+        final int[] outerStarts = new int[cols + 1];
+        Parallel.forEach(numTasks, new Parallel.Body() {
+            public void run(int task ) {
+                int[] lastCol = new int[first.rows];
+                Arrays.fill(lastCol, -1);
+                for( int j = taskStarts[task]; j < taskStarts[task + 1]; j++ ) {
+                    int count = 0;
+                    int end = second.colEnd(j);
+                    for( int i = second.colStart(j); i < end; i++ ) {
+                        int k = second.innerIndices[i];
+                        int kEnd = first.colEnd(k);
+                        for( int ia = first.colStart(k); ia < kEnd; ia++ ) {
+                            int row = first.innerIndices[ia];
+                            if( lastCol[row] != j ) {
+                                lastCol[row] = j;
+                                count++;
+                            }
+                        }
+                    }
+                    outerStarts[j + 1] = count;
+                }
+            }
+        });
+        for( int j = 0; j < cols; j++ ) {
+            outerStarts[j + 1] += outerStarts[j];
+        }
+
+        // numeric phase
+        final int[] innerIndices = new int[outerStarts[cols]];
+        final double[] values = new double[outerStarts[cols]];
+        Parallel.forEach(numTasks, new Parallel.Body() {
+            public void run(int task ) {
+                int rows = first.rows;
+                double[] accumulator = new double[rows];
+                int[] lastCol = new int[rows];
+                Arrays.fill(lastCol, -1);
+                for( int j = taskStarts[task]; j < taskStarts[task + 1]; j++ ) {
+                    int start = outerStarts[j];
+                    int next = start;
+                    int end = second.colEnd(j);
+                    for( int i = second.colStart(j); i < end; i++ ) {
+                        int k = second.innerIndices[i];
+                        double scale = second.values[i];
+                        int kEnd = first.colEnd(k);
+                        for( int ia = first.colStart(k); ia < kEnd; ia++ ) {
+                            int row = first.innerIndices[ia];
+                            if( lastCol[row] != j ) {
+                                lastCol[row] = j;
+                                accumulator[row] = first.values[ia] * scale;
+                                innerIndices[next++] = row;
+                            } else {
+                                accumulator[row] += first.values[ia] * scale;
+                            }
+                        }
+                    }
+                    int count = next - start;
+                    if( count > rows / 8 ) {
+                        // dense enough that scanning the markers beats sorting
+                        next = start;
+                        for( int row = 0; row < rows; row++ ) {
+                            if( lastCol[row] == j ) {
+                                innerIndices[next++] = row;
+                            }
+                        }
+                    } else {
+                        Arrays.sort(innerIndices, start, next);
+                    }
+                    for( int i = start; i < next; i++ ) {
+                        values[i] = accumulator[innerIndices[i]];
+                    }
+                }
+            }
+        });
+        return new SparseMatrixCCS(first.rows, cols, outerStarts, innerIndices, values);
+    }
+}
@@ -0,0 +1,273 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A sparse direct solver, from Eigen, for solving A * x = b, where A is
+ * sparse and b is dense, without densifying A.
+ *
+ * Solving is in three steps:
+ * - analyzePattern(A): computes a fill-reducing ordering (AMD for ldlt and
+ *   llt, COLAMD for lu and qr), and the symbolic factorization.  Uses only
+ *   the positions of the entries of A, not their values
+ * - factorize(A): the numerical factorization
+ * - solve(b), for as many b as needed
+ *
+ * When the values of A change, but the positions of its entries dont,
+ * factorize can be called again, without analyzePattern:
+ *
+ *     SparseSolver solver = SparseSolver.ldlt();
+ *     try {
+ *         solver.analyzePattern(A); // once
+ *         for( ... ) {
+ *             solver.factorize(A);  // A has new values, same pattern
+ *             x = solver.solve(b);
+ *         }
+ *     } finally {
+ *         solver.close();
+ *     }
+ *
+ * factorize checks that A has the pattern that was analyzed.  A
+ * SparseMatrixLil is always compacted first, into a copy if it isnt already
+ * compact, which drops entries whose value is zero.  So if values can become
+ * zero, either keep the analyzed pattern by passing a SparseMatrixCCS, which
+ * keeps explicit zeros, or call analyzePattern again.
+ *
+ * analyzePattern and factorize wait for any solves running on other threads,
+ * and solves wait for them.
+ *
+ * The native memory is only released by close(), so please call it, eg using
+ * try-with-resources.  close waits for any native calls that are running on
+ * the solver, eg from other threads.
+ */
+public class SparseSolver implements AutoCloseable {
+    static final int LDLT = 0;
+    static final int LLT = 1;
+    static final int LU = 2;
+    static final int QR = 3;
+    static final String[] NAMES = { "ldlt", "llt", "lu", "qr" };
+
+    final int type;
+    int handle;
+    volatile boolean closed = false;
+    final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(); // solves hold the read lock; analyzePattern, factorize and close the write lock
+    int rows = -1; // of the analyzed matrix
+    int cols = -1;
+    // written under the write lock
+    int[] patternStarts; // column starts of the analyzed matrix, from 0
+    volatile int[] patternRows;
+    volatile boolean factorized = false;
+
+    /**
+     * SimplicialLDLT, for symmetric matrices, which must have non-zero
+     * pivots, eg positive or negative definite.  Only the lower triangle
+     * is used
+     */
+    public static SparseSolver ldlt() {
+        return new SparseSolver(LDLT);
+    }
+    /**
+     * SimplicialLLT, ie cholesky, for symmetric positive definite matrices.
+     * Only the lower triangle is used
+     */
+    public static SparseSolver llt() {
+        return new SparseSolver(LLT);
+    }
+    /**
+     * SparseLU, for square, invertible, matrices
+     */
+    public static SparseSolver lu() {
+        return new SparseSolver(LU);
+    }
+    /**
+     * SparseQR, for matrices with at least as many rows as columns; gives
+     * least squares solutions
+     */
+    public static SparseSolver qr() {
+        return new SparseSolver(QR);
+    }
+    SparseSolver(int type ) {
+        this.type = type;
+        this.handle = Jeigen.checkHandle(JeigenNative.sparse_solver_create(type));
+    }
+    final int getHandle() {
+        if( closed ) {
+            throw new RuntimeException("SparseSolver has already been closed");
+        }
+        return handle;
+    }
+    /**
+     * computes the ordering and symbolic factorization of a.  a is compacted
+     * first, into a copy if need be, so entries whose value is zero are not
+     * part of the pattern.  Returns this
+     */
+    public SparseSolver analyzePattern(SparseMatrixLil a ) {
+        return analyzePattern(a.compacted().toCCS());
+    }
+    public SparseSolver analyzePattern(SparseMatrixCCS a ) {
+        if( type == QR ? a.rows < a.cols : a.rows != a.cols ) {
+            throw new RuntimeException(NAMES[type] + " matrix size error: must be " + ( type == QR ? "at least as tall as wide" : "square matrix" )
+                    + ", but was " + a.shape());
+        }
+        lock.writeLock().lock();
+        try {
+            int solverHandle = getHandle();
+            factorized = false;
+            int matrixHandle = SparseMatrixCCS.allocateSparseMatrix(a);
+            try {
+                JeigenNative.sparse_solver_analyze_pattern(solverHandle, matrixHandle);
+            } finally {
+                SparseMatrixLil.freeSparseMatrix(matrixHandle);
+            }
+            rows = a.rows;
+            cols = a.cols;
+            patternStarts = new int[cols + 1];
+            for( int c = 0; c <= cols; c++ ) {
+                patternStarts[c] = a.colStart(c) - a.colStart(0);
+            }
+            patternRows = Arrays.copyOfRange(a.innerIndices, a.colStart(0), a.colStart(0) + a.nonZeros());
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+    boolean hasAnalyzedPattern(SparseMatrixCCS a ) {
+        if( a.rows != rows || a.cols != cols || a.nonZeros() != patternRows.length ) {
+            return false;
+        }
+        int start = a.colStart(0);
+        for( int c = 1; c <= cols; c++ ) {
+            if( a.colStart(c) - start != patternStarts[c] ) {
+                return false;
+            }
+        }
+        for( int i = 0; i < patternRows.length; i++ ) {
+            if( a.innerIndices[start + i] != patternRows[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * numerical factorization of a, which must have the same pattern as the
+     * matrix passed to analyzePattern.  a is compacted first, into a copy if
+     * need be, as by analyzePattern(SparseMatrixLil).  Returns this
+     */
+    public SparseSolver factorize(SparseMatrixLil a ) {
+        return factorize(a.compacted().toCCS());
+    }
+    public SparseSolver factorize(SparseMatrixCCS a ) {
+        lock.writeLock().lock();
+        try {
+            int solverHandle = getHandle();
+            if( patternRows == null ) {
+                throw new RuntimeException("analyzePattern should be called before factorize");
+            }
+            if( !hasAnalyzedPattern(a) ) {
+                throw new RuntimeException("sparsity pattern of " + a.shape() + " matrix differs from the one passed to analyzePattern");
+            }
+            factorized = false;
+            int matrixHandle = SparseMatrixCCS.allocateSparseMatrix(a);
+            int info;
+            try {
+                info = JeigenNative.sparse_solver_factorize(solverHandle, matrixHandle);
+            } finally {
+                SparseMatrixLil.freeSparseMatrix(matrixHandle);
+            }
+            if( info != 0 ) {
+                throw new RuntimeException(NAMES[type] + " factorize failed: " + ( info == 1 ? "numerical issue, eg matrix is singular"
+                        + ( type == LLT ? " or not positive definite" : "" ) : "eigen info " + info ));
+            }
+            factorized = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return this;
+    }
+    /**
+     * analyzePattern then factorize.  Returns this
+     */
+    public SparseSolver compute(SparseMatrixLil a ) {
+        SparseMatrixCCS ccs = a.compacted().toCCS();
+        return analyzePattern(ccs).factorize(ccs);
+    }
+    public SparseSolver compute(SparseMatrixCCS a ) {
+        return analyzePattern(a).factorize(a);
+    }
+    /**
+     * Solves A * x = b, for the last A factorized, and returns x
+     */
+    public DenseMatrix solve(DenseMatrix b ) {
+        checkFactorized();
+        if( this.rows != b.rows ) {
+            throw new RuntimeException("solve matrix size mismatch " + shape() + " vs " + b.shape());
+        }
+        return solveInto(b, new DenseMatrix(this.cols, b.cols));
+    }
+    /**
+     * as solve, but writes result into x, which must be of size
+     * cols * b.cols.  Returns x
+     */
+    public DenseMatrix solveInto(DenseMatrix b, DenseMatrix x ) {
+        lock.readLock().lock();
+        try {
+            checkFactorized();
+            if( this.rows != b.rows ) {
+                throw new RuntimeException("solve matrix size mismatch " + shape() + " vs " + b.shape());
+            }
+            DenseMatrix.checkOutput(x, this.cols, b.cols, b);
+            JeigenNative.sparse_solver_solve(getHandle(), rows, cols, b.cols, b.values, x.values);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return x;
+    }
+    void checkFactorized() {
+        if( !factorized ) {
+            throw new RuntimeException("factorize should be called, and succeed, before solve");
+        }
+    }
+    /**
+     * shape of the analyzed matrix
+     */
+    public DenseMatrix shape() {
+        return new DenseMatrix(new double[][]{{rows,cols}});
+    }
+    public boolean isAnalyzed() {
+        return patternRows != null;
+    }
+    public boolean isFactorized() {
+        return factorized;
+    }
+    public boolean isClosed() {
+        return closed;
+    }
+    /**
+     * frees the native solver, once any running native calls finish.  Calling
+     * close more than once is harmless
+     */
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if( !closed ) {
+                closed = true;
+                if( JeigenNative.freeSparseSolver(handle) != 0 ) {
+                    throw new RuntimeException("native handle " + handle + " was not live");
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    public String toString() {
+        return "SparseSolver, " + NAMES[type] + ( isAnalyzed() ? ", " + rows + " * " + cols : "" ) + ( closed ? ", closed" : "" );
+    }
+}
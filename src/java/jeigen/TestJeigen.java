@@ -11,7 +11,13 @@ import static jeigen.Shortcuts.*;
 import jeigen.DenseMatrix.SvdResult;
 import jeigen.statistics.Statistics;
 import static jeigen.statistics.Statistics.*;
+import jeigen.statistics.Description;
+import jeigen.statistics.RunningStatistics;
 import junit.framework.TestCase;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Unit tests
@@ -551,4 +557,1289 @@ public class TestJeigen extends TestCase {
         assertEquals(7.0, A.get(1,1) );
         assertEquals(5.0, A.get(2,1) );
     }
+    public void testNativeSparse() {
+        SparseMatrixLil A = sprand(5,8);
+        SparseMatrixLil B = sprand(8,3);
+        DenseMatrix D = rand(8,4);
+        DenseMatrix E = rand(6,5);
+        NativeSparseMatrix nA = A.toNative();
+        NativeSparseMatrix nB = B.toNative();
+        assertEquals(40, nA.nonZeros());
+        assertTrue(A.equals(nA.toLil()));
+        assertTrue(A.toDense().mmul(D).equals(nA.mmul(D)));
+        assertTrue(E.mmul(A.toDense()).equals(E.mmul(nA)));
+        NativeSparseMatrix nC = nA.mmul(nB);
+        assertEquals(5, nC.rows);
+        assertEquals(3, nC.cols);
+        assertTrue(A.mmul(B).equals(nC.toDense()));
+        NativeSparseMatrix nC2 = nA.mmul(B);
+        assertTrue(nC.toDense().equals(nC2.toDense()));
+        nC2.close();
+        nC.close();
+        nB.close();
+        nA.close();
+        nA.close();
+        assertTrue(nA.isClosed());
+        try {
+            nA.mmul(D);
+            fail("expected exception on closed matrix");
+        } catch( RuntimeException e ) {
+        }
+
+        // close while other threads are using the matrix: each call either
+        // finishes, or sees the matrix closed
+        final SparseMatrixLil big = sprand(300,300);
+        final NativeSparseMatrix shared = big.toNative();
+        final DenseMatrix x = rand(300,20);
+        final DenseMatrix expected = big.mmul(x);
+        final int[] failures = new int[1];
+        Thread[] threads = new Thread[3];
+        for( int t = 0; t < threads.length; t++ ) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for( int i = 0; i < 200; i++ ) {
+                        try {
+                            boolean ok = shared.mmul(x).equals(expected);
+                            NativeSparseMatrix sum = shared.add(shared);
+                            sum.close();
+                            if( !ok ) {
+                                synchronized( failures ) {
+                                    failures[0]++;
+                                }
+                            }
+                        } catch( RuntimeException e ) {
+                            if( !e.getMessage().contains("closed") ) {
+                                synchronized( failures ) {
+                                    failures[0]++;
+                                }
+                            }
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        shared.close();
+        for( Thread thread : threads ) {
+            try {
+                thread.join();
+            } catch( InterruptedException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+        assertEquals(0, failures[0]);
+    }
+    public void testNativeSparseCCS() {
+        SparseMatrixLil A = new SparseMatrixLil("1 0 2; 0 0 3; 4 5 0");
+        assertTrue(A.isSortedStrict());
+        NativeSparseMatrix nA = A.toNative();
+        assertTrue(A.equals(nA.toLil()));
+        SparseMatrixCCS B = nA.toCCS();
+        assertEquals(5, B.nonZeros());
+        assertEquals(2, B.nonZeros(0));
+        assertEquals(3.0, B.get(1,2));
+        NativeSparseMatrix nB = B.toNative();
+        assertTrue(A.equals(nB.toLil()));
+        nB.close();
+        nA.close();
+
+        SparseMatrixLil C = spzeros(3,3);
+        C.append(2,1,5);
+        C.append(0,0,1);
+        C.append(2,1,2);
+        assertFalse(C.isSortedStrict());
+        nA = C.toNative();
+        assertEquals(7.0, nA.toDense().get(2,1));
+        nA.close();
+
+        C = sprand(thousandconstant, 50);
+        C.sort();
+        assertTrue(C.isSortedStrict());
+        assertTrue(C.mmul(speye(50)).equals(C));
+        nA = C.toCCS().toNative();
+        assertTrue(nA.toLil().equals(C));
+        nA.close();
+    }
+    public void testCCSColsAndTranspose() {
+        SparseMatrixLil A = new SparseMatrixLil("1 0 2 0; 0 0 3 6; 4 5 0 0");
+        SparseMatrixCCS B = A.toCCS();
+        assertTrue(A.toDense().equals(B.toDense()));
+        SparseMatrixCCS B2 = B.cols(1,3);
+        assertEquals(2, B2.cols);
+        assertEquals(3, B2.nonZeros());
+        assertTrue(A.toDense().cols(1,3).equals(B2.toDense()));
+        assertTrue(A.toDense().cols(1,3).equals(B2.toLil()));
+        assertEquals(3.0, B2.get(1,1));
+        assertTrue(A.toDense().col(3).equals(B.col(3).toDense()));
+        assertTrue(A.toDense().t().equals(B.t().toDense()));
+        assertTrue(A.toDense().cols(1,3).t().equals(B2.t().toDense()));
+        int count = 0;
+        double sum = 0;
+        for( SparseMatrixCCS.InnerIterator it = B.innerIterator(2); it.valid(); it.next() ) {
+            assertEquals(2, it.col());
+            assertEquals(A.toDense().get(it.row(), 2), it.value());
+            sum += it.value();
+            count++;
+        }
+        assertEquals(2, count);
+        assertEquals(5.0, sum);
+        NativeSparseMatrix nB2 = B2.toNative();
+        assertTrue(B2.toDense().equals(nB2.toDense()));
+        nB2.close();
+    }
+    public void testNativeHandles() throws Exception {
+        int liveBefore = Jeigen.getNumLiveHandles();
+        NativeSparseMatrix[] mats = new NativeSparseMatrix[2500]; // more than the old fixed table of 1000
+        for( int i = 0; i < mats.length; i++ ) {
+            mats[i] = speye(3).toNative();
+        }
+        assertEquals(liveBefore + mats.length, Jeigen.getNumLiveHandles());
+        for( int i = 0; i < mats.length; i++ ) {
+            mats[i].close();
+        }
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+        assertEquals(-1, JeigenNative.freeSparseMatrix(mats[0].handle)); // already freed
+        assertEquals(-1, JeigenNative.freeSparseMatrix(16000000)); // slot never allocated
+        assertEquals(-1, JeigenNative.freeSparseMatrix(-1));
+
+        final SparseMatrixLil A = sprand(20,20);
+        final DenseMatrix expected = A.toDense().mmul(A.toDense());
+        final boolean[] ok = new boolean[8];
+        Thread[] threads = new Thread[ok.length];
+        for( int t = 0; t < threads.length; t++ ) {
+            final int threadId = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    boolean allOk = true;
+                    for( int i = 0; i < 200; i++ ) {
+                        allOk &= A.mmul(A).equals(expected);
+                    }
+                    ok[threadId] = allOk;
+                }
+            };
+            threads[t].start();
+        }
+        for( int t = 0; t < threads.length; t++ ) {
+            threads[t].join();
+            assertTrue(ok[t]);
+        }
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+    }
+    public void testNumThreads() {
+        int defaultThreads = Jeigen.getNumThreads();
+        assertTrue(defaultThreads >= 1);
+        DenseMatrix A = rand(200,150);
+        DenseMatrix B = rand(150,100);
+        DenseMatrix C = A.mmul(B);
+        Jeigen.setNumThreads(1);
+        assertEquals(1, Jeigen.getNumThreads());
+        assertTrue(C.equals(A.mmul(B)));
+        if( Jeigen.hasOpenMP() ) {
+            Jeigen.setNumThreads(2);
+            assertEquals(2, Jeigen.getNumThreads());
+            assertTrue(C.equals(A.mmul(B)));
+        }
+        Jeigen.setNumThreads(0);
+        assertEquals(defaultThreads, Jeigen.getNumThreads());
+    }
+    public void testMmulDispatch() throws Exception {
+        long threshold = Jeigen.getMmulThreshold();
+        assertTrue(threshold >= 0);
+        DenseMatrix A = rand(7,5);
+        DenseMatrix B = rand(5,3);
+        Jeigen.setMmulThreshold(0); // always native
+        DenseMatrix nativeResult = A.mmul(B);
+        Jeigen.setMmulThreshold(Long.MAX_VALUE); // always java
+        DenseMatrix javaResult = A.mmul(B);
+        assertTrue(nativeResult.equals(javaResult));
+        assertTrue(zeros(3,0).mmul(zeros(0,4)).equals(zeros(3,4)));
+        assertTrue(new DenseMatrix("1 2; 3 4").mmul(new DenseMatrix("5; 6")).equals(new DenseMatrix("17; 39")));
+        Jeigen.setMmulThreshold(threshold);
+
+        int numSizes = MmulDispatcher.CALIBRATION_SIZES.length;
+        boolean[] nativeFaster = new boolean[numSizes];
+        assertTrue(64 * 64 * 64 < MmulDispatcher.thresholdFor(nativeFaster)); // java always faster, so 64 * 64 goes to java
+        Arrays.fill(nativeFaster, true);
+        assertEquals(0, MmulDispatcher.thresholdFor(nativeFaster));
+        nativeFaster[0] = false;
+        assertEquals(6 * 6 * 6, MmulDispatcher.thresholdFor(nativeFaster));
+        nativeFaster[numSizes - 1] = false;
+        assertTrue(65 * 65 * 65 >= MmulDispatcher.thresholdFor(nativeFaster)); // unmeasured larger sizes go to Eigen
+
+        File directory = File.createTempFile("jeigen", "test");
+        directory.delete();
+        File profileFile = new File(directory, "calibration.properties");
+        java.util.Properties profile = new java.util.Properties();
+        for( int i = 1; i <= 2; i++ ) { // second write replaces the first
+            profile.setProperty("key", "" + i);
+            MmulDispatcher.writeProfile(profile, profileFile);
+        }
+        java.util.Properties loaded = new java.util.Properties();
+        java.io.InputStream inputStream = new java.io.FileInputStream(profileFile);
+        loaded.load(inputStream);
+        inputStream.close();
+        assertEquals("2", loaded.getProperty("key"));
+        assertEquals(1, directory.list().length); // no temporary files left
+        profileFile.delete();
+        directory.delete();
+    }
+    public void testInto() {
+        long threshold = Jeigen.getMmulThreshold();
+        DenseMatrix A = rand(6,4);
+        DenseMatrix B = rand(4,3);
+        DenseMatrix expected = A.mmul(B);
+        for( long t : new long[]{ 0, Long.MAX_VALUE } ) {
+            Jeigen.setMmulThreshold(t);
+            DenseMatrix out = rand(6,3);
+            assertTrue(A.mmulInto(B, out) == out);
+            assertTrue(out.sub(expected).abs().sum().sum().s() < 0.000001);
+            DenseMatrix C = rand(6,3);
+            DenseMatrix acc = C.mul(1);
+            A.mmulAddInto(B, 2, acc);
+            assertTrue(acc.sub(C.add(expected.mul(2))).abs().sum().sum().s() < 0.000001);
+        }
+        Jeigen.setMmulThreshold(threshold);
+        try {
+            A.mmulInto(B, zeros(6,4));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+        DenseMatrix square = rand(3,3);
+        try {
+            square.mmulInto(square.mul(1), square);
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+        DenseMatrix M = rand(5,5);
+        M = M.mmul(M.t()).add(eye(5));
+        DenseMatrix b = rand(5,2);
+        DenseMatrix x = zeros(5,2);
+        M.ldltSolveInto(b, x);
+        assertTrue(x.equals(M.ldltSolve(b)));
+        M.fullPivHouseholderQRSolveInto(b, x);
+        assertTrue(x.equals(M.fullPivHouseholderQRSolve(b)));
+        DenseMatrix out = zeros(5,5);
+        M.mul(0.1).mexpInto(out);
+        assertTrue(out.equals(M.mul(0.1).mexp()));
+        M.mlogInto(out);
+        assertTrue(out.equals(M.mlog()));
+        DenseMatrix.SvdResult svd = M.svd();
+        M.mul(2).svdInto(svd);
+        assertTrue(svd.S.equals(M.mul(2).svd().S));
+        SparseMatrixLil S = sprand(5,5);
+        DenseMatrix sparseOut = zeros(5,2);
+        S.mmulInto(b, sparseOut);
+        assertTrue(sparseOut.equals(S.mmul(b)));
+        NativeSparseMatrix N = S.toNative();
+        try {
+            N.mmulInto(b, sparseOut);
+            assertTrue(sparseOut.equals(S.mmul(b)));
+            DenseMatrix denseOut = zeros(2,5);
+            b.t().mmulInto(N, denseOut);
+            assertTrue(denseOut.equals(b.t().mmul(S)));
+        } finally {
+            N.close();
+        }
+    }
+    public void testDirect() {
+        DenseMatrix A = rand(6,4);
+        DenseMatrix B = rand(4,3);
+        DirectDenseMatrix dA = A.toDirect();
+        DirectDenseMatrix dB = new DirectDenseMatrix(B);
+        try {
+            assertEquals(24, dA.size());
+            assertEquals(A.get(2,3), dA.get(2,3));
+            assertTrue(dA.toDense().equals(A));
+            DirectDenseMatrix product = dA.mmul(dB);
+            assertTrue(product.toDense().equals(A.mmul(B)));
+            product.close();
+            product.close();
+            assertTrue(product.isClosed());
+            DirectDenseMatrix acc = DirectDenseMatrix.ones(6,3);
+            dA.mmulAddInto(dB, 2, acc);
+            assertTrue(acc.toDense().equals(ones(6,3).add(A.mmul(B).mul(2))));
+            acc.close();
+            dA.set(0, 0, 5);
+            assertEquals(5.0, dA.get(0));
+            DirectDenseMatrix sum = dA.add(dA);
+            assertTrue(sum.toDense().equals(dA.toDense().mul(2)));
+            sum.close();
+            DirectDenseMatrix out = new DirectDenseMatrix(6,4);
+            assertSame(out, dA.mulInto(dA, out).subi(dA));
+            assertTrue(out.toDense().equals(dA.toDense().mul(dA.toDense()).sub(dA.toDense())));
+            assertSame(out, dA.addInto(out, out).divi(2).muli(4).subi(1).addi(1));
+            assertTrue(out.toDense().equals(dA.toDense().mul(dA.toDense()).mul(2)));
+            out.close();
+            assertEquals(dA.toDense().sum().sum().s(), dA.sum(), 0.0000001);
+            DenseMatrix M = A.mmul(A.t()).add(eye(6));
+            DirectDenseMatrix dM = M.toDirect();
+            DenseMatrix b = rand(6,2);
+            DirectDenseMatrix db = b.toDirect();
+            assertTrue(dM.ldltSolve(db).toDense().equals(M.ldltSolve(b)));
+            dM.close();
+            db.close();
+            try {
+                dA.mmul(dA);
+                assertTrue(false);
+            } catch( RuntimeException e ) {
+            }
+        } finally {
+            dA.close();
+            dB.close();
+        }
+        try {
+            dA.mmul(dB);
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testNativeBackend() {
+        String backend = Jeigen.getNativeBackend();
+        assertTrue(backend.equals("ffm") || backend.equals("jna"));
+        assertEquals(JeigenFfm.isAvailable(), backend.equals("ffm"));
+        if( "ffm".equals(System.getProperty(JeigenNative.BACKEND_PROPERTY)) ) {
+            // asked for explicitly, eg by ant test-ffm, so dont let it fall back to jna
+            assertEquals("ffm unavailable: " + JeigenFfm.failure, "ffm", backend);
+        }
+        // 5 is a critical call on ffm, 70 is off-heap
+        for( int n : new int[]{ 5, 70 } ) {
+            DenseMatrix A = rand(n,n);
+            DenseMatrix B = rand(n,n);
+            double[] viaJna = new double[n * n];
+            JeigenJna.Jeigen.dense_multiply(n, n, n, A.values, B.values, viaJna);
+            double[] viaDispatch = new double[n * n];
+            JeigenNative.dense_multiply(n, n, n, A.values, B.values, viaDispatch);
+            for( int i = 0; i < n * n; i++ ) {
+                assertEquals(viaJna[i], viaDispatch[i], 0.0000001);
+            }
+        }
+    }
+    public void testPreload() throws Exception {
+        Jeigen.preload();
+        File installed = JeigenJna.installLibrary();
+        assertTrue(installed.exists());
+        assertTrue(installed == JeigenJna.installLibrary());
+        File tempDir = File.createTempFile("jeigentest", "");
+        tempDir.delete();
+        String oldDir = System.getProperty(JeigenJna.NATIVE_DIR_PROPERTY);
+        System.setProperty(JeigenJna.NATIVE_DIR_PROPERTY, tempDir.getPath());
+        try {
+            File library = JeigenJna.doInstallLibrary();
+            assertTrue(library.exists());
+            assertEquals(installed.length(), library.length());
+            // same contents, so same hash directory
+            assertEquals(installed.getParentFile().getName(), library.getParentFile().getName());
+            assertEquals(library, JeigenJna.doInstallLibrary());
+            library.delete();
+            library.getParentFile().delete();
+            tempDir.delete();
+        } finally {
+            if( oldDir == null ) {
+                System.clearProperty(JeigenJna.NATIVE_DIR_PROPERTY);
+            } else {
+                System.setProperty(JeigenJna.NATIVE_DIR_PROPERTY, oldDir);
+            }
+        }
+    }
+    public void testFloatMatrix() {
+        long threshold = Jeigen.getMmulThreshold();
+        DenseMatrix A = rand(6,4);
+        DenseMatrix B = rand(4,3);
+        FloatMatrix fA = A.toFloat();
+        FloatMatrix fB = new FloatMatrix(B);
+        assertEquals((float)A.get(2,3), fA.get(2,3));
+        assertTrue(fA.toDense().equals(A));
+        assertEquals(fA.hashCode(), A.toFloat().hashCode());
+        for( long t : new long[]{ 0, Long.MAX_VALUE } ) {
+            Jeigen.setMmulThreshold(t);
+            assertTrue(fA.mmul(fB).toDense().sub(A.mmul(B)).abs().sum().sum().s() < 0.0001);
+        }
+        Jeigen.setMmulThreshold(threshold);
+        assertTrue(fA.t().toDense().equals(A.t()));
+        assertTrue(fA.add(fA).sub(fA.mul(3)).toDense().equals(A.neg()));
+        assertTrue(fA.slice(1,3,1,4).toDense().equals(A.slice(1,3,1,4)));
+        assertTrue(fA.sum().toDense().equals(A.sum()));
+        assertTrue(fA.sumOverCols().toDense().equals(A.sumOverCols()));
+        assertTrue(new FloatMatrix("1 2; 3 4").equals(new FloatMatrix(new float[][]{{1,2},{3,4}})));
+
+        DenseMatrix M = A.mmul(A.t()).add(eye(6));
+        DenseMatrix b = rand(6,2);
+        FloatMatrix x = M.toFloat().ldltSolve(b.toFloat());
+        assertTrue(x.toDense().sub(M.ldltSolve(b)).abs().sum().sum().s() < 0.001);
+        x = M.toFloat().fullPivHouseholderQRSolve(b.toFloat());
+        assertTrue(x.toDense().sub(M.fullPivHouseholderQRSolve(b)).abs().sum().sum().s() < 0.001);
+        FloatMatrix.SvdResult svd = fA.svd();
+        assertTrue(svd.S.toDense().sub(A.svd().S).abs().sum().s() < 0.001);
+        FloatMatrix reconstructed = svd.U.mmul(diag(svd.S.toDense()).toFloat()).mmul(svd.V.t());
+        assertTrue(reconstructed.toDense().sub(A).abs().sum().sum().s() < 0.001);
+
+        SparseMatrixLil S = sprand(6,5);
+        FloatSparseMatrix fS = S.toFloat();
+        assertEquals(S.toCCS().nonZeros(), fS.nonZeros());
+        assertTrue(fS.toDense().toDense().equals(S.toDense()));
+        assertTrue(fS.toLil().toDense().equals(S.toDense()));
+        DenseMatrix C = rand(5,3);
+        assertTrue(fS.mmul(C.toFloat()).toDense().sub(S.mmul(C)).abs().sum().sum().s() < 0.0001);
+        DenseMatrix D = rand(2,6);
+        assertTrue(D.toFloat().mmul(fS).toDense().sub(D.mmul(S)).abs().sum().sum().s() < 0.0001);
+        assertTrue(S.toCCS().cols(1,4).toFloat().toDense().toDense().equals(S.toDense().cols(1,4)));
+    }
+    public void testInPlace() {
+        DenseMatrix A = rand(5,4);
+        DenseMatrix B = rand(5,4).add(0.5);
+        DenseMatrix C = new DenseMatrix(A);
+        double[] storage = C.values;
+        assertTrue(C.subi(B).muli(A).addi(1) == C);
+        assertTrue(storage == C.values);
+        assertTrue(C.equals(A.sub(B).mul(A).add(1)));
+        assertTrue(new DenseMatrix(A).negi().equals(A.neg()));
+        assertTrue(new DenseMatrix(B).recpri().equals(B.recpr()));
+        assertTrue(new DenseMatrix(A).subi(0.5).absi().equals(A.sub(0.5).abs()));
+        assertTrue(new DenseMatrix(A).sqrti().equals(A.sqrt()));
+        assertTrue(new DenseMatrix(A).expi().equals(A.exp()));
+        assertTrue(new DenseMatrix(B).logi().equals(B.log()));
+        assertTrue(new DenseMatrix(A).powi(3).equals(A.pow(3)));
+        assertTrue(new DenseMatrix(A).muli(3).divi(2).equals(A.mul(3).div(2)));
+        assertTrue(new DenseMatrix(A).maxi(0.5).equals(A.max(0.5)));
+        assertTrue(new DenseMatrix(A).mini(0.5).equals(A.min(0.5)));
+        assertTrue(new DenseMatrix(A).maxi(B).equals(A.max(B)));
+        assertTrue(new DenseMatrix(A).mini(B).equals(A.min(B)));
+        assertTrue(new DenseMatrix(A).divi(B).equals(A.div(B)));
+        DenseMatrix out = zeros(5,4);
+        assertTrue(A.addInto(B, out) == out);
+        assertTrue(out.equals(A.add(B)));
+        A.mulInto(B, out);
+        assertTrue(out.equals(A.mul(B)));
+        DenseMatrix D = new DenseMatrix(A);
+        B.subInto(D, D); // out may be second
+        assertTrue(D.equals(B.sub(A)));
+        assertTrue(zeros(5,4).assign(A).equals(A));
+        assertTrue(zeros(2,2).fill(3).equals(ones(2,2).mul(3)));
+        try {
+            A.addi(zeros(4,5));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testLazy() {
+        DenseMatrix a = rand(37,29);
+        DenseMatrix b = rand(37,29);
+        DenseMatrix c = rand(37,29);
+        assertTrue(a.lazy().sub(b).mul(c).exp().add(1.0).eval().equals(a.sub(b).mul(c).exp().add(1.0)));
+        // nested expressions on both sides
+        DenseMatrix expected = a.add(b).div(c.add(1)).sub(a.mul(b).max(0.3)).abs().sqrt();
+        assertTrue(a.lazy().add(b).div(c.lazy().add(1)).sub(a.lazy().mul(b).max(0.3)).abs().sqrt().eval().equals(expected));
+        assertTrue(a.lazy().neg().recpr().pow(2).log().eval().equals(a.neg().recpr().pow(2).log()));
+        assertTrue(a.lazy().rsub(1).rdiv(2).min(b).eval().equals(ones(37,29).sub(a).recpr().mul(2).min(b)));
+        DenseMatrix big = rand(1000,3);
+        assertTrue(big.lazy().mul(big).sub(0.5).eval().equals(big.mul(big).sub(0.5)));
+        // evaluating into one of the inputs is fine
+        DenseMatrix d = new DenseMatrix(a);
+        d.lazy().mul(b).add(d).evalInto(d);
+        assertTrue(d.equals(a.mul(b).add(a)));
+        // not per-element, so falls back to eager
+        assertTrue(a.lazy().mul(2).mmul(b.t()).equals(a.mul(2).mmul(b.t())));
+        assertTrue(a.lazy().mul(2).sum().equals(a.mul(2).sum()));
+        assertTrue(zeros(0,3).lazy().add(1).eval().equals(zeros(0,3)));
+        try {
+            a.lazy().add(zeros(3,3));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testKernels() {
+        // the plain java kernels, vs whichever the jvm is using
+        Kernels scalar = new Kernels();
+        Kernels kernels = Kernels.instance;
+        int n = 1001; // not a multiple of any vector length
+        double[] a = new double[n];
+        double[] b = new double[n];
+        for( int i = 0; i < n; i++ ) {
+            a[i] = Math.floor(Math.random() * 8) - 4;
+            b[i] = Math.floor(Math.random() * 8) - 4;
+        }
+        a[3] = Double.NaN;
+        b[10] = Double.NaN;
+        a[20] = -0.0;
+        b[20] = 0.0;
+        for( int op = Kernels.ADD; op <= Kernels.GE; op++ ) {
+            double[] expected = new double[n];
+            double[] actual = new double[n];
+            scalar.binary(op, a, b, expected, 5, n);
+            kernels.binary(op, a, b, actual, 5, n);
+            assertTrue("binary " + op, Arrays.equals(expected, actual));
+            scalar.scalar(op, a, 1.0, expected, 0, n);
+            kernels.scalar(op, a, 1.0, actual, 0, n);
+            assertTrue("scalar " + op, Arrays.equals(expected, actual));
+        }
+        double[] expectedPow = new double[n];
+        double[] actualPow = new double[n];
+        scalar.scalar(Kernels.POW, a, 3, expectedPow, 0, n);
+        kernels.scalar(Kernels.POW, a, 3, actualPow, 0, n);
+        assertTrue(Arrays.equals(expectedPow, actualPow));
+        for( int op = Kernels.NEG; op <= Kernels.LOG; op++ ) {
+            double[] expected = new double[n];
+            double[] actual = new double[n];
+            scalar.unary(op, a, expected, 0, n);
+            kernels.unary(op, a, actual, 0, n);
+            assertTrue("unary " + op, Arrays.equals(expected, actual));
+        }
+        assertEquals(scalar.reduce(Kernels.ADD, b, 11, n), kernels.reduce(Kernels.ADD, b, 11, n), 0.000001);
+        assertEquals(scalar.reduce(Kernels.MAX, b, 11, n), kernels.reduce(Kernels.MAX, b, 11, n));
+        assertEquals(scalar.reduce(Kernels.MIN, b, 11, n), kernels.reduce(Kernels.MIN, b, 11, n));
+        assertTrue(Double.isNaN(kernels.reduce(Kernels.MAX, a, 0, n)));
+        assertEquals(Double.NEGATIVE_INFINITY, kernels.reduce(Kernels.MAX, a, 4, 4));
+        for( int op = Kernels.ADD; op <= Kernels.MIN; op++ ) {
+            if( op == Kernels.SUB || op == Kernels.MUL || op == Kernels.DIV ) {
+                continue;
+            }
+            double[] expected = b.clone();
+            double[] actual = b.clone();
+            scalar.accumulate(op, expected, 7, a, 100, 500);
+            kernels.accumulate(op, actual, 7, a, 100, 500);
+            assertTrue("accumulate " + op, Arrays.equals(expected, actual));
+        }
+
+        // and via DenseMatrix
+        DenseMatrix m = new DenseMatrix("1 -2 3; 4 5 -6; -7 8 9");
+        assertTrue(m.gt(0).equals(new DenseMatrix("1 0 1; 1 1 0; 0 1 1")));
+        assertTrue(m.le(m.t()).equals(new DenseMatrix("1 1 0; 0 1 1; 1 0 1")));
+        assertTrue(m.max(m.t()).equals(new DenseMatrix("1 4 3; 4 5 8; 3 8 9")));
+        assertTrue(m.sumOverRows().equals(new DenseMatrix("-2 11 6")));
+        assertTrue(m.sumOverCols().equals(new DenseMatrix("2; 3; 10")));
+        assertTrue(m.maxOverRows().equals(new DenseMatrix("4 8 9")));
+        assertTrue(m.maxOverCols().equals(new DenseMatrix("3; 5; 9")));
+        assertTrue(m.minOverRows().equals(new DenseMatrix("-7 -2 -6")));
+        assertTrue(m.minOverCols().equals(new DenseMatrix("-2; -6; -7")));
+        DenseMatrix big = rand(1003,7);
+        assertEquals(big.sum().sum().s(), big.t().sum().sum().s(), 0.000001);
+        assertEquals(big.maxOverRows().maxOverCols().s(), big.t().maxOverCols().maxOverRows().s());
+    }
+    public void testParallel() {
+        int oldThreads = Jeigen.getParallelThreads();
+        long oldThreshold = Jeigen.getParallelThreshold();
+        try {
+            // long columns, short columns, one row, and one column
+            DenseMatrix[] inputs = new DenseMatrix[]{ rand(70001,3), rand(5,30001), rand(1,100003), rand(100003,1) };
+            for( DenseMatrix a : inputs ) {
+                DenseMatrix b = rand(a.rows, a.cols);
+                Jeigen.setParallelThreads(1);
+                DenseMatrix[] expected = parallelOps(a, b);
+                Jeigen.setParallelThreads(4);
+                Jeigen.setParallelThreshold(0);
+                assertTrue(Parallel.isParallel(a.rows * a.cols));
+                DenseMatrix[] actual = parallelOps(a, b);
+                for( int i = 0; i < expected.length; i++ ) {
+                    // not just close: the same, bit for bit
+                    assertTrue("op " + i + " " + a.shape(), Arrays.equals(expected[i].values, actual[i].values));
+                }
+                Jeigen.setParallelThreshold(oldThreshold);
+            }
+            // sums are near enough to the plain loop
+            DenseMatrix a = rand(5,30001);
+            double sum = 0;
+            for( int i = 0; i < a.rows * a.cols; i++ ) {
+                sum += a.values[i];
+            }
+            assertEquals(sum, a.sumOverCols().sumOverRows().s(), 0.000001);
+            assertEquals(sum, a.sumOverRows().sumOverCols().s(), 0.000001);
+
+            // a pool fetched just before the number of threads changes still runs
+            ForkJoinPool pool = Parallel.getPool();
+            Jeigen.setParallelThreads(Jeigen.getParallelThreads() + 1);
+            assertTrue(pool != Parallel.getPool());
+            final int[] ran = new int[3];
+            pool.invoke(new Parallel.RangeTask(new Parallel.Body() {
+                public void run(int index ) {
+                    ran[index] = 1;
+                }
+            }, 0, 3));
+            assertTrue(Arrays.equals(new int[]{ 1, 1, 1 }, ran));
+        } finally {
+            Jeigen.setParallelThreads(oldThreads);
+            Jeigen.setParallelThreshold(oldThreshold);
+        }
+    }
+    DenseMatrix[] parallelOps(DenseMatrix a, DenseMatrix b ) {
+        return new DenseMatrix[]{ a.exp(), a.log(), a.pow(1.5), a.lt(b), a.ge(0.5), a.add(b), a.max(b),
+            a.sumOverRows(), a.sumOverCols(), a.maxOverRows(), a.maxOverCols(), a.minOverRows(), a.minOverCols(),
+            a.lazy().sub(b).mul(a).exp().eval(), new DenseMatrix(a).muli(b).sqrti() };
+    }
+    public void testViews() {
+        DenseMatrix A = rand(7,6);
+        DenseMatrixView block = A.sliceView(2, 5, 1, 4);
+        assertTrue(block.toDense().equals(A.slice(2, 5, 1, 4)));
+        assertTrue(A.colView(3).toDense().equals(A.col(3)));
+        assertTrue(A.rowView(4).toDense().equals(A.row(4)));
+        assertTrue(A.rowsView(1, 3).toDense().equals(A.rows(1, 3)));
+        assertTrue(A.colsView(2, 6).toDense().equals(A.cols(2, 6)));
+        assertTrue(block.slice(1, 3, 0, 2).toDense().equals(A.slice(3, 5, 1, 3)));
+        assertFalse(block.isContiguous());
+        assertTrue(A.colsView(2, 4).isContiguous());
+        assertEquals(A.get(3, 2), block.get(1, 1));
+
+        // writes go through to the matrix
+        DenseMatrix B = new DenseMatrix(A);
+        DenseMatrixView bBlock = B.sliceView(2, 5, 1, 4);
+        bBlock.set(0, 0, 100);
+        assertEquals(100.0, B.get(2, 1));
+        bBlock.fill(1);
+        assertTrue(B.slice(2, 5, 1, 4).equals(ones(3,3)));
+        assertTrue(B.slice(0, 2, 0, 6).equals(A.slice(0, 2, 0, 6)));
+        bBlock.assign(block).muli(2).addi(A.sliceView(0, 3, 0, 3));
+        assertTrue(B.slice(2, 5, 1, 4).equals(A.slice(2, 5, 1, 4).mul(2).add(A.slice(0, 3, 0, 3))));
+        assertTrue(B.col(0).equals(A.col(0)));
+
+        DenseMatrix C = rand(3,3);
+        assertTrue(block.add(C).equals(A.slice(2, 5, 1, 4).add(C)));
+        assertTrue(block.max(0.5).equals(A.slice(2, 5, 1, 4).max(0.5)));
+        assertTrue(block.div(A.sliceView(0, 3, 3, 6)).equals(A.slice(2, 5, 1, 4).div(A.slice(0, 3, 3, 6))));
+        assertTrue(block.neg().equals(A.slice(2, 5, 1, 4).neg()));
+        assertTrue(block.sumOverRows().equals(A.slice(2, 5, 1, 4).sumOverRows()));
+        assertTrue(block.sumOverCols().equals(A.slice(2, 5, 1, 4).sumOverCols()));
+
+        // mmul, in java and in Eigen, by the FFM or JNA path
+        long threshold = Jeigen.getMmulThreshold();
+        DenseMatrix x = rand(3,2);
+        DenseMatrix expected = A.slice(2, 5, 1, 4).mmul(x);
+        for( long t : new long[]{ 0, Long.MAX_VALUE } ) {
+            Jeigen.setMmulThreshold(t);
+            assertTrue(block.mmul(x).equals(expected));
+            assertTrue(block.mmul(A.sliceView(0, 3, 4, 6)).equals(A.slice(2, 5, 1, 4).mmul(A.slice(0, 3, 4, 6))));
+            assertTrue(A.rowView(1).mmul(A.sliceView(0, 6, 2, 3)).equals(A.row(1).mmul(A.slice(0, 6, 2, 3))));
+            assertTrue(A.mmul(B.sliceView(1, 7, 5, 6)).equals(A.mmul(B.slice(1, 7, 5, 6))));
+            DenseMatrix out = zeros(6,4);
+            block.mmulInto(x, out.sliceView(1, 4, 1, 3));
+            assertTrue(out.slice(1, 4, 1, 3).equals(expected));
+            assertTrue(out.col(0).equals(zeros(6,1)));
+            assertTrue(out.row(5).equals(zeros(1,4)));
+        }
+        Jeigen.setMmulThreshold(threshold);
+        // larger than JeigenFfm.CRITICAL_LIMIT, so copied to native memory on
+        // either backend, as just the span of each view
+        DenseMatrix big = rand(100,300);
+        DenseMatrixView bigBlock = big.sliceView(10, 90, 20, 280);
+        DenseMatrix y = rand(260,40);
+        assertFalse(JeigenNative.passesInPlace(80L * 260 * 40));
+        assertTrue(bigBlock.mmul(y).equals(big.slice(10, 90, 20, 280).mmul(y)));
+        DenseMatrix bigOut = zeros(100,50);
+        bigBlock.mmulInto(y, bigOut.sliceView(5, 85, 3, 43));
+        assertTrue(bigOut.slice(5, 85, 3, 43).equals(big.slice(10, 90, 20, 280).mmul(y)));
+        assertTrue(bigOut.col(2).equals(zeros(100,1)));
+        assertTrue(bigOut.row(85).equals(zeros(1,50)));
+        DenseMatrix square = big.slice(10, 90, 20, 100).add(eye(80).mul(100));
+        DenseMatrix big2 = new DenseMatrix(big);
+        big2.sliceView(10, 90, 20, 100).assign(square);
+        DenseMatrix rhs = rand(80,3);
+        assertTrue(big2.sliceView(10, 90, 20, 100).fullPivHouseholderQRSolve(rhs).equals(square.fullPivHouseholderQRSolve(rhs)));
+        try {
+            block.mmul(rand(2,2));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+        try {
+            A.sliceView(0, 8, 0, 1);
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testTransposeViews() {
+        DenseMatrix A = rand(7,5);
+        assertTrue(A.t().equals(A.tView().toDense()));
+        DenseMatrix big = rand(70,45); // more than one block each way
+        DenseMatrix bigT = big.t();
+        for( int r = 0; r < 70; r++ ) {
+            for( int c = 0; c < 45; c++ ) {
+                assertEquals(big.get(r, c), bigT.get(c, r));
+            }
+        }
+        DenseMatrixView At = A.tView();
+        assertTrue(At.isTransposed());
+        assertEquals(5, At.rows);
+        assertEquals(7, At.cols);
+        assertEquals(A.get(3, 1), At.get(1, 3));
+        assertFalse(At.t().isTransposed());
+        assertTrue(At.t().toDense().equals(A));
+        assertTrue(At.slice(1, 4, 2, 6).toDense().equals(A.t().slice(1, 4, 2, 6)));
+        assertTrue(A.sliceView(2, 6, 1, 4).t().toDense().equals(A.slice(2, 6, 1, 4).t()));
+        assertTrue(At.row(2).toDense().equals(A.col(2).t()));
+        assertTrue(At.add(A.t()).equals(A.t().mul(2)));
+        assertTrue(At.max(0.5).equals(A.t().max(0.5)));
+        assertTrue(At.sumOverRows().equals(A.t().sumOverRows()));
+        assertTrue(At.sumOverCols().equals(A.t().sumOverCols()));
+        DenseMatrix B = new DenseMatrix(A);
+        B.tView().slice(0, 2, 0, 3).fill(7);
+        assertEquals(7.0, B.get(2, 1));
+        assertEquals(A.get(3, 0), B.get(3, 0));
+        B.tView().assign(A.t());
+        assertTrue(B.equals(A));
+
+        // mmul and solves, in java and in Eigen
+        long threshold = Jeigen.getMmulThreshold();
+        DenseMatrix C = rand(7,4);
+        DenseMatrix D = rand(3,7);
+        for( long t : new long[]{ 0, Long.MAX_VALUE } ) {
+            Jeigen.setMmulThreshold(t);
+            assertTrue(A.tView().mmul(C).equals(A.t().mmul(C)));
+            assertTrue(A.view().mmul(D.tView().slice(0, 5, 0, 3)).equals(A.mmul(D.t().slice(0, 5, 0, 3))));
+            assertTrue(A.tView().mmul(D.tView()).equals(A.t().mmul(D.t())));
+            assertTrue(A.sliceView(1, 5, 0, 3).t().mmul(C.sliceView(2, 6, 1, 3)).equals(A.slice(1, 5, 0, 3).t().mmul(C.slice(2, 6, 1, 3))));
+            DenseMatrix out = zeros(6,8);
+            A.tView().mmulInto(C, out.sliceView(1, 6, 2, 6));
+            assertTrue(out.slice(1, 6, 2, 6).equals(A.t().mmul(C)));
+            out = zeros(4,5);
+            A.tView().mmulInto(C, out.tView());
+            assertTrue(out.equals(A.t().mmul(C).t()));
+        }
+        Jeigen.setMmulThreshold(threshold);
+        DenseMatrix P = rand(5,5);
+        P = P.mmul(P.t()).add(eye(5));
+        DenseMatrix b = rand(5,2);
+        assertTrue(P.tView().ldltSolve(b).equals(P.t().ldltSolve(b)));
+        DenseMatrix Q = rand(5,5);
+        assertTrue(Q.tView().fullPivHouseholderQRSolve(b).equals(Q.t().fullPivHouseholderQRSolve(b)));
+        assertTrue(Q.view().fullPivHouseholderQRSolve(b).equals(Q.fullPivHouseholderQRSolve(b)));
+        DenseMatrix R = rand(8,8);
+        assertTrue(R.sliceView(1, 6, 2, 7).t().fullPivHouseholderQRSolve(b).equals(R.slice(1, 6, 2, 7).t().fullPivHouseholderQRSolve(b)));
+        try {
+            A.tView().mmul(rand(5,2));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testDescribe() {
+        DenseMatrix A = rand(600,4).sub(0.5);
+        A.set(3, 1, 0);
+        Description d = describeOverRows(A);
+        assertEquals(600, d.count);
+        DenseMatrix mean = A.sumOverRows().div(600);
+        DenseMatrix centred = A.sub(ones(600,1).mmul(mean));
+        DenseMatrix var = centred.mul(centred).sumOverRows().div(599);
+        assertTrue(d.mean.equals(mean));
+        assertTrue(d.variance.equals(var));
+        assertTrue(d.std.equals(var.sqrt()));
+        assertTrue(d.min.equals(A.minOverRows()));
+        assertTrue(d.max.equals(A.maxOverRows()));
+        assertTrue(A.varOverRows().equals(var));
+
+        Description byCols = describeOverCols(A.t());
+        assertTrue(byCols.mean.equals(mean.t()));
+        assertTrue(byCols.variance.equals(var.t()));
+        assertTrue(byCols.max.equals(A.maxOverRows().t()));
+        assertTrue(A.t().varOverCols().equals(var.t()));
+
+        // sparse, including the zeros
+        SparseMatrixLil S = A.max(0.3).sub(0.3).toSparseLil();
+        DenseMatrix Sd = S.toDense();
+        assertTrue(describeOverRows(S).variance.equals(describeOverRows(Sd).variance));
+        assertTrue(describeOverRows(S).mean.equals(Sd.sumOverRows().div(600)));
+        assertTrue(describeOverRows(S).min.equals(Sd.minOverRows()));
+        assertTrue(describeOverCols(S.t()).variance.equals(describeOverCols(Sd.t()).variance));
+        assertTrue(describeOverCols(S.t()).max.equals(Sd.maxOverRows().t()));
+        // duplicate entries are summed, as in Eigen, and the input is left as it was
+        SparseMatrixLil withDuplicates = new SparseMatrixLil(3, 2);
+        for( int i = 0; i < 4; i++ ) {
+            withDuplicates.append(1, 0, 0.5);
+        }
+        withDuplicates.append(2, 1, -1);
+        withDuplicates.append(2, 1, 1);
+        DenseMatrix duplicatesDense = withDuplicates.toDense();
+        Description duplicates = describeOverRows(withDuplicates);
+        assertTrue(duplicates.mean.equals(duplicatesDense.sumOverRows().div(3)));
+        assertTrue(duplicates.mean.equals(meanOverRows(withDuplicates)));
+        assertTrue(duplicates.variance.equals(describeOverRows(duplicatesDense).variance));
+        assertTrue(duplicates.max.equals(new DenseMatrix("2 0")));
+        assertTrue(duplicates.min.equals(new DenseMatrix("0 0")));
+        assertTrue(describeOverCols(withDuplicates.t()).variance.equals(describeOverCols(duplicatesDense.t()).variance));
+        assertTrue(varOverRows(withDuplicates).equals(describeOverRows(duplicatesDense).variance));
+        assertEquals(6, withDuplicates.getSize());
+
+        // in batches, and merged
+        RunningStatistics running = new RunningStatistics(4);
+        running.add(A.rows(0, 1)).add(A.rows(1, 300));
+        RunningStatistics other = new RunningStatistics(4).add(A.rows(300, 500).toSparseLil());
+        running.merge(other).add(A.rows(500, 600));
+        assertEquals(600, running.getCount());
+        assertTrue(running.describe().mean.equals(mean));
+        assertTrue(running.describe().variance.equals(var));
+        assertTrue(running.describe().min.equals(d.min));
+
+        // large offset, where sum(x^2) - sum(x)^2 / n loses all the digits
+        DenseMatrix B = new DenseMatrix("1e9; 1e9; 1e9").add(new DenseMatrix("4; 7; 13"));
+        assertEquals(21.0, describeOverRows(B).variance.get(0, 0), 1e-6);
+        try {
+            running.add(rand(2,3));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testSortCounting() {
+        Random random = new Random(1);
+        SparseMatrixLil A = new SparseMatrixLil(50, 40);
+        for( int i = 0; i < 3000; i++ ) {
+            A.append(random.nextInt(50), random.nextInt(40), random.nextDouble()); // includes duplicates
+        }
+        SparseMatrixLil expected = A.add(0);
+        expected.sortFast();
+        long threshold = Jeigen.getParallelThreshold();
+        int threads = Jeigen.getParallelThreads();
+        Jeigen.setParallelThreshold(0);
+        for( int numThreads = 1; numThreads <= 3; numThreads++ ) {
+            Jeigen.setParallelThreads(numThreads);
+            SparseMatrixLil B = A.add(0);
+            B.sort();
+            assertEquals(expected.size, B.size);
+            for( int i = 0; i < B.size; i++ ) {
+                assertEquals(expected.rowIdx[i], B.rowIdx[i]);
+                assertEquals(expected.colIdx[i], B.colIdx[i]);
+                assertEquals(expected.values[i], B.values[i]);
+            }
+        }
+        // the per-task histograms take no more than size ints
+        Jeigen.setParallelThreads(16);
+        assertEquals(16, SparseMatrixLilCountingSorter.numTasks(1 << 20, 1000));
+        assertEquals(8, SparseMatrixLilCountingSorter.numTasks(1 << 20, 1 << 17));
+        assertEquals(1, SparseMatrixLilCountingSorter.numTasks(1 << 20, 1 << 20));
+        assertEquals(1, SparseMatrixLilCountingSorter.numTasks(1 << 20, 2 << 20));
+        Jeigen.setParallelThreshold(threshold);
+        Jeigen.setParallelThreads(threads);
+
+        // many more columns than entries
+        SparseMatrixLil C = new SparseMatrixLil(3, 100000);
+        C.append(2, 99999, 1);
+        C.append(1, 5, 2);
+        C.append(0, 5, 3);
+        C.sort();
+        assertEquals(0, C.rowIdx[0]);
+        assertEquals(5, C.colIdx[1]);
+        assertEquals(99999, C.colIdx[2]);
+        assertEquals(1.0, C.values[2]);
+
+        SparseMatrixLil empty = new SparseMatrixLil(5, 5);
+        empty.sort();
+        assertEquals(0, empty.size);
+    }
+    public void testCompact() {
+        SparseMatrixLil A = new SparseMatrixLil(3, 4);
+        A.append(2, 3, 1);
+        A.append(0, 1, 2);
+        A.append(2, 3, 4);
+        A.append(1, 1, 0);
+        A.append(1, 2, 5);
+        A.append(1, 2, -5);
+        A.append(0, 0, 3);
+        assertFalse(A.isCompact());
+        DenseMatrix expected = new DenseMatrix("3 2 0 0; 0 0 0 0; 0 0 0 5");
+        assertTrue(A.toDense().equals(expected)); // duplicates are summed
+        assertTrue(A.toCCS().toDense().equals(expected));
+        assertTrue(A.mmul(eye(4)).equals(expected));
+
+        assertSame(A, A.compact());
+        assertTrue(A.isCompact());
+        assertEquals(3, A.getSize());
+        int[] rows = new int[]{ 0, 0, 2 };
+        int[] cols = new int[]{ 0, 1, 3 };
+        double[] values = new double[]{ 3, 2, 5 };
+        for( int i = 0; i < 3; i++ ) {
+            assertEquals(rows[i], A.getRowIdx(i));
+            assertEquals(cols[i], A.getColIdx(i));
+            assertEquals(values[i], A.getValue(i));
+        }
+        assertTrue(A.toDense().equals(expected));
+        assertTrue(A.mmul(A.t()).equals(expected.mmul(expected.t())));
+        SparseMatrixLil copy = new SparseMatrixLil(3, 4);
+        SparseMatrixLil.copy(A, copy);
+        assertTrue(copy.isCompact());
+        A.append(1, 1, 1);
+        assertFalse(A.isCompact());
+        assertTrue(new SparseMatrixLil("1 0; 0 2").isCompact());
+
+        // only zeros
+        SparseMatrixLil B = new SparseMatrixLil(2, 2);
+        B.append(1, 1, 0);
+        B.append(0, 1, 1);
+        B.append(0, 1, -1);
+        assertEquals(0, B.compact().getSize());
+        try {
+            SparseMatrixLil C = new SparseMatrixLil(2, 2);
+            C.append(0, 0, 1);
+            C.append(0, 2, 1);
+            C.compact();
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testSparseElementwise() {
+        DenseMatrix Ad = rand(20,15).sub(0.6).max(0);
+        DenseMatrix Bd = rand(20,15).sub(0.6).max(0).sub(rand(20,15).gt(0.8).mul(0.5));
+        SparseMatrixLil A = Ad.toSparseLil();
+        SparseMatrixLil B = Bd.toSparseLil().t().t(); // row-major, so needs sorting
+        B.append(3, 4, 1);
+        B.append(3, 4, -1); // duplicates summing to zero
+        int bSize = B.getSize();
+        int[] bRows = Arrays.copyOf(B.getRowIdxs(), bSize);
+        assertTrue(A.add(B).equals(Ad.add(Bd)));
+        // B is left as it was: not sorted, with its duplicates
+        assertFalse(B.isCompact());
+        assertEquals(bSize, B.getSize());
+        assertTrue(Arrays.equals(bRows, Arrays.copyOf(B.getRowIdxs(), bSize)));
+        assertTrue(A.sub(B).equals(Ad.sub(Bd)));
+        assertTrue(A.mul(B).equals(Ad.mul(Bd)));
+        assertTrue(A.max(B).equals(Ad.max(Bd)));
+        assertTrue(A.min(B).equals(Ad.min(Bd)));
+        assertTrue(A.add(B).isCompact());
+        assertTrue(A.sub(A).getSize() == 0);
+        assertEquals(Ad.mul(Bd).ne(0).sum().sum().s(), (double)A.mul(B).getSize());
+
+        DenseMatrix C = rand(20,15).sub(0.5);
+        SparseMatrixLil AC = A.mulSparse(C);
+        assertTrue(AC.equals(Ad.mul(C)));
+        assertEquals(A.getSize(), AC.getSize());
+        assertTrue(AC.isCompact());
+        try {
+            A.add(new SparseMatrixLil(20, 14));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+
+        // in Eigen
+        NativeSparseMatrix nA = A.toNative();
+        NativeSparseMatrix nB = B.toNative();
+        NativeSparseMatrix sum = nA.add(nB);
+        NativeSparseMatrix difference = nA.sub(nB);
+        NativeSparseMatrix product = nA.mul(nB);
+        assertTrue(sum.toDense().equals(Ad.add(Bd)));
+        assertTrue(difference.toDense().equals(Ad.sub(Bd)));
+        assertTrue(product.toDense().equals(Ad.mul(Bd)));
+        // same entries as in java, eg no zeros where A and B cancel
+        assertEquals(A.add(B).getSize(), sum.nonZeros());
+        NativeSparseMatrix zero = nA.sub(nA);
+        assertEquals(0, zero.nonZeros());
+        zero.close();
+        try {
+            nA.cwiseOp(3, nB);
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+            assertTrue(e.getMessage().contains("unknown"));
+        }
+        sum.close();
+        difference.close();
+        product.close();
+        nA.close();
+        nB.close();
+    }
+    public void testSparseMmulJava() {
+        SparseMatrixLil A = rand(30,20).sub(0.8).max(0).toSparseLil();
+        SparseMatrixLil B = rand(20,25).sub(0.7).max(0).toSparseLil();
+        B.append(3, 24, 1); // a dense-ish column, and an empty one
+        DenseMatrix expected = A.toDense().mmul(B.toDense());
+        assertTrue(A.toCCS().mmul(B.toCCS()).toDense().equals(expected));
+        assertEquals("eigen", Jeigen.getSparseMmul());
+        Jeigen.setSparseMmul("java");
+        long threshold = Jeigen.getParallelThreshold();
+        int threads = Jeigen.getParallelThreads();
+        try {
+            SparseMatrixLil single = A.mmul(B);
+            assertTrue(single.equals(expected));
+            Jeigen.setParallelThreshold(0);
+            Jeigen.setParallelThreads(3);
+            SparseMatrixLil parallel = A.mmul(B);
+            assertEquals(single.getSize(), parallel.getSize());
+            for( int i = 0; i < single.getSize(); i++ ) {
+                assertEquals(single.getRowIdx(i), parallel.getRowIdx(i));
+                assertEquals(single.getColIdx(i), parallel.getColIdx(i));
+                assertEquals(single.getValue(i), parallel.getValue(i));
+            }
+            assertTrue(A.cols(0, 20).mmul(B.rows(0, 20)).equals(expected));
+            assertTrue(A.toCCS().mmul(B.toCCS().cols(5, 10)).toDense().equals(expected.cols(5, 10)));
+            assertTrue(speye(30).mmul(A).equals(A));
+        } finally {
+            Jeigen.setSparseMmul("eigen");
+            Jeigen.setParallelThreshold(threshold);
+            Jeigen.setParallelThreads(threads);
+        }
+        try {
+            Jeigen.setSparseMmul("fast");
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testSparseCRS() {
+        SparseMatrixLil A = rand(40,30).sub(0.8).max(0).toSparseLil();
+        for( int c = 0; c < 30; c++ ) {
+            A.append(7, c, 1); // one long row
+        }
+        DenseMatrix Ad = A.toDense();
+        SparseMatrixCRS crs = A.toCRS();
+        assertEquals(A.compact().getSize(), crs.nonZeros());
+        assertTrue(crs.toDense().equals(Ad));
+        assertTrue(crs.toCCS().toDense().equals(Ad));
+        assertTrue(A.toCCS().toCRS().toDense().equals(Ad));
+        DenseMatrix x = rand(30,1);
+        DenseMatrix X = rand(30,5);
+        DenseMatrix y = crs.mmul(x);
+        DenseMatrix Y = crs.mmul(X);
+        assertTrue(y.equals(Ad.mmul(x)));
+        assertTrue(Y.equals(Ad.mmul(X)));
+        long threshold = Jeigen.getParallelThreshold();
+        int threads = Jeigen.getParallelThreads();
+        try {
+            Jeigen.setParallelThreshold(0);
+            for( int numThreads = 2; numThreads <= 4; numThreads++ ) {
+                Jeigen.setParallelThreads(numThreads);
+                DenseMatrix out = zeros(40,1);
+                assertSame(out, crs.mmulInto(x, out));
+                assertTrue(Arrays.equals(y.getValues(), out.getValues())); // bit for bit
+                assertTrue(Arrays.equals(Y.getValues(), crs.mmul(X).getValues()));
+                assertEquals(numThreads + 1, crs.getTaskStarts(numThreads).length);
+            }
+        } finally {
+            Jeigen.setParallelThreshold(threshold);
+            Jeigen.setParallelThreads(threads);
+        }
+        try {
+            crs.mmul(rand(40,1));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+    }
+    public void testDenseFactorization() {
+        DenseMatrix R = rand(6,6);
+        DenseMatrix A = R.t().mmul(R).add(eye(6)); // positive definite
+        DenseMatrix b = rand(6,3);
+        DenseMatrix expected = A.ldltSolve(b);
+        int liveBefore = Jeigen.getNumLiveHandles();
+        DenseFactorization[] factorizations = new DenseFactorization[]{ A.ldlt(), A.llt(), A.partialPivLu(), A.colPivQr() };
+        assertEquals(liveBefore + factorizations.length, Jeigen.getNumLiveHandles());
+        double determinant = factorizations[0].determinant();
+        assertTrue(determinant > 0);
+        for( DenseFactorization factorization : factorizations ) {
+            assertTrue(factorization.solve(b).equals(expected));
+            DenseMatrix x = zeros(6,1);
+            assertSame(x, factorization.solveInto(b.col(1), x));
+            assertTrue(x.equals(expected.col(1)));
+            assertEquals(determinant, factorization.determinant(), 1e-8 * determinant);
+            assertEquals(Math.log(determinant), factorization.logDeterminant(), 1e-8);
+            factorization.close();
+            factorization.close();
+            assertTrue(factorization.isClosed());
+        }
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+
+        // negative determinant, with pivoting
+        DenseMatrix C = new DenseMatrix("0 2 1; 1 0 0; 3 1 2");
+        DenseFactorization lu = C.partialPivLu();
+        DenseFactorization qr = C.colPivQr();
+        try {
+            assertEquals(-3, lu.determinant(), 1e-10);
+            assertEquals(-3, qr.determinant(), 1e-10);
+            assertEquals(Math.log(3), qr.logDeterminant(), 1e-10);
+            assertTrue(C.mmul(qr.solve(b.rows(0,3))).equals(b.rows(0,3)));
+        } finally {
+            lu.close();
+            qr.close();
+        }
+
+        // least squares
+        DenseMatrix T = rand(8,3);
+        DenseFactorization tallQr = T.colPivQr();
+        try {
+            assertTrue(tallQr.solve(T.mmul(b.rows(0,3))).equals(b.rows(0,3)));
+            tallQr.determinant();
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        } finally {
+            tallQr.close();
+        }
+        try {
+            tallQr.solve(rand(8,1));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+        try {
+            C.llt();
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+        try {
+            T.ldlt();
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        }
+
+        // close while other threads are solving: each solve either finishes, or
+        // sees the factorization closed
+        final DenseMatrix bigB = rand(200,50);
+        final DenseFactorization shared = rand(200,200).add(eye(200).mul(200)).partialPivLu();
+        final DenseMatrix sharedExpected = shared.solve(bigB);
+        final int[] failures = new int[1];
+        Thread[] threads = new Thread[3];
+        for( int t = 0; t < threads.length; t++ ) {
+            threads[t] = new Thread() {
+                public void run() {
+                    for( int i = 0; i < 200; i++ ) {
+                        try {
+                            if( !shared.solve(bigB).equals(sharedExpected) ) {
+                                synchronized( failures ) {
+                                    failures[0]++;
+                                }
+                            }
+                        } catch( RuntimeException e ) {
+                            if( !e.getMessage().contains("closed") ) {
+                                synchronized( failures ) {
+                                    failures[0]++;
+                                }
+                            }
+                            return;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        shared.close();
+        for( Thread thread : threads ) {
+            try {
+                thread.join();
+            } catch( InterruptedException e ) {
+                throw new RuntimeException(e);
+            }
+        }
+        assertEquals(0, failures[0]);
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+    }
+    public void testSparseSolver() {
+        // 2d laplacian on a 6 * 6 grid, plus the identity: positive definite
+        int n = 6;
+        SparseMatrixLil A = new SparseMatrixLil(n * n, n * n);
+        for( int i = 0; i < n; i++ ) {
+            for( int j = 0; j < n; j++ ) {
+                int k = i * n + j;
+                A.append(k, k, 5);
+                if( i > 0 ) { A.append(k, k - n, -1); A.append(k - n, k, -1); }
+                if( j > 0 ) { A.append(k, k - 1, -1); A.append(k - 1, k, -1); }
+            }
+        }
+        DenseMatrix Ad = A.toDense();
+        DenseMatrix b = rand(n * n, 2);
+        int liveBefore = Jeigen.getNumLiveHandles();
+        SparseSolver[] solvers = new SparseSolver[]{ SparseSolver.ldlt(), SparseSolver.llt(), SparseSolver.lu(), SparseSolver.qr() };
+        for( SparseSolver solver : solvers ) {
+            try {
+                solver.solve(b);
+                assertTrue(false);
+            } catch( RuntimeException e ) {
+            }
+            solver.analyzePattern(A);
+            assertTrue(solver.isAnalyzed());
+            assertFalse(solver.isFactorized());
+            solver.factorize(A);
+            assertTrue(solver.solve(b).equals(Ad.ldltSolve(b)));
+            // same pattern, new values
+            SparseMatrixLil A2 = A.mul(2);
+            solver.factorize(A2);
+            DenseMatrix x = zeros(n * n, 2);
+            assertSame(x, solver.solveInto(b, x));
+            assertTrue(A2.toDense().mmul(x).equals(b));
+            try {
+                solver.factorize(A.add(sprand(n * n, n * n))); // different pattern
+                assertTrue(false);
+            } catch( RuntimeException e ) {
+            }
+            solver.close();
+            solver.close();
+            assertTrue(solver.isClosed());
+        }
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+
+        // explicit zeros keep the pattern, if passed as compressed columns
+        SparseMatrixCCS ccs = A.toCCS();
+        SparseSolver lu = SparseSolver.lu();
+        try {
+            lu.analyzePattern(ccs);
+            double[] values = ccs.getValues().clone();
+            for( int i = 0; i < values.length; i++ ) {
+                if( ccs.getInnerIndex(i) == 0 && values[i] < 0 ) {
+                    values[i] = 0;
+                }
+            }
+            SparseMatrixCCS withZeros = new SparseMatrixCCS(ccs.rows, ccs.cols, ccs.getOuterStarts(), ccs.getInnerIndices(), values);
+            lu.factorize(withZeros);
+            assertTrue(withZeros.toDense().mmul(lu.solve(b)).equals(b));
+        } finally {
+            lu.close();
+        }
+
+        // a value that becomes zero after analyzePattern is dropped from a
+        // SparseMatrixLil whatever order its entries are in, so the pattern
+        // changes, and stays in a SparseMatrixCCS
+        SparseMatrixLil sorted = A.add(0);
+        sorted.sort();
+        SparseSolver ldlt = SparseSolver.ldlt().analyzePattern(sorted);
+        try {
+            for( SparseMatrixLil withZero : new SparseMatrixLil[]{ new SparseMatrixLil(sorted.rows, sorted.cols), A.t().t() } ) {
+                if( withZero.getSize() == 0 ) {
+                    for( int i = 0; i < sorted.getSize(); i++ ) {
+                        withZero.append(sorted.getRowIdx(i), sorted.getColIdx(i), sorted.getValue(i));
+                    }
+                    assertTrue(withZero.isSortedStrict());
+                }
+                for( int i = 0; i < withZero.getSize(); i++ ) {
+                    if( withZero.getRowIdx(i) == 1 && withZero.getColIdx(i) == 0 ) {
+                        withZero.getValues()[i] = 0;
+                    }
+                }
+                int size = withZero.getSize();
+                try {
+                    ldlt.factorize(withZero);
+                    assertTrue(false);
+                } catch( RuntimeException e ) {
+                    assertTrue(e.getMessage().contains("pattern"));
+                }
+                assertEquals(size, withZero.getSize()); // compacted a copy
+            }
+            SparseMatrixCCS zeroKept = new SparseMatrixCCS(sorted.rows, sorted.cols, sorted.toCCS().getOuterStarts(),
+                sorted.toCCS().getInnerIndices(), sorted.toCCS().getValues().clone());
+            for( int c = 0; c < 2; c++ ) {
+                for( int i = zeroKept.colStart(c); i < zeroKept.colEnd(c); i++ ) {
+                    if( zeroKept.getInnerIndex(i) == 1 - c ) {
+                        zeroKept.getValues()[i] = 0; // (1,0) and (0,1), so still symmetric
+                    }
+                }
+            }
+            ldlt.factorize(zeroKept);
+            assertTrue(zeroKept.toDense().mmul(ldlt.solve(b)).equals(b));
+        } finally {
+            ldlt.close();
+        }
+
+        // least squares
+        SparseMatrixLil T = sprand(40, 10);
+        SparseSolver qr = SparseSolver.qr().compute(T);
+        try {
+            DenseMatrix x = rand(10, 1);
+            assertTrue(qr.solve(T.mmul(x)).equals(x));
+        } finally {
+            qr.close();
+        }
+        SparseSolver llt = SparseSolver.llt();
+        try {
+            llt.compute(A.mul(-1));
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+            assertFalse(llt.isFactorized());
+        } finally {
+            llt.close();
+        }
+        SparseSolver tallLu = SparseSolver.lu();
+        try {
+            tallLu.analyzePattern(T);
+            assertTrue(false);
+        } catch( RuntimeException e ) {
+        } finally {
+            tallLu.close();
+        }
+        assertEquals(liveBefore, Jeigen.getNumLiveHandles());
+    }
 }
@@ -405,5 +405,252 @@ public class TestJeigenPerf extends TestCase {
         toc();
         System.out.println(B.slice(0, 100, 0, 10));
     }
+    // per-call latency of jna vs ffm, on the dummy ops, which do no work
+    // ffm needs java 22 or later
+    public void testBackendLatency() {
+        int reps = 100000;
+        for( int n : new int[]{ 1, 4, 16, 64 } ) {
+            double[] a = new double[n * n];
+            double[] b = new double[n * n];
+            double[] result = new double[n * n];
+            for( int trial = 0; trial < 3; trial++ ) {
+                long start = System.nanoTime();
+                for( int i = 0; i < reps; i++ ) {
+                    JeigenJna.Jeigen.dense_dummy_op2(n, n, n, a, b, result);
+                }
+                long jnaNanos = System.nanoTime() - start;
+                start = System.nanoTime();
+                for( int i = 0; i < reps; i++ ) {
+                    JeigenJna.Jeigen.dense_dummy_op1(n, n, a, result);
+                }
+                long jnaNanos1 = System.nanoTime() - start;
+                String line = "n=" + n + " jna op2 " + ( jnaNanos / reps ) + "ns op1 " + ( jnaNanos1 / reps ) + "ns";
+                if( JeigenFfm.isAvailable() ) {
+                    start = System.nanoTime();
+                    for( int i = 0; i < reps; i++ ) {
+                        JeigenFfm.dense_dummy_op2(n, n, n, a, b, result);
+                    }
+                    long ffmNanos = System.nanoTime() - start;
+                    start = System.nanoTime();
+                    for( int i = 0; i < reps; i++ ) {
+                        JeigenFfm.dense_dummy_op1(n, n, a, result);
+                    }
+                    long ffmNanos1 = System.nanoTime() - start;
+                    line += ", ffm op2 " + ( ffmNanos / reps ) + "ns op1 " + ( ffmNanos1 / reps ) + "ns";
+                } else {
+                    line += ", ffm not available: " + JeigenFfm.failure;
+                }
+                System.out.println(line);
+            }
+        }
+    }
+    // eager chain creates a temporary per step; lazy does one pass
+    public void testLazyPerf() {
+        DenseMatrix a = rand(2000,2000);
+        DenseMatrix b = rand(2000,2000);
+        DenseMatrix c = rand(2000,2000);
+        for( int i = 0; i < 5; i++ ) {
+            tic();
+            a.sub(b).mul(c).add(1.0).max(1.1);
+            toc("eager");
+            tic();
+            a.lazy().sub(b).mul(c).add(1.0).max(1.1).eval();
+            toc("lazy");
+        }
+    }
+    public void testKernelsPerf() {
+        // run with --add-modules jdk.incubator.vector to compare against the vector kernels
+        System.out.println("kernels: " + Jeigen.getKernels());
+        Kernels scalar = new Kernels();
+        Kernels kernels = Kernels.instance;
+        int n = 1000000;
+        double[] a = rand(n,1).values;
+        double[] b = rand(n,1).values;
+        double[] out = new double[n];
+        int[] ops = new int[]{ Kernels.ADD, Kernels.MAX, Kernels.LT };
+        String[] names = new String[]{ "add", "max", "lt" };
+        for( int it = 0; it < 5; it++ ) {
+            for( int j = 0; j < ops.length; j++ ) {
+                tic();
+                for( int i = 0; i < 100; i++ ) {
+                    scalar.binary(ops[j], a, b, out, 0, n);
+                }
+                toc("scalar " + names[j] + " x100");
+                tic();
+                for( int i = 0; i < 100; i++ ) {
+                    kernels.binary(ops[j], a, b, out, 0, n);
+                }
+                toc(kernels.getName() + " " + names[j] + " x100");
+            }
+            double sum = 0;
+            tic();
+            for( int i = 0; i < 100; i++ ) {
+                sum += scalar.reduce(Kernels.ADD, a, 0, n);
+            }
+            toc("scalar sum x100");
+            tic();
+            for( int i = 0; i < 100; i++ ) {
+                sum += kernels.reduce(Kernels.ADD, a, 0, n);
+            }
+            toc(kernels.getName() + " sum x100");
+            tic();
+            for( int i = 0; i < 100; i++ ) {
+                sum += scalar.reduce(Kernels.MAX, a, 0, n);
+            }
+            toc("scalar max x100");
+            tic();
+            for( int i = 0; i < 100; i++ ) {
+                sum += kernels.reduce(Kernels.MAX, a, 0, n);
+            }
+            toc(kernels.getName() + " max x100");
+            System.out.println(sum);
+        }
+    }
+    public void testParallelPerf() {
+        DenseMatrix a = rand(4000,4000);
+        int numThreads = Jeigen.getParallelThreads();
+        System.out.println("parallel threads: " + numThreads);
+        for( int it = 0; it < 3; it++ ) {
+            for( int threads = 1; threads <= numThreads; threads = threads == numThreads ? threads + 1 : numThreads ) {
+                Jeigen.setParallelThreads(threads);
+                tic();
+                a.exp();
+                toc(threads + " threads exp");
+                tic();
+                a.lt(0.5);
+                toc(threads + " threads lt");
+                tic();
+                a.sumOverCols();
+                toc(threads + " threads sumOverCols");
+            }
+        }
+        Jeigen.setParallelThreads(0);
+    }
+    public void testTransposePerf() {
+        DenseMatrix a = rand(3000,3000);
+        DenseMatrix b = rand(3000,100);
+        for( int it = 0; it < 3; it++ ) {
+            tic();
+            DenseMatrix naive = new DenseMatrix(a.cols, a.rows);
+            for( int r = 0; r < a.rows; r++ ) {
+                for( int c = 0; c < a.cols; c++ ) {
+                    naive.set(c, r, a.get(r, c));
+                }
+            }
+            toc("naive transpose");
+            tic();
+            a.t();
+            toc("blocked transpose");
+            tic();
+            a.t().mmul(b);
+            toc("a.t().mmul(b)");
+            tic();
+            a.tView().mmul(b);
+            toc("a.tView().mmul(b)");
+        }
+    }
+    public void testSortCountingPerf() {
+        SparseMatrixLil A = sprand(1000,5000).t(); // row-major, so every entry moves
+        for( int it = 0; it < 3; it++ ) {
+            SparseMatrixLil B = A.add(0);
+            tic();
+            B.sortFast();
+            toc("sortFast");
+            B = A.add(0);
+            tic();
+            B.sortInplace();
+            toc("sortInplace");
+            B = A.add(0);
+            tic();
+            B.sortCounting();
+            toc("sortCounting");
+        }
+    }
+    /**
+     * n * n matrix with about n * degree entries, whose row and column
+     * counts roughly follow a power law, like a graph
+     */
+    static SparseMatrixLil powerLaw(int n, int degree, long seed ) {
+        java.util.Random random = new java.util.Random(seed);
+        SparseMatrixLil result = new SparseMatrixLil(n, n);
+        result.reserve(n * degree);
+        for( int i = 0; i < n * degree; i++ ) {
+            int row = (int)( n * Math.pow(random.nextDouble(), 2) );
+            int col = (int)( n * Math.pow(random.nextDouble(), 2) );
+            result.append(row, col, random.nextDouble());
+        }
+        return result.compact();
+    }
+    public void testSparseMmulJavaPerf() {
+        SparseMatrixLil A = powerLaw(100000, 4, 1);
+        SparseMatrixLil B = powerLaw(100000, 4, 2);
+        System.out.println("nonzeros " + A.getSize() + " " + B.getSize() + ", threads " + Jeigen.getParallelThreads());
+        for( int it = 0; it < 3; it++ ) {
+            Jeigen.setSparseMmul("eigen");
+            tic();
+            SparseMatrixLil C = A.mmul(B);
+            toc("eigen, result nonzeros " + C.getSize());
+            Jeigen.setSparseMmul("java");
+            tic();
+            C = A.mmul(B);
+            toc("java, result nonzeros " + C.getSize());
+        }
+        Jeigen.setSparseMmul("eigen");
+    }
+    public void testSparseCRSPerf() {
+        SparseMatrixLil A = powerLaw(1000000, 8, 1);
+        SparseMatrixCRS crs = A.toCRS();
+        NativeSparseMatrix nativeA = A.toNative();
+        DenseMatrix x = rand(1000000, 1);
+        DenseMatrix y = zeros(1000000, 1);
+        System.out.println("nonzeros " + A.getSize() + ", threads " + Jeigen.getParallelThreads());
+        for( int it = 0; it < 3; it++ ) {
+            tic();
+            for( int i = 0; i < 10; i++ ) {
+                A.mmulInto(x, y);
+            }
+            toc("10 * SparseMatrixLil.mmulInto");
+            tic();
+            for( int i = 0; i < 10; i++ ) {
+                nativeA.mmulInto(x, y);
+            }
+            toc("10 * NativeSparseMatrix.mmulInto");
+            tic();
+            for( int i = 0; i < 10; i++ ) {
+                crs.mmulInto(x, y);
+            }
+            toc("10 * SparseMatrixCRS.mmulInto");
+        }
+        nativeA.close();
+    }
+    public void testSparseSolverPerf() {
+        // 2d laplacian on a 300 * 300 grid
+        int n = 300;
+        SparseMatrixLil A = new SparseMatrixLil(n * n, n * n);
+        for( int i = 0; i < n; i++ ) {
+            for( int j = 0; j < n; j++ ) {
+                int k = i * n + j;
+                A.append(k, k, 4.01);
+                if( i > 0 ) { A.append(k, k - n, -1); A.append(k - n, k, -1); }
+                if( j > 0 ) { A.append(k, k - 1, -1); A.append(k - 1, k, -1); }
+            }
+        }
+        SparseMatrixCCS ccs = A.toCCS();
+        DenseMatrix b = rand(n * n, 1);
+        DenseMatrix x = zeros(n * n, 1);
+        SparseSolver solver = SparseSolver.ldlt();
+        for( int it = 0; it < 3; it++ ) {
+            tic();
+            for( int i = 0; i < 5; i++ ) {
+                solver.compute(ccs).solveInto(b, x);
+            }
+            toc("5 * analyzePattern, factorize, solve");
+            tic();
+            for( int i = 0; i < 5; i++ ) {
+                solver.factorize(ccs).solveInto(b, x);
+            }
+            toc("5 * factorize, solve");
+        }
+        solver.close();
+    }
 }
-
@@ -0,0 +1,40 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen.statistics;
+
+import jeigen.*;
+
+/**
+ * mean, variance, standard deviation, min and max, as returned by
+ * Statistics.describeOverRows, describeOverCols, and RunningStatistics.describe.
+ * Each is a 1 * cols matrix for describeOverRows, or rows * 1 for
+ * describeOverCols.  variance is the sample variance, ie divided by count - 1,
+ * like varOverRows
+ */
+public final class Description {
+	/**
+	 * number of values each statistic was calculated over
+	 */
+	public final long count;
+	public final DenseMatrix mean;
+	public final DenseMatrix variance;
+	public final DenseMatrix std;
+	public final DenseMatrix min;
+	public final DenseMatrix max;
+
+	public Description(long count, DenseMatrix mean, DenseMatrix variance, DenseMatrix std, DenseMatrix min, DenseMatrix max ) {
+		this.count = count;
+		this.mean = mean;
+		this.variance = variance;
+		this.std = std;
+		this.min = min;
+		this.max = max;
+	}
+	public String toString() {
+		return "Description, count " + count + "\nmean " + mean + "variance " + variance + "std " + std + "min " + min + "max " + max;
+	}
+}
@@ -0,0 +1,237 @@
+// Copyright Hugh Perkins 2012, hughperkins -at- gmail
+//
+// This Source Code Form is subject to the terms of the Mozilla Public License,
+// v. 2.0. If a copy of the MPL was not distributed with this file, You can
+// obtain one at http://mozilla.org/MPL/2.0/.
+
+package jeigen.statistics;
+
+import java.util.Arrays;
+
+import jeigen.*;
+
+/**
+ * Mean, variance, min and max of each column, accumulated over batches of
+ * rows, eg as they are read in:
+ *
+ *     RunningStatistics stats = new RunningStatistics(numCols);
+ *     while( ... ) {
+ *         stats.add(batch); // any number of rows, numCols columns
+ *     }
+ *     Description description = stats.describe();
+ *
+ * Each batch is read once.  The variance uses Welford's update, in the form
+ * that combines a block of values at a time (Chan et al): the mean and the
+ * sum of squared differences from the mean of each block are calculated
+ * while the block is in cache, then merged into the running totals.  This
+ * avoids the cancellation of sum(x^2) - sum(x)^2 / n.
+ *
+ * Sparse batches are compacted first, into a copy if they arent already
+ * compact, so duplicate entries for the same element are summed, as in Eigen.
+ */
+public class RunningStatistics {
+	static final int BLOCK_SIZE = 256;
+
+	final int cols;
+	long count = 0;
+	final double[] mean;
+	final double[] m2; // sum of squared differences from the mean
+	final double[] min;
+	final double[] max;
+
+	public RunningStatistics(int cols ) {
+		if( cols < 0 ) {
+			throw new RuntimeException("cols must be at least 0, but was " + cols );
+		}
+		this.cols = cols;
+		mean = new double[cols];
+		m2 = new double[cols];
+		min = new double[cols];
+		max = new double[cols];
+		Arrays.fill(min, Double.POSITIVE_INFINITY);
+		Arrays.fill(max, Double.NEGATIVE_INFINITY);
+	}
+	/**
+	 * number of rows added so far
+	 */
+	public long getCount() {
+		return count;
+	}
+	public int getCols() {
+		return cols;
+	}
+	void checkCols(int batchCols ) {
+		if( batchCols != cols ) {
+			throw new RuntimeException("batch has " + batchCols + " columns, but expected " + cols );
+		}
+	}
+	/**
+	 * merges a group of nB values, with mean meanB and sum of squared
+	 * differences m2B, into the statistics of column c, which so far cover
+	 * count values
+	 */
+	final void combine(int c, long nB, double meanB, double m2B, double minB, double maxB ) {
+		if( nB == 0 ) {
+			return;
+		}
+		double n = count + nB;
+		double delta = meanB - mean[c];
+		mean[c] += delta * ( nB / n );
+		m2[c] += m2B + delta * delta * ( count * ( nB / n ) );
+		min[c] = Math.min(min[c], minB);
+		max[c] = Math.max(max[c], maxB);
+	}
+	/**
+	 * adds each row of batch, which must have getCols() columns.  Returns this
+	 */
+	public RunningStatistics add(DenseMatrix batch ) {
+		checkCols(batch.cols);
+		double[] values = batch.getValues();
+		int rows = batch.rows;
+		for( int c = 0; c < cols; c++ ) {
+			int colStart = c * rows;
+			long n = count;
+			double colMean = mean[c];
+			double colM2 = m2[c];
+			double colMin = min[c];
+			double colMax = max[c];
+			for( int blockStart = 0; blockStart < rows; blockStart += BLOCK_SIZE ) {
+				int start = colStart + blockStart;
+				int end = colStart + Math.min(rows, blockStart + BLOCK_SIZE);
+				double sum = 0;
+				for( int i = start; i < end; i++ ) {
+					sum += values[i];
+				}
+				int nB = end - start;
+				double blockMean = sum / nB;
+				double blockM2 = 0;
+				for( int i = start; i < end; i++ ) {
+					double x = values[i];
+					double diff = x - blockMean;
+					blockM2 += diff * diff;
+					colMin = Math.min(colMin, x);
+					colMax = Math.max(colMax, x);
+				}
+				double total = n + nB;
+				double delta = blockMean - colMean;
+				colMean += delta * ( nB / total );
+				colM2 += blockM2 + delta * delta * ( n * ( nB / total ) );
+				n += nB;
+			}
+			mean[c] = colMean;
+			m2[c] = colM2;
+			min[c] = colMin;
+			max[c] = colMax;
+		}
+		count += rows;
+		return this;
+	}
+	/**
+	 * adds each row of batch, which must have getCols() columns, including
+	 * its zeros.  Returns this
+	 */
+	public RunningStatistics add(SparseMatrixLil batch ) {
+		checkCols(batch.cols);
+		batch = batch.compacted(); // each element once, see addSparse
+		return addSparse(batch.getColIdxs(), batch.getValues(), batch.getSize(), batch.rows);
+	}
+	/**
+	 * adds each column of batch, which must have getCols() rows, ie the
+	 * transpose of add.  Used by Statistics.describeOverCols
+	 */
+	RunningStatistics addColumns(DenseMatrix batch ) {
+		checkCols(batch.rows);
+		double[] values = batch.getValues();
+		for( int c = 0; c < batch.cols; c++ ) {
+			count++;
+			double inverseCount = 1.0 / count;
+			int offset = c * cols;
+			for( int r = 0; r < cols; r++ ) {
+				double x = values[offset + r];
+				double delta = x - mean[r];
+				mean[r] += delta * inverseCount;
+				m2[r] += delta * ( x - mean[r] );
+				min[r] = Math.min(min[r], x);
+				max[r] = Math.max(max[r], x);
+			}
+		}
+		return this;
+	}
+	RunningStatistics addColumns(SparseMatrixLil batch ) {
+		checkCols(batch.rows);
+		batch = batch.compacted();
+		return addSparse(batch.getRowIdxs(), batch.getValues(), batch.getSize(), batch.cols);
+	}
+	/**
+	 * adds numAdded values to each statistic: the entries whose key is that
+	 * statistic's index, and zeros for the rest.  There must be at most one
+	 * entry per element
+	 */
+	RunningStatistics addSparse(int[] keys, double[] values, int size, int numAdded ) {
+		int[] nonZeros = new int[cols];
+		double[] batchMean = new double[cols];
+		double[] batchM2 = new double[cols];
+		double[] batchMin = new double[cols];
+		double[] batchMax = new double[cols];
+		Arrays.fill(batchMin, Double.POSITIVE_INFINITY);
+		Arrays.fill(batchMax, Double.NEGATIVE_INFINITY);
+		for( int i = 0; i < size; i++ ) {
+			int k = keys[i];
+			double x = values[i];
+			nonZeros[k]++;
+			double delta = x - batchMean[k];
+			batchMean[k] += delta / nonZeros[k];
+			batchM2[k] += delta * ( x - batchMean[k] );
+			batchMin[k] = Math.min(batchMin[k], x);
+			batchMax[k] = Math.max(batchMax[k], x);
+		}
+		for( int k = 0; k < cols; k++ ) {
+			long zeros = numAdded - nonZeros[k];
+			if( zeros > 0 ) {
+				// merge in the zeros, whose mean and m2 are both 0
+				double delta = - batchMean[k];
+				batchMean[k] += delta * ( zeros / (double)numAdded );
+				batchM2[k] += delta * delta * ( nonZeros[k] * ( zeros / (double)numAdded ) );
+				batchMin[k] = Math.min(batchMin[k], 0);
+				batchMax[k] = Math.max(batchMax[k], 0);
+			}
+			combine(k, numAdded, batchMean[k], batchM2[k], batchMin[k], batchMax[k]);
+		}
+		count += numAdded;
+		return this;
+	}
+	/**
+	 * adds the statistics of other, eg accumulated on another thread, to
+	 * this.  Returns this
+	 */
+	public RunningStatistics merge(RunningStatistics other ) {
+		checkCols(other.cols);
+		for( int c = 0; c < cols; c++ ) {
+			combine(c, other.count, other.mean[c], other.m2[c], other.min[c], other.max[c]);
+		}
+		count += other.count;
+		return this;
+	}
+	/**
+	 * returns the statistics of the rows added so far, each as a 1 * cols
+	 * matrix
+	 */
+	public Description describe() {
+		return describe(1, cols);
+	}
+	Description describe(int rows, int cols ) {
+		DenseMatrix meanResult = new DenseMatrix(rows, cols);
+		DenseMatrix variance = new DenseMatrix(rows, cols);
+		DenseMatrix std = new DenseMatrix(rows, cols);
+		DenseMatrix minResult = new DenseMatrix(rows, cols);
+		DenseMatrix maxResult = new DenseMatrix(rows, cols);
+		for( int c = 0; c < this.cols; c++ ) {
+			meanResult.getValues()[c] = mean[c];
+			variance.getValues()[c] = m2[c] / ( count - 1 );
+			std.getValues()[c] = Math.sqrt(variance.getValues()[c]);
+			minResult.getValues()[c] = min[c];
+			maxResult.getValues()[c] = max[c];
+		}
+		return new Description(count, meanResult, variance, std, minResult, maxResult);
+	}
+}
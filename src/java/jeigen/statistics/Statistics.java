@@ -22,16 +22,46 @@ public final class Statistics {
 	public static final DenseMatrix meanOverRows(SparseMatrixLil mat ) {
 		return mat.sumOverRows().div(mat.rows);
 	}
+	// variances are one pass, see RunningStatistics
 	public static final DenseMatrix varOverCols(SparseMatrixLil mat ) {
-		return mat.pow(2).sumOverCols().sub( mat.sumOverCols().pow(2).div(mat.cols) ).div(mat.cols - 1);
+		return describeOverCols(mat).variance;
 	}
 	public static final DenseMatrix varOverRows(SparseMatrixLil mat ) {
-		return mat.pow(2).sumOverRows().sub( mat.sumOverRows().pow(2).div(mat.rows) ).div(mat.rows - 1);
+		return describeOverRows(mat).variance;
 	}
 	public static final DenseMatrix varOverCols(DenseMatrix mat ) {
-		return mat.pow(2).sumOverCols().sub( mat.sumOverCols().pow(2).div(mat.cols) ).div(mat.cols - 1);
+		return describeOverCols(mat).variance;
 	}
 	public static final DenseMatrix varOverRows(DenseMatrix mat ) {
-		return mat.pow(2).sumOverRows().sub( mat.sumOverRows().pow(2).div(mat.rows) ).div(mat.rows - 1);
+		return describeOverRows(mat).variance;
+	}
+	/**
+	 * mean, variance, std, min and max of each column, as 1 * cols matrices,
+	 * in one pass over mat
+	 */
+	public static final Description describeOverRows(DenseMatrix mat ) {
+		return new RunningStatistics(mat.cols).add(mat).describe();
+	}
+	/**
+	 * mean, variance, std, min and max of each row, as rows * 1 matrices,
+	 * in one pass over mat
+	 */
+	public static final Description describeOverCols(DenseMatrix mat ) {
+		return new RunningStatistics(mat.rows).addColumns(mat).describe(mat.rows, 1);
+	}
+	public static final Description describeOverRows(SparseMatrixLil mat ) {
+		return new RunningStatistics(mat.cols).add(mat).describe();
+	}
+	public static final Description describeOverCols(SparseMatrixLil mat ) {
+		return new RunningStatistics(mat.rows).addColumns(mat).describe(mat.rows, 1);
+	}
+	/**
+	 * describeOverRows, or if only one row, describeOverCols, like sum
+	 */
+	public static final Description describe(DenseMatrix mat ) {
+		return mat.rows > 1 ? describeOverRows(mat) : describeOverCols(mat);
+	}
+	public static final Description describe(SparseMatrixLil mat ) {
+		return mat.rows > 1 ? describeOverRows(mat) : describeOverCols(mat);
 	}
 }
@@ -6,8 +6,17 @@
 
 #include <stdexcept>
 #include <iostream>
+#include <algorithm>
+#include <vector>
 using namespace std;
 
+#if defined _WIN32 || defined _WIN64
+#define NOMINMAX
+#include <windows.h>
+#else
+#include <pthread.h>
+#endif
+
 #include "jeigen.h"
 
 #include "Eigen/Dense"
@@ -39,27 +48,367 @@ void matrixToValues( int rows, int cols, const MatrixXd *pM, double *values ) {
     }
 }
 
-const int RESULTS_SIZE = 1000;
-void *data[RESULTS_SIZE];
+// Maps the int handles that we pass back to java onto native objects.
+// Safe to call from several threads at once:
+// - handles are split between NUM_HANDLE_STRIPES stripes, each with its own
+//   lock and free list.  allocate uses the calling thread's stripe, so threads
+//   mostly take different locks; release takes the lock of the handle's stripe
+// - allocate and release are O(1)
+// - lookups take no lock: slots live in fixed-size chunks which never move once
+//   created, so growing the registry never invalidates a slot in use.  Chunk
+//   pointers and slots are written with release stores, and read with
+//   acquire loads, so a lookup sees a fully initialized chunk
+// - allocate returns -1 once MAX_HANDLES handles are live, rather than
+//   handing out a handle that is already in use
+class Mutex {
+public:
+#if defined _WIN32 || defined _WIN64
+    CRITICAL_SECTION criticalSection;
+    Mutex() { InitializeCriticalSection(&criticalSection); }
+    ~Mutex() { DeleteCriticalSection(&criticalSection); }
+    void lock() { EnterCriticalSection(&criticalSection); }
+    void unlock() { LeaveCriticalSection(&criticalSection); }
+#else
+    pthread_mutex_t mutex;
+    Mutex() { pthread_mutex_init(&mutex, 0); }
+    ~Mutex() { pthread_mutex_destroy(&mutex); }
+    void lock() { pthread_mutex_lock(&mutex); }
+    void unlock() { pthread_mutex_unlock(&mutex); }
+#endif
+};
+class MutexLock {
+    Mutex &mutex;
+public:
+    MutexLock(Mutex &mutex) : mutex(mutex) { mutex.lock(); }
+    ~MutexLock() { mutex.unlock(); }
+};
+
+// pointer loads and stores with acquire and release ordering.  We build as
+// c++98, so no std::atomic
+#if defined _WIN32 || defined _WIN64
+inline void *atomicLoad(void *volatile *p) {
+    return *p; // msvc gives volatile reads acquire semantics
+}
+inline void atomicStore(void *volatile *p, void *value) {
+    InterlockedExchangePointer((PVOID volatile *)p, value);
+}
+inline unsigned long currentThreadId() {
+    return (unsigned long)GetCurrentThreadId();
+}
+#else
+inline void *atomicLoad(void **p) {
+    return __atomic_load_n(p, __ATOMIC_ACQUIRE);
+}
+inline void atomicStore(void **p, void *value) {
+    __atomic_store_n(p, value, __ATOMIC_RELEASE);
+}
+inline unsigned long currentThreadId() {
+    return (unsigned long)(size_t)pthread_self();
+}
+#endif
+
+const int NUM_HANDLE_STRIPES = 16;
+const int HANDLE_CHUNK_SIZE = 1024;
+const int MAX_HANDLE_CHUNKS_PER_STRIPE = 1024;
+const int MAX_HANDLES_PER_STRIPE = HANDLE_CHUNK_SIZE * MAX_HANDLE_CHUNKS_PER_STRIPE;
+const int MAX_HANDLES = MAX_HANDLES_PER_STRIPE * NUM_HANDLE_STRIPES;
 
-int storeData_(void *m) {
-    for( int i = 0; i < RESULTS_SIZE; i++ ) {
-        if( data[i] == 0 ) {
-            data[i] = m;
-            return i;
+// handle = slot * NUM_HANDLE_STRIPES + stripe number
+class HandleStripe {
+public:
+    Mutex mutex;
+    void *chunks[MAX_HANDLE_CHUNKS_PER_STRIPE]; // each a void *[HANDLE_CHUNK_SIZE]
+    int numSlots; // number of slots ever handed out, ie high-water mark
+    int numLive;
+    std::vector<int> freeSlots;
+    HandleStripe() : numSlots(0), numLive(0) {
+        for( int i = 0; i < MAX_HANDLE_CHUNKS_PER_STRIPE; i++ ) {
+            chunks[i] = 0;
+        }
+    }
+    ~HandleStripe() {
+        for( int i = 0; i < MAX_HANDLE_CHUNKS_PER_STRIPE; i++ ) {
+            delete[] (void **)chunks[i];
+        }
+    }
+    void **slotPointer( int slot ) {
+        void **chunk = (void **)atomicLoad(&chunks[slot / HANDLE_CHUNK_SIZE]);
+        if( chunk == 0 ) {
+            return 0;
+        }
+        return &chunk[slot % HANDLE_CHUNK_SIZE];
+    }
+    // returns -1 if the stripe is full
+    int allocate( void *p ) {
+        MutexLock lock(mutex);
+        int slot;
+        if( !freeSlots.empty() ) {
+            slot = freeSlots.back();
+            freeSlots.pop_back();
+        } else {
+            if( numSlots >= MAX_HANDLES_PER_STRIPE ) {
+                return -1;
+            }
+            slot = numSlots;
+            int chunk = slot / HANDLE_CHUNK_SIZE;
+            if( chunks[chunk] == 0 ) {
+                void **newChunk = new void *[HANDLE_CHUNK_SIZE];
+                for( int i = 0; i < HANDLE_CHUNK_SIZE; i++ ) {
+                    newChunk[i] = 0;
+                }
+                atomicStore(&chunks[chunk], newChunk);
+            }
+            numSlots++;
+        }
+        atomicStore(slotPointer(slot), p);
+        numLive++;
+        return slot;
+    }
+    void *release( int slot ) {
+        MutexLock lock(mutex);
+        void **pslot = slotPointer(slot);
+        if( pslot == 0 || *pslot == 0 ) {
+            return 0;
+        }
+        void *p = *pslot;
+        atomicStore(pslot, 0);
+        freeSlots.push_back(slot);
+        numLive--;
+        return p;
+    }
+    int getNumLive() {
+        MutexLock lock(mutex);
+        return numLive;
+    }
+};
+
+class HandleRegistry {
+    HandleStripe stripes[NUM_HANDLE_STRIPES];
+public:
+    int allocate( void *p ) {
+        if( p == 0 ) {
+            return -1;
+        }
+        unsigned long id = currentThreadId();
+        int first = (int)( ( id ^ ( id >> 7 ) ^ ( id >> 17 ) ) % NUM_HANDLE_STRIPES );
+        // if our stripe is full, fall back to the others
+        for( int i = 0; i < NUM_HANDLE_STRIPES; i++ ) {
+            int stripe = ( first + i ) % NUM_HANDLE_STRIPES;
+            int slot = stripes[stripe].allocate(p);
+            if( slot >= 0 ) {
+                return slot * NUM_HANDLE_STRIPES + stripe;
+            }
+        }
+        return -1;
+    }
+    // returns 0 if handle isnt live
+    void *get( int handle ) {
+        if( handle < 0 || handle >= MAX_HANDLES ) {
+            return 0;
+        }
+        void **pslot = stripes[handle % NUM_HANDLE_STRIPES].slotPointer(handle / NUM_HANDLE_STRIPES);
+        if( pslot == 0 ) {
+            return 0;
+        }
+        return atomicLoad(pslot);
+    }
+    // removes handle from the registry, and returns what it pointed to,
+    // or 0 if handle wasnt live
+    void *release( int handle ) {
+        if( handle < 0 || handle >= MAX_HANDLES ) {
+            return 0;
+        }
+        return stripes[handle % NUM_HANDLE_STRIPES].release(handle / NUM_HANDLE_STRIPES);
+    }
+    int getNumLive() {
+        int total = 0;
+        for( int i = 0; i < NUM_HANDLE_STRIPES; i++ ) {
+            total += stripes[i].getNumLive();
         }
+        return total;
+    }
+};
+
+HandleRegistry handles;
+
+// Eigen needs initParallel to be called before being used from several
+// threads at once, when built with OpenMP
+class EigenParallelInitializer {
+public:
+    EigenParallelInitializer() {
+        Eigen::initParallel();
     }
-    return 0;
+};
+EigenParallelInitializer eigenParallelInitializer;
+
+// takes ownership of pmat; returns -1, and deletes pmat, if there are no handles left
+int storeSparseMatrix_(SparseMatrix<double> *pmat) {
+    int handle = handles.allocate(pmat);
+    if( handle < 0 ) {
+        delete pmat;
+    }
+    return handle;
 }
 SparseMatrix<double> *getSparseMatrix_(int handle ) {
-    return (SparseMatrix<double> *)(data[handle]);
+    return (SparseMatrix<double> *)(handles.get(handle));
+}
+
+// a dense factorization kept in the native layer, so that it can be used for
+// many solves.  Stored in the handle registry, like sparse matrices
+class DenseFactorization {
+public:
+    int rows;
+    int cols;
+    DenseFactorization(int rows, int cols) : rows(rows), cols(cols) {
+    }
+    virtual ~DenseFactorization() {
+    }
+    virtual bool succeeded() const {
+        return true;
+    }
+    virtual void solve(const Map<MatrixXd> &b, Map<MatrixXd> &x) const = 0;
+    virtual double determinant() const = 0;
+    virtual double logAbsDeterminant() const = 0;
+};
+template<typename Decomposition>
+class DenseFactorizationOf : public DenseFactorization {
+public:
+    Decomposition decomposition;
+    DenseFactorizationOf(const Map<MatrixXd> &a) : DenseFactorization(a.rows(), a.cols()), decomposition(a) {
+    }
+    void solve(const Map<MatrixXd> &b, Map<MatrixXd> &x) const {
+        x = decomposition.solve(b);
+    }
+};
+class LDLTFactorization : public DenseFactorizationOf<LDLT<MatrixXd> > {
+public:
+    LDLTFactorization(const Map<MatrixXd> &a) : DenseFactorizationOf<LDLT<MatrixXd> >(a) {
+    }
+    bool succeeded() const {
+        return decomposition.info() == Success;
+    }
+    // A = P^T L D L^T P, so det(A) = det(D)
+    double determinant() const {
+        return decomposition.vectorD().prod();
+    }
+    double logAbsDeterminant() const {
+        return decomposition.vectorD().array().abs().log().sum();
+    }
+};
+class LLTFactorization : public DenseFactorizationOf<LLT<MatrixXd> > {
+public:
+    LLTFactorization(const Map<MatrixXd> &a) : DenseFactorizationOf<LLT<MatrixXd> >(a) {
+    }
+    bool succeeded() const {
+        return decomposition.info() == Success;
+    }
+    double determinant() const {
+        double diagonalProduct = decomposition.matrixLLT().diagonal().prod();
+        return diagonalProduct * diagonalProduct;
+    }
+    double logAbsDeterminant() const {
+        return 2 * decomposition.matrixLLT().diagonal().array().log().sum();
+    }
+};
+class PartialPivLUFactorization : public DenseFactorizationOf<PartialPivLU<MatrixXd> > {
+public:
+    PartialPivLUFactorization(const Map<MatrixXd> &a) : DenseFactorizationOf<PartialPivLU<MatrixXd> >(a) {
+    }
+    double determinant() const {
+        return decomposition.determinant();
+    }
+    double logAbsDeterminant() const {
+        return decomposition.matrixLU().diagonal().array().abs().log().sum();
+    }
+};
+class ColPivQRFactorization : public DenseFactorizationOf<ColPivHouseholderQR<MatrixXd> > {
+public:
+    ColPivQRFactorization(const Map<MatrixXd> &a) : DenseFactorizationOf<ColPivHouseholderQR<MatrixXd> >(a) {
+    }
+    // det(A) = det(Q) det(R) det(P)^-1, where each householder reflection in
+    // Q, and each swap in P, has determinant -1
+    double determinant() const {
+        double result = decomposition.matrixQR().diagonal().prod();
+        const VectorXd &hCoeffs = decomposition.hCoeffs();
+        for( int i = 0; i < hCoeffs.size(); i++ ) {
+            if( hCoeffs(i) != 0 ) {
+                result = -result;
+            }
+        }
+        const PermutationMatrix<Dynamic,Dynamic> &permutation = decomposition.colsPermutation();
+        int n = permutation.size();
+        std::vector<bool> visited(n, false);
+        for( int i = 0; i < n; i++ ) {
+            int cycleLength = 0;
+            for( int j = i; !visited[j]; j = permutation.indices()(j) ) {
+                visited[j] = true;
+                cycleLength++;
+            }
+            if( cycleLength > 0 && cycleLength % 2 == 0 ) {
+                result = -result;
+            }
+        }
+        return result;
+    }
+    double logAbsDeterminant() const {
+        return decomposition.matrixQR().diagonal().array().abs().log().sum();
+    }
+};
+DenseFactorization *getDenseFactorization_(int handle ) {
+    return (DenseFactorization *)(handles.get(handle));
+}
+
+// a sparse direct solver, whose fill-reducing ordering and symbolic
+// factorization, from analyzePattern, are reused by each factorize
+class SparseSolver {
+public:
+    virtual ~SparseSolver() {
+    }
+    virtual void analyzePattern(const SparseMatrix<double> &a) = 0;
+    virtual void factorize(const SparseMatrix<double> &a) = 0;
+    virtual int info() const = 0;
+    virtual void solve(const Map<MatrixXd> &b, Map<MatrixXd> &x) = 0;
+};
+template<typename Solver>
+class SparseSolverOf : public SparseSolver {
+public:
+    Solver solver;
+    void analyzePattern(const SparseMatrix<double> &a) {
+        solver.analyzePattern(a);
+    }
+    void factorize(const SparseMatrix<double> &a) {
+        solver.factorize(a);
+    }
+    int info() const {
+        return solver.info();
+    }
+    void solve(const Map<MatrixXd> &b, Map<MatrixXd> &x) {
+        x = solver.solve(b);
+    }
+};
+SparseSolver *getSparseSolver_(int handle ) {
+    return (SparseSolver *)(handles.get(handle));
 }
 
 extern "C" {
     DllExport void init() {
-        for( int i = 0; i < RESULTS_SIZE; i++ ) {
-            data[i] = 0;
-        }
+        // nothing to do: the handle registry initializes itself when the library is loaded
+    }
+    DllExport void jeigen_set_num_threads( int numThreads ) {
+        Eigen::setNbThreads(numThreads);
+    }
+    DllExport int jeigen_get_num_threads() {
+        return Eigen::nbThreads();
+    }
+    DllExport int jeigen_has_openmp() {
+#ifdef EIGEN_HAS_OPENMP
+        return 1;
+#else
+        return 0;
+#endif
+    }
+    DllExport int getNumLiveHandles() {
+        return handles.getNumLive();
     }
     DllExport int allocateSparseMatrix( int numEntries, int numRows, int numCols, int *rows, int *cols, double *values ) {
         SparseMatrix<double> *pmat = new SparseMatrix<double>(numRows, numCols);
@@ -70,7 +419,16 @@ extern "C" {
             tripletList.push_back(T(rows[i],cols[i],values[i]));
         }
         pmat->setFromTriplets(tripletList.begin(), tripletList.end() );
-        return storeData_(pmat);
+        return storeSparseMatrix_(pmat);
+    }
+    DllExport int allocateSparseMatrixCCS( int numRows, int numCols, int numEntries, int *outerStarts, int *innerIndices, double *values ) {
+        // copies straight into the compressed storage, no need to go via setFromTriplets
+        SparseMatrix<double> *pmat = new SparseMatrix<double>(numRows, numCols);
+        pmat->resizeNonZeros(numEntries);
+        std::copy(outerStarts, outerStarts + numCols + 1, pmat->outerIndexPtr());
+        std::copy(innerIndices, innerIndices + numEntries, pmat->innerIndexPtr());
+        std::copy(values, values + numEntries, pmat->valuePtr());
+        return storeSparseMatrix_(pmat);
     }
     DllExport void getSparseMatrixStats( int handle, int* stats ) { // rows, cols, nonzero
         stats[0] = getSparseMatrix_(handle)->rows();
@@ -93,12 +451,21 @@ extern "C" {
             }
       }
     }
-    DllExport void freeSparseMatrix( int handle ) {
-        if( handle < 0 || handle >= RESULTS_SIZE ) {
-            throw std::runtime_error("handle out of range");
+    DllExport void getSparseMatrixCCS( int handle, int *outerStarts, int *innerIndices, double *values ) {
+        SparseMatrix<double> *pmat = getSparseMatrix_(handle);
+        pmat->makeCompressed();
+        int numEntries = pmat->nonZeros();
+        std::copy(pmat->outerIndexPtr(), pmat->outerIndexPtr() + pmat->outerSize() + 1, outerStarts);
+        std::copy(pmat->innerIndexPtr(), pmat->innerIndexPtr() + numEntries, innerIndices);
+        std::copy(pmat->valuePtr(), pmat->valuePtr() + numEntries, values);
+    }
+    DllExport int freeSparseMatrix( int handle ) {
+        SparseMatrix<double> *pmat = (SparseMatrix<double> *)(handles.release(handle));
+        if( pmat == 0 ) {
+            return -1;
         }
-        delete (SparseMatrix<double> *)(data[handle] );
-        data[handle] = 0;
+        delete pmat;
+        return 0;
     }
     // dummy operation to measure end to end latency
     DllExport void dense_dummy_op1( int rows, int cols, double *afirst, double *aresult ) {
@@ -115,13 +482,56 @@ extern "C" {
         Map<MatrixXd>first(afirst,rows,middle);
         Map<MatrixXd>second(asecond,middle,cols);
         Map<MatrixXd>result(aresult,rows,cols);
-        result = first * second;
+        // result never overlaps first or second, so no need for a temporary
+        result.noalias() = first * second;
+    }
+    DllExport void dense_multiply_add( int rows, int middle, int cols, double alpha, double *afirst, double *asecond, double *aresult ) {
+        Map<MatrixXd>first(afirst,rows,middle);
+        Map<MatrixXd>second(asecond,middle,cols);
+        Map<MatrixXd>result(aresult,rows,cols);
+        result.noalias() += alpha * first * second;
+    }
+    typedef Map<MatrixXd, 0, OuterStride<> > StridedMap;
+    // each matrix is a block of a larger column-major array: element (r,c)
+    // is at a[offset + c * stride + r], or if transposed, that is element (c,r)
+    DllExport void dense_multiply_strided( int rows, int middle, int cols,
+        double *afirst, int firstOffset, int firstStride, int firstTransposed,
+        double *asecond, int secondOffset, int secondStride, int secondTransposed,
+        double *aresult, int resultOffset, int resultStride ) {
+        StridedMap first(afirst + firstOffset, firstTransposed ? middle : rows, firstTransposed ? rows : middle, OuterStride<>(firstStride));
+        StridedMap second(asecond + secondOffset, secondTransposed ? cols : middle, secondTransposed ? middle : cols, OuterStride<>(secondStride));
+        StridedMap result(aresult + resultOffset, rows, cols, OuterStride<>(resultStride));
+        if( firstTransposed && secondTransposed ) {
+            result.noalias() = first.transpose() * second.transpose();
+        } else if( firstTransposed ) {
+            result.noalias() = first.transpose() * second;
+        } else if( secondTransposed ) {
+            result.noalias() = first * second.transpose();
+        } else {
+            result.noalias() = first * second;
+        }
     }
     DllExport int sparse_multiply( int rows, int middle, int cols,
         int onehandle, int twohandle ) {
         SparseMatrix<double> *presult = new SparseMatrix<double>(rows,cols);
         *presult = (*getSparseMatrix_(onehandle)) * (*getSparseMatrix_(twohandle));
-        return storeData_(presult);
+        return storeSparseMatrix_(presult);
+    }
+    // per-element op of two sparse matrices of the same size: 0 add, 1 sub, 2 mul
+    DllExport int sparse_cwise_op( int op, int rows, int cols, int onehandle, int twohandle ) {
+        if( op < 0 || op > 2 ) {
+            return -2;
+        }
+        SparseMatrix<double> *presult = new SparseMatrix<double>(rows,cols);
+        SparseMatrix<double> &one = *getSparseMatrix_(onehandle);
+        SparseMatrix<double> &two = *getSparseMatrix_(twohandle);
+        switch( op ) {
+            case 0: *presult = one + two; break;
+            case 1: *presult = one - two; break;
+            case 2: *presult = one.cwiseProduct(two); break;
+        }
+        presult->prune(0.0); // drop entries that are zero, eg that cancelled, as SparseMatrixLil does
+        return storeSparseMatrix_(presult);
     }
     DllExport int sparse_dummy_op2( int rows, int middle, int cols,
         int onehandle, int twohandle, int numResultColumns ) {
@@ -135,17 +545,17 @@ extern "C" {
             }
         }
         presult->setFromTriplets(tripletList.begin(), tripletList.end() );
-        return storeData_(presult);
+        return storeSparseMatrix_(presult);
     }
     DllExport void sparse_dense_multiply( int rows, int middle, int cols, int onehandle, double *asecond, double *aresult ) {
         Map<MatrixXd> second(asecond,middle,cols);
         Map<MatrixXd> result(aresult,rows,cols);
-        result = (*getSparseMatrix_(onehandle)) * second;
+        result.noalias() = (*getSparseMatrix_(onehandle)) * second;
     }
     DllExport void dense_sparse_multiply( int rows, int middle, int cols, double *afirst, int twohandle, double *aresult ) {
         Map<MatrixXd> first(afirst, rows,middle);
         Map<MatrixXd> result(aresult,rows,cols);
-        result =  first * (*getSparseMatrix_(twohandle));
+        result.noalias() = first * (*getSparseMatrix_(twohandle));
     }
     DllExport void ldlt_solve( int arows, int acols, int bcols, double *avalues, double *bvalues, double *xvalues ) {
         Map<MatrixXd> A(avalues,arows, acols);
@@ -159,6 +569,108 @@ extern "C" {
         Map<MatrixXd> result(xvalues, acols, bcols);
         result = A.fullPivHouseholderQr().solve(b);
     }
+    // as ldlt_solve, but A is a block of a larger array, possibly transposed, as for dense_multiply_strided
+    DllExport void ldlt_solve_strided( int arows, int acols, int bcols, double *avalues, int aOffset, int aStride, int aTransposed,
+        double *bvalues, double *xvalues ) {
+        StridedMap A(avalues + aOffset, aTransposed ? acols : arows, aTransposed ? arows : acols, OuterStride<>(aStride));
+        Map<MatrixXd> b(bvalues, arows, bcols);
+        Map<MatrixXd> result(xvalues, acols, bcols);
+        if( aTransposed ) {
+            result = A.transpose().ldlt().solve(b);
+        } else {
+            result = A.ldlt().solve(b);
+        }
+    }
+    DllExport void fullpivhouseholderqr_solve_strided( int arows, int acols, int bcols, double *avalues, int aOffset, int aStride, int aTransposed,
+        double *bvalues, double *xvalues ) {
+        StridedMap A(avalues + aOffset, aTransposed ? acols : arows, aTransposed ? arows : acols, OuterStride<>(aStride));
+        Map<MatrixXd> b(bvalues, arows, bcols);
+        Map<MatrixXd> result(xvalues, acols, bcols);
+        if( aTransposed ) {
+            result = A.transpose().fullPivHouseholderQr().solve(b);
+        } else {
+            result = A.fullPivHouseholderQr().solve(b);
+        }
+    }
+    DllExport int dense_factorize( int type, int rows, int cols, double *avalues ) {
+        Map<MatrixXd> A(avalues, rows, cols);
+        DenseFactorization *pfactorization = 0;
+        switch( type ) {
+            case 0: pfactorization = new LDLTFactorization(A); break;
+            case 1: pfactorization = new LLTFactorization(A); break;
+            case 2: pfactorization = new PartialPivLUFactorization(A); break;
+            case 3: pfactorization = new ColPivQRFactorization(A); break;
+            default: return -2;
+        }
+        if( !pfactorization->succeeded() ) {
+            delete pfactorization;
+            return -2;
+        }
+        int handle = handles.allocate(pfactorization);
+        if( handle < 0 ) {
+            delete pfactorization;
+        }
+        return handle;
+    }
+    DllExport void dense_factorization_solve( int handle, int bcols, double *bvalues, double *xvalues ) {
+        DenseFactorization *pfactorization = getDenseFactorization_(handle);
+        Map<MatrixXd> b(bvalues, pfactorization->rows, bcols);
+        Map<MatrixXd> x(xvalues, pfactorization->cols, bcols);
+        pfactorization->solve(b, x);
+    }
+    DllExport void dense_factorization_determinant( int handle, double *result ) {
+        DenseFactorization *pfactorization = getDenseFactorization_(handle);
+        result[0] = pfactorization->determinant();
+        result[1] = pfactorization->logAbsDeterminant();
+    }
+    DllExport int freeDenseFactorization( int handle ) {
+        DenseFactorization *pfactorization = (DenseFactorization *)(handles.release(handle));
+        if( pfactorization == 0 ) {
+            return -1;
+        }
+        delete pfactorization;
+        return 0;
+    }
+    DllExport int sparse_solver_create( int type ) {
+        SparseSolver *psolver = 0;
+        switch( type ) {
+            case 0: psolver = new SparseSolverOf<SimplicialLDLT<SparseMatrix<double>, Lower, AMDOrdering<int> > >(); break;
+            case 1: psolver = new SparseSolverOf<SimplicialLLT<SparseMatrix<double>, Lower, AMDOrdering<int> > >(); break;
+            case 2: psolver = new SparseSolverOf<SparseLU<SparseMatrix<double>, COLAMDOrdering<int> > >(); break;
+            case 3: psolver = new SparseSolverOf<SparseQR<SparseMatrix<double>, COLAMDOrdering<int> > >(); break;
+            default: return -2;
+        }
+        int handle = handles.allocate(psolver);
+        if( handle < 0 ) {
+            delete psolver;
+        }
+        return handle;
+    }
+    DllExport void sparse_solver_analyze_pattern( int solverhandle, int matrixhandle ) {
+        SparseMatrix<double> *pmat = getSparseMatrix_(matrixhandle);
+        pmat->makeCompressed();
+        getSparseSolver_(solverhandle)->analyzePattern(*pmat);
+    }
+    DllExport int sparse_solver_factorize( int solverhandle, int matrixhandle ) {
+        SparseMatrix<double> *pmat = getSparseMatrix_(matrixhandle);
+        pmat->makeCompressed();
+        SparseSolver *psolver = getSparseSolver_(solverhandle);
+        psolver->factorize(*pmat);
+        return psolver->info();
+    }
+    DllExport void sparse_solver_solve( int solverhandle, int rows, int cols, int bcols, double *bvalues, double *xvalues ) {
+        Map<MatrixXd> b(bvalues, rows, bcols);
+        Map<MatrixXd> x(xvalues, cols, bcols);
+        getSparseSolver_(solverhandle)->solve(b, x);
+    }
+    DllExport int freeSparseSolver( int handle ) {
+        SparseSolver *psolver = (SparseSolver *)(handles.release(handle));
+        if( psolver == 0 ) {
+            return -1;
+        }
+        delete psolver;
+        return 0;
+    }
     DllExport void svd_dense( int n, int p, double *in, double *u, double *s, double *v ) {
         int m = min( n,p);
         Map<MatrixXd> In(in, n, p );
@@ -207,4 +719,50 @@ extern "C" {
         Map<MatrixXd> Result(result,n,n);
         Result = In.log();
     }
+
+    // single precision versions, for FloatMatrix and FloatSparseMatrix
+    // float sparse matrices arent stored in the handle registry: they are
+    // passed in compressed column form on each call, and mapped in place
+    DllExport void dense_multiply_float( int rows, int middle, int cols, float *afirst, float *asecond, float *aresult ) {
+        Map<MatrixXf>first(afirst,rows,middle);
+        Map<MatrixXf>second(asecond,middle,cols);
+        Map<MatrixXf>result(aresult,rows,cols);
+        result.noalias() = first * second;
+    }
+    DllExport void sparse_dense_multiply_float( int rows, int middle, int cols,
+            int numEntries, int *outerStarts, int *innerIndices, float *avalues,
+            float *asecond, float *aresult ) {
+        MappedSparseMatrix<float> first(rows, middle, numEntries, outerStarts, innerIndices, avalues);
+        Map<MatrixXf> second(asecond,middle,cols);
+        Map<MatrixXf> result(aresult,rows,cols);
+        result.noalias() = first * second;
+    }
+    DllExport void dense_sparse_multiply_float( int rows, int middle, int cols, float *afirst,
+            int numEntries, int *outerStarts, int *innerIndices, float *avalues,
+            float *aresult ) {
+        Map<MatrixXf> first(afirst,rows,middle);
+        MappedSparseMatrix<float> second(middle, cols, numEntries, outerStarts, innerIndices, avalues);
+        Map<MatrixXf> result(aresult,rows,cols);
+        result.noalias() = first * second;
+    }
+    DllExport void ldlt_solve_float( int arows, int acols, int bcols, float *avalues, float *bvalues, float *xvalues ) {
+        Map<MatrixXf> A(avalues,arows, acols);
+        Map<MatrixXf> b(bvalues, arows, bcols);
+        Map<MatrixXf> result(xvalues, acols, bcols);
+        result = A.ldlt().solve(b);
+    }
+    DllExport void fullpivhouseholderqr_solve_float( int arows, int acols, int bcols, float *avalues, float *bvalues, float *xvalues ) {
+        Map<MatrixXf> A(avalues, arows, acols);
+        Map<MatrixXf> b(bvalues, arows, bcols);
+        Map<MatrixXf> result(xvalues, acols, bcols);
+        result = A.fullPivHouseholderQr().solve(b);
+    }
+    DllExport void svd_dense_float( int n, int p, float *in, float *u, float *s, float *v ) {
+        int m = min( n,p);
+        Map<MatrixXf> In(in, n, p );
+        JacobiSVD<MatrixXf,HouseholderQRPreconditioner> svd(In, ComputeThinU | ComputeThinV);
+        Map<MatrixXf>(u, n, m) = svd.matrixU();
+        Map<VectorXf>(s, m) = svd.singularValues();
+        Map<MatrixXf>(v, p, m) = svd.matrixV();
+    }
 } // extern "C"
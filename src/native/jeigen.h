@@ -17,13 +17,31 @@
 
 extern "C" {
     DllExport void init();
+
+    // number of threads Eigen may use, for large products
+    // 0 means use the OpenMP default, ie usually one per core
+    // always 1 if built without OpenMP
+    DllExport void jeigen_set_num_threads( int numThreads );
+    DllExport int jeigen_get_num_threads();
+    DllExport int jeigen_has_openmp(); // 1 if built with OpenMP, otherwise 0
     DllExport void dense_dummy_op1( int rows, int cols, double *one, double *result ); // just used for measuring the overhead of java/jna calls
     DllExport void dense_dummy_op2( int rows, int middle, int cols, double *one, double *two, double *result ); // just used for measuring the overhead of java/jna calls
-    DllExport int sparse_dummy_multiply( int rows, int middle, int cols, int oneHandle, int twoHandle, int numResultElements );
+    DllExport int sparse_dummy_op2( int rows, int middle, int cols, int oneHandle, int twoHandle, int numResultColumns );
     DllExport void dense_multiply( int rows, int middle, int cols, double *first, double *second, double *result );
+    // result += alpha * first * second
+    DllExport void dense_multiply_add( int rows, int middle, int cols, double alpha, double *first, double *second, double *result );
+    // first, second and result are blocks of larger column-major arrays, eg (r,c) of first is first[firstOffset + c * firstStride + r]
+    // first and second can be transposed, ie first[firstOffset + r * firstStride + c]
+    DllExport void dense_multiply_strided( int rows, int middle, int cols,
+        double *first, int firstOffset, int firstStride, int firstTransposed,
+        double *second, int secondOffset, int secondStride, int secondTransposed,
+        double *result, int resultOffset, int resultStride );
     DllExport void sparse_dense_multiply( int rows, int middle, int cols, int oneHandle, double *second, double *result );
     DllExport void dense_sparse_multiply( int rows, int middle, int cols, double *first, int twoHandle, double *result );
     DllExport int sparse_multiply( int rows, int middle, int cols, int oneHandle, int twoHandle );
+    // op is 0 for add, 1 for sub, 2 for per-element mul (cwiseProduct).  Entries
+    // that are zero are dropped from the result.  Returns -2 for any other op
+    DllExport int sparse_cwise_op( int op, int rows, int cols, int oneHandle, int twoHandle );
 
     // use a rows*1 vector for the values real and imaginary parts
     // use a rows*rows matrix for the vectors real and imaginary parts
@@ -32,15 +50,61 @@ extern "C" {
 
     DllExport void ldlt_solve( int arow, int acols, int bcols, double *avalues, double *bvalues, double *xvalues );
     DllExport void fullpivhouseholderqr_solve( int arow, int acols, int bcols, double *avalues, double *bvalues, double *xvalues );
+    // A is a block of a larger array, possibly transposed, as for dense_multiply_strided
+    DllExport void ldlt_solve_strided( int arows, int acols, int bcols, double *avalues, int aOffset, int aStride, int aTransposed, double *bvalues, double *xvalues );
+    DllExport void fullpivhouseholderqr_solve_strided( int arows, int acols, int bcols, double *avalues, int aOffset, int aStride, int aTransposed, double *bvalues, double *xvalues );
+
+    // factorizes A once, for many solves.  type is 0 ldlt, 1 llt, 2 partialPivLu,
+    // 3 colPivQr.  Returns a handle, or -2 if the factorization failed, eg llt
+    // of a matrix that isnt positive definite
+    DllExport int dense_factorize( int type, int rows, int cols, double *avalues );
+    // b has the rows of A, x has the cols of A
+    DllExport void dense_factorization_solve( int handle, int bcols, double *bvalues, double *xvalues );
+    // result is determinant, then log of its absolute value
+    DllExport void dense_factorization_determinant( int handle, double *result );
+    DllExport int freeDenseFactorization( int handle ); // returns -1 if handle wasnt live, otherwise 0
+
+    // sparse direct solvers.  type is 0 SimplicialLDLT, 1 SimplicialLLT, both
+    // using the lower triangle and AMD ordering, 2 SparseLU, 3 SparseQR, both
+    // using COLAMD ordering.  analyze_pattern and factorize take a sparse
+    // matrix handle; factorize can be called again for a matrix with the
+    // same pattern, and returns Eigen's ComputationInfo, ie 0 for success
+    DllExport int sparse_solver_create( int type );
+    DllExport void sparse_solver_analyze_pattern( int solverhandle, int matrixhandle );
+    DllExport int sparse_solver_factorize( int solverhandle, int matrixhandle );
+    // b has rows rows, x has cols rows, where A is rows * cols
+    DllExport void sparse_solver_solve( int solverhandle, int rows, int cols, int bcols, double *bvalues, double *xvalues );
+    DllExport int freeSparseSolver( int handle ); // returns -1 if handle wasnt live, otherwise 0
 
     DllExport int allocateSparseMatrix( int numEntries, int numRows, int numCols, int *rows, int *cols, double *values );
     DllExport void getSparseMatrixStats( int handle, int* stats ); // rows, cols, nonzero
     DllExport void getSparseMatrix( int handle, int *rows, int *cols, double *values );
-    DllExport void freeSparseMatrix( int handle );
+    DllExport int freeSparseMatrix( int handle ); // returns -1 if handle wasnt live, otherwise 0
+
+    // handles are returned by allocateSparseMatrix, sparse_multiply etc; these
+    // return -1 if there are no handles left
+    DllExport int getNumLiveHandles();
+
+    // compressed column storage, same layout as Eigen's compressed SparseMatrix,
+    // ie numCols + 1 outerStarts, and numEntries innerIndices (rows) and values
+    // entries must be sorted by column, then row, with no duplicates
+    DllExport int allocateSparseMatrixCCS( int numRows, int numCols, int numEntries, int *outerStarts, int *innerIndices, double *values );
+    DllExport void getSparseMatrixCCS( int handle, int *outerStarts, int *innerIndices, double *values );
 
     // does thin svd, returning u,s,v
     DllExport void svd_dense( int numrows, int numcols, double *in, double *u, double *s, double *v );
 
+    // single precision.  Float sparse matrices are passed as compressed
+    // column arrays, as for allocateSparseMatrixCCS, rather than as handles
+    DllExport void dense_multiply_float( int rows, int middle, int cols, float *first, float *second, float *result );
+    DllExport void sparse_dense_multiply_float( int rows, int middle, int cols,
+        int numEntries, int *outerStarts, int *innerIndices, float *values, float *second, float *result );
+    DllExport void dense_sparse_multiply_float( int rows, int middle, int cols, float *first,
+        int numEntries, int *outerStarts, int *innerIndices, float *values, float *result );
+    DllExport void ldlt_solve_float( int arow, int acols, int bcols, float *avalues, float *bvalues, float *xvalues );
+    DllExport void fullpivhouseholderqr_solve_float( int arow, int acols, int bcols, float *avalues, float *bvalues, float *xvalues );
+    DllExport void svd_dense_float( int numrows, int numcols, float *in, float *u, float *s, float *v );
+
     // from unsupported
     DllExport void jeigen_exp( int n, double *in, double *result );
     DllExport void jeigen_log( int n, double *in, double *result );